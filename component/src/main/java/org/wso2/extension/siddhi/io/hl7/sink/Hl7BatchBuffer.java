@@ -0,0 +1,146 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.sink;
+
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Er7Utils;
+
+/**
+ * {@code Hl7BatchBuffer} accumulates ER7 messages and wraps them in the FHS/BHS/BTS/FTS envelope of the hl7
+ * batch protocol. The sending and receiving application and facility of the envelope are taken from the MSH
+ * segment of the first message in the batch. Callers should synchronize on the buffer.
+ */
+public class Hl7BatchBuffer {
+
+    private StringBuilder messages = new StringBuilder();
+    private int size;
+    private long firstMessageTime;
+    private String firstMessage;
+    private int lastMessageStart = -1;
+
+    public void add(String message) {
+
+        if (size == 0) {
+            firstMessage = message;
+            firstMessageTime = System.currentTimeMillis();
+        }
+        lastMessageStart = messages.length();
+        messages.append(message);
+        if (!message.endsWith("\r")) {
+            messages.append('\r');
+        }
+        size++;
+    }
+
+    /**
+     * Removes the message added last, e.g. when the batch it completed could not be sent and the message is
+     * published again. Only the last added message can be removed.
+     */
+    public void removeLast() {
+
+        if (lastMessageStart < 0) {
+            return;
+        }
+        messages.setLength(lastMessageStart);
+        lastMessageStart = -1;
+        size--;
+        if (size == 0) {
+            firstMessage = null;
+        }
+    }
+
+    public int size() {
+
+        return size;
+    }
+
+    /**
+     * Checks whether the first message of the batch has been waiting longer than the given delay.
+     *
+     * @param currentTime - current time in milliseconds
+     * @param maxDelay    - maximum time (in milliseconds) a message may wait in the batch
+     * @return true if the batch should be sent
+     */
+    public boolean isExpired(long currentTime, long maxDelay) {
+
+        return size > 0 && currentTime - firstMessageTime >= maxDelay;
+    }
+
+    /**
+     * Builds the batch file containing all the buffered messages.
+     *
+     * @param controlId - control id used for the file and the batch header
+     * @param timestamp - creation time of the batch in hl7 TS format
+     * @return ER7 encoded batch file
+     */
+    public String build(String controlId, String timestamp) {
+
+        String header = buildHeader(firstMessage, controlId, timestamp);
+        String fieldSeparator = Hl7Er7Utils.getField(firstMessage, "MSH", 1);
+        StringBuilder batch = new StringBuilder(messages.length() + 2 * header.length() + 32);
+        batch.append("FHS").append(header)
+                .append("BHS").append(header)
+                .append(messages)
+                .append(buildTrailer(fieldSeparator, size));
+        return batch.toString();
+    }
+
+    /**
+     * Builds the fields of the FHS and BHS segments, i.e. everything after the segment name.
+     *
+     * @param firstMessage - first message of the batch, the delimiters and the application and facility fields
+     *                     are taken from its MSH segment
+     * @param controlId    - control id used for the file and the batch header
+     * @param timestamp    - creation time of the batch in hl7 TS format
+     * @return the header fields terminated by a carriage return
+     */
+    public static String buildHeader(String firstMessage, String controlId, String timestamp) {
+
+        String fieldSeparator = Hl7Er7Utils.getField(firstMessage, "MSH", 1);
+        String encodingCharacters = Hl7Er7Utils.getField(firstMessage, "MSH", 2);
+        StringBuilder header = new StringBuilder();
+        header.append(fieldSeparator).append(encodingCharacters);
+        for (int fieldNo = 3; fieldNo <= 6; fieldNo++) {
+            String value = Hl7Er7Utils.getField(firstMessage, "MSH", fieldNo);
+            header.append(fieldSeparator).append(value == null ? "" : value);
+        }
+        header.append(fieldSeparator).append(timestamp).append(fieldSeparator).append(fieldSeparator)
+                .append(fieldSeparator).append(fieldSeparator).append(controlId).append('\r');
+        return header.toString();
+    }
+
+    /**
+     * Builds the BTS and FTS segments closing a file with a single batch.
+     *
+     * @param fieldSeparator - field separator of the batch
+     * @param messageCount   - number of messages in the batch
+     * @return the trailer segments
+     */
+    public static String buildTrailer(String fieldSeparator, int messageCount) {
+
+        return "BTS" + fieldSeparator + messageCount + "\r" + "FTS" + fieldSeparator + 1 + "\r";
+    }
+
+    public void clear() {
+
+        messages.setLength(0);
+        lastMessageStart = -1;
+        size = 0;
+        firstMessage = null;
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.sink;
+
+import org.apache.log4j.Logger;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Er7Utils;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7TimestampCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code Hl7BatchFileWriter} appends ER7 messages to FHS/BHS wrapped batch files. The messages are encoded into a
+ * direct buffer which is written to the file channel when it is full or when the writer is flushed. A file is
+ * written with the {@link #PART_SUFFIX} suffix and renamed once its BTS/FTS trailer is written, so that consumers
+ * picking up the files from the directory only see complete batch files. The part files are marked with the id of
+ * the writer, which holds a lock on its own lock file in the directory while it is connected, so that the part
+ * files of the other writers of the directory are only recovered once their writers are gone. The final file names
+ * contain a short form of the writer id, so that writers sharing a directory and a prefix do not replace each
+ * other's files. Callers should synchronize on the writer.
+ */
+public class Hl7BatchFileWriter {
+
+    public static final String PART_SUFFIX = ".part";
+    private static final Logger log = Logger.getLogger(Hl7BatchFileWriter.class);
+    private static final String FILE_EXTENSION = ".hl7";
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final int SHORT_ID_LENGTH = 8;
+    // ids of the writers of this process which hold or are acquiring their locks, closing any channel of a lock
+    // file releases all the locks of the process on that file, hence such lock files must not be opened again
+    private static final Set<String> LOCKED_WRITERS = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
+    private Path dirPath;
+    private String filePrefix;
+    private CharsetEncoder encoder;
+    private ByteBuffer buffer;
+    private FileChannel channel;
+    private Path partFile;
+    private Path targetFile;
+    private String fieldSeparator;
+    private int messageCount;
+    private long fileSize;
+    private long openedTime;
+    private long fileSequence;
+    private String writerId = UUID.randomUUID().toString();
+    private FileChannel lockChannel;
+    private FileLock lock;
+
+    /**
+     * Creates the writer, the first file is created when the first message is appended.
+     *
+     * @param dirPath    - directory of the batch files
+     * @param filePrefix - prefix of the batch file names
+     * @param charset    - character encoding of the files
+     * @param bufferSize - size (in bytes) of the write buffer
+     */
+    public Hl7BatchFileWriter(Path dirPath, String filePrefix, Charset charset, int bufferSize) {
+
+        this.dirPath = dirPath;
+        this.filePrefix = filePrefix;
+        this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Locks the lock file of this writer, and renames the part files which are not closed by their writers, e.g.
+     * after an unclean shutdown, so that the messages written to them are not lost. Such files do not have the
+     * BTS/FTS trailer. The part files of the writers which still hold their locks, in this or in another process,
+     * are left to them, and the lock files of the writers which are gone are deleted.
+     */
+    public void recoverPartFiles() throws IOException {
+
+        if (lock == null) {
+            LOCKED_WRITERS.add(writerId);
+            try {
+                lockChannel = FileChannel.open(getLockFile(writerId), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE);
+                lock = lockChannel.lock();
+            } catch (IOException e) {
+                releaseLock();
+                throw e;
+            }
+        }
+        Map<String, Boolean> abandonedWriters = new HashMap<>();
+        try (DirectoryStream<Path> partFiles = Files.newDirectoryStream(dirPath,
+                filePrefix + "-*" + FILE_EXTENSION + ".*" + PART_SUFFIX)) {
+            for (Path file : partFiles) {
+                String fileName = file.getFileName().toString();
+                int extensionEnd = fileName.lastIndexOf(FILE_EXTENSION + ".") + FILE_EXTENSION.length();
+                String ownerId = fileName.substring(extensionEnd + 1, fileName.length() - PART_SUFFIX.length());
+                if (ownerId.equals(writerId) ? file.equals(partFile) && channel != null :
+                        !isAbandoned(ownerId, abandonedWriters)) {
+                    continue;
+                }
+                Path recoveredFile = file.resolveSibling(fileName.substring(0, extensionEnd));
+                try {
+                    move(file, recoveredFile);
+                } catch (NoSuchFileException e) {
+                    // recovered by another writer of the directory
+                    continue;
+                }
+                log.warn("Recovered the incomplete batch file " + recoveredFile + " which does not have the " +
+                        "batch trailer. ");
+            }
+        }
+        try (DirectoryStream<Path> lockFiles = Files.newDirectoryStream(dirPath, filePrefix + "-*" + LOCK_SUFFIX)) {
+            for (Path file : lockFiles) {
+                String fileName = file.getFileName().toString();
+                String ownerId = fileName.substring(filePrefix.length() + 1, fileName.length() -
+                        LOCK_SUFFIX.length());
+                if (!ownerId.equals(writerId)) {
+                    isAbandoned(ownerId, abandonedWriters);
+                }
+            }
+        }
+        for (Map.Entry<String, Boolean> abandonedWriter : abandonedWriters.entrySet()) {
+            if (abandonedWriter.getValue()) {
+                Files.deleteIfExists(getLockFile(abandonedWriter.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Checks whether the writer with the given id is gone, i.e. it is not a writer of this process holding its lock
+     * and its lock file is not locked by another process.
+     */
+    private boolean isAbandoned(String ownerId, Map<String, Boolean> abandonedWriters) throws IOException {
+
+        Boolean abandoned = abandonedWriters.get(ownerId);
+        if (abandoned == null && LOCKED_WRITERS.contains(ownerId)) {
+            abandoned = false;
+            abandonedWriters.put(ownerId, abandoned);
+        } else if (abandoned == null) {
+            try (FileChannel ownerChannel = FileChannel.open(getLockFile(ownerId), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                abandoned = ownerChannel.tryLock() != null;
+            } catch (OverlappingFileLockException e) {
+                // checked by another writer of this process at the same time
+                abandoned = false;
+            }
+            abandonedWriters.put(ownerId, abandoned);
+        }
+        return abandoned;
+    }
+
+    private Path getLockFile(String id) {
+
+        return dirPath.resolve(filePrefix + "-" + id + LOCK_SUFFIX);
+    }
+
+    /**
+     * Releases and deletes the lock file of this writer. The part files left by the writer can be recovered by the
+     * other writers of the directory afterwards.
+     */
+    public void releaseLock() {
+
+        if (lockChannel != null) {
+            try {
+                lockChannel.close();
+                Files.deleteIfExists(getLockFile(writerId));
+            } catch (IOException e) {
+                log.error("Error occurred while releasing the lock file " + getLockFile(writerId) + ". ", e);
+            }
+            lockChannel = null;
+            lock = null;
+        }
+        LOCKED_WRITERS.remove(writerId);
+    }
+
+    /**
+     * Appends the message to the current file, creating a new file if there is none. The batch header of a new
+     * file is built from the MSH segment of the message.
+     *
+     * @param message - ER7 encoded hl7 message
+     */
+    public void append(String message) throws IOException {
+
+        if (channel == null) {
+            open(message);
+        }
+        encode(message);
+        if (!message.endsWith("\r")) {
+            encode("\r");
+        }
+        messageCount++;
+    }
+
+    public boolean isOpen() {
+
+        return channel != null;
+    }
+
+    /**
+     * Checks whether the current file reached the maximum size or age.
+     *
+     * @param maxSize     - maximum size (in bytes) of a file
+     * @param maxAge      - maximum time (in milliseconds) a file is kept open
+     * @param currentTime - current time in milliseconds
+     * @return true if the current file should be closed
+     */
+    public boolean isRolloverDue(long maxSize, long maxAge, long currentTime) {
+
+        return channel != null && (fileSize >= maxSize || currentTime - openedTime >= maxAge);
+    }
+
+    /**
+     * Writes the buffered bytes to the file.
+     *
+     * @param sync - whether the content should be forced to the storage device
+     */
+    public void flush(boolean sync) throws IOException {
+
+        if (channel == null) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        if (sync) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Writes the batch trailer, closes the current file and renames it to its final name.
+     *
+     * @param sync - whether the file should be forced to the storage device before it is renamed
+     */
+    public void close(boolean sync) throws IOException {
+
+        if (channel == null) {
+            return;
+        }
+        encode(Hl7BatchBuffer.buildTrailer(fieldSeparator, messageCount));
+        flush(sync);
+        channel.close();
+        channel = null;
+        move(partFile, targetFile);
+        if (log.isDebugEnabled()) {
+            log.debug("Closed the batch file " + targetFile + " with " + messageCount + " messages. ");
+        }
+    }
+
+    /**
+     * Closes the current file without writing the trailer or renaming it, after a failure. The buffered bytes
+     * are discarded and the part file is recovered by {@link #recoverPartFiles()}.
+     */
+    public void abort() {
+
+        buffer.clear();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("Error occurred while closing the batch file " + partFile + ". ", e);
+            }
+            channel = null;
+        }
+    }
+
+    private void open(String firstMessage) throws IOException {
+
+        long currentTime = System.currentTimeMillis();
+        String fileId = new SimpleDateFormat("yyyyMMddHHmmssSSS").format(new Date(currentTime)) + "-" +
+                fileSequence++;
+        String fileName = filePrefix + "-" + fileId + "-" + writerId.substring(0, SHORT_ID_LENGTH) + FILE_EXTENSION;
+        targetFile = dirPath.resolve(fileName);
+        partFile = dirPath.resolve(fileName + "." + writerId + PART_SUFFIX);
+        channel = FileChannel.open(partFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        fieldSeparator = Hl7Er7Utils.getField(firstMessage, "MSH", 1);
+        messageCount = 0;
+        fileSize = 0;
+        openedTime = currentTime;
+        String header = Hl7BatchBuffer.buildHeader(firstMessage, fileId, Hl7TimestampCache.now());
+        encode("FHS");
+        encode(header);
+        encode("BHS");
+        encode(header);
+    }
+
+    private void encode(String value) throws IOException {
+
+        CharBuffer chars = CharBuffer.wrap(value);
+        encoder.reset();
+        int start = buffer.position();
+        while (encoder.encode(chars, buffer, true).isOverflow()) {
+            fileSize += buffer.position() - start;
+            flush(false);
+            start = 0;
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            fileSize += buffer.position() - start;
+            flush(false);
+            start = 0;
+        }
+        fileSize += buffer.position() - start;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.sink;
+
+import org.wso2.extension.siddhi.io.hl7.sink.exception.Hl7SinkRuntimeException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code Hl7ControlIdGenerator} generates monotonic message control ids of the form {prefix}{counter}.
+ * <p>
+ * Without a reserve file the counter is seeded from the current time (in microseconds), so that ids stay
+ * unique across restarts as long as less than a thousand ids are generated per millisecond on average. With a
+ * reserve file, blocks of ids are reserved by writing the upper bound of the block to the file before the ids
+ * of the block are used, and after a restart the counter continues from the last reserved bound. Generating an
+ * id only touches the file when a block is exhausted.
+ */
+public class Hl7ControlIdGenerator {
+
+    private static final long RESERVE_BLOCK_SIZE = 10000;
+    private String prefix;
+    private Path reserveFile;
+    private AtomicLong counter;
+    private volatile long reservedUpTo;
+
+    /**
+     * Creates the generator.
+     *
+     * @param prefix      - prefix which identifies the node, added in front of each id
+     * @param reserveFile - file in which the reserved bound is persisted, or null to seed from the current time
+     * @throws IOException if the reserve file cannot be read or written
+     */
+    public Hl7ControlIdGenerator(String prefix, Path reserveFile) throws IOException {
+
+        this.prefix = prefix;
+        this.reserveFile = reserveFile;
+        if (reserveFile == null) {
+            this.counter = new AtomicLong(System.currentTimeMillis() * 1000);
+            this.reservedUpTo = Long.MAX_VALUE;
+        } else {
+            long start = 0;
+            if (Files.exists(reserveFile)) {
+                String value = new String(Files.readAllBytes(reserveFile), StandardCharsets.UTF_8).trim();
+                if (!value.isEmpty()) {
+                    start = Long.parseLong(value);
+                }
+            }
+            this.counter = new AtomicLong(start);
+            reserve(start + RESERVE_BLOCK_SIZE);
+        }
+    }
+
+    public String next() {
+
+        long value = counter.incrementAndGet();
+        if (value > reservedUpTo) {
+            synchronized (this) {
+                if (value > reservedUpTo) {
+                    try {
+                        reserve(value + RESERVE_BLOCK_SIZE);
+                    } catch (IOException e) {
+                        throw new Hl7SinkRuntimeException("Failed to reserve the message control ids in " +
+                                reserveFile + ". ", e);
+                    }
+                }
+            }
+        }
+        return prefix + value;
+    }
+
+    public long getCurrent() {
+
+        return counter.get();
+    }
+
+    /**
+     * Moves the counter forward to the given value, e.g. when restoring a snapshot. The counter never moves back.
+     *
+     * @param value - last id generated before the snapshot
+     */
+    public void restore(long value) {
+
+        long current = counter.get();
+        while (value > current && !counter.compareAndSet(current, value)) {
+            current = counter.get();
+        }
+    }
+
+    private void reserve(long upperBound) throws IOException {
+
+        Path temporaryFile = reserveFile.resolveSibling(reserveFile.getFileName() + ".tmp");
+        Files.write(temporaryFile, String.valueOf(upperBound).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporaryFile, reserveFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        reservedUpTo = upperBound;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.sink;
+
+import org.apache.log4j.Logger;
+import org.wso2.extension.siddhi.io.hl7.sink.exception.Hl7SinkRuntimeException;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Constants;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Er7Utils;
+import org.wso2.siddhi.annotation.Example;
+import org.wso2.siddhi.annotation.Extension;
+import org.wso2.siddhi.annotation.Parameter;
+import org.wso2.siddhi.annotation.util.DataType;
+import org.wso2.siddhi.core.config.SiddhiAppContext;
+import org.wso2.siddhi.core.exception.ConnectionUnavailableException;
+import org.wso2.siddhi.core.stream.output.sink.Sink;
+import org.wso2.siddhi.core.util.config.ConfigReader;
+import org.wso2.siddhi.core.util.transport.DynamicOptions;
+import org.wso2.siddhi.core.util.transport.OptionHolder;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code Hl7FileSink } appends the hl7 messages to batch files.
+ */
+@Extension(
+        name = "hl7file",
+        namespace = "sink",
+        description = "The hl7file sink appends ER7 encoded hl7 messages to FHS/BHS wrapped batch files in a " +
+                "directory, e.g. for archival or for systems which pick up batch files. Messages are encoded " +
+                "into a write buffer and appended to the file channel, and a new file is started when the " +
+                "current file reaches the maximum size or age. A file is written with the `.part` suffix and " +
+                "renamed to `{file.prefix}-{yyyyMMddHHmmssSSS}-{sequence}.hl7` once its BTS/FTS trailer is " +
+                "written. Each sink holds a lock file in the directory while it is connected, and part files " +
+                "left by an unclean shutdown are renamed without the trailer when a sink with the same prefix " +
+                "connects, once the sink which wrote them no longer holds its lock. ",
+        parameters = {
+                @Parameter(name = "dir.path",
+                        description = "The directory in which the batch files are written. ",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "file.prefix",
+                        description = "Prefix of the batch file names. ",
+                        optional = true, defaultValue = "hl7-batch",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.file.max.size",
+                        description = "The size (in bytes) after which the current file is closed and the next " +
+                                "message is written to a new file. ",
+                        optional = true, defaultValue = "67108864",
+                        type = {DataType.LONG}),
+
+                @Parameter(name = "hl7.file.max.age.ms",
+                        description = "The time (in milliseconds) after which the current file is closed, even " +
+                                "if no more messages are published. ",
+                        optional = true, defaultValue = "60000",
+                        type = {DataType.LONG}),
+
+                @Parameter(name = "hl7.file.fsync",
+                        description = "When the written messages are forced to the storage device. This can be " +
+                                "`none` (left to the operating system), `rollover` (before a file is renamed) or " +
+                                "`always` (after each published message). The buffered messages are written to " +
+                                "the file at least once per second regardless of this option. ",
+                        optional = true, defaultValue = "rollover",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.file.buffer.size",
+                        description = "The size (in bytes) of the write buffer. ",
+                        optional = true, defaultValue = "65536",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "charset",
+                        description = "Character encoding of the files. ",
+                        optional = true, defaultValue = "UTF-8",
+                        type = {DataType.STRING})
+        },
+        examples = {
+                @Example(
+                        syntax = "@App:name('Hl7FileSinkTestApp') \n" +
+                                "@sink(type = 'hl7file', \n" +
+                                "dir.path = '/archive/adt', \n" +
+                                "file.prefix = 'adt', \n" +
+                                "hl7.file.max.size = '104857600', \n" +
+                                "hl7.file.max.age.ms = '3600000', \n" +
+                                "@map(type = 'text', @payload(\"{{payload}}\"))) \n" +
+                                "define stream hl7stream(payload string); \n"
+                        ,
+                        description = "This appends the ER7 messages to batch files in /archive/adt, starting a " +
+                                "new file every 100MB or every hour. \n "
+                )
+        }
+)
+public class Hl7FileSink extends Sink {
+
+    private static final Logger log = Logger.getLogger(Hl7FileSink.class);
+    private static final long FLUSH_INTERVAL = 1000;
+    private String siddhiAppName;
+    private String streamID;
+    private Path dirPath;
+    private long maxFileSize;
+    private long maxFileAge;
+    private String fsyncPolicy;
+    private Hl7BatchFileWriter writer;
+    private ScheduledExecutorService scheduledExecutorService;
+    private ScheduledFuture flushTask;
+
+    @Override
+    public Class[] getSupportedInputEventClasses() {
+
+        return new Class[]{String.class};
+    }
+
+    @Override
+    public String[] getSupportedDynamicOptions() {
+
+        return new String[0];
+    }
+
+    @Override
+    protected void init(StreamDefinition streamDefinition, OptionHolder optionHolder, ConfigReader configReader,
+                        SiddhiAppContext siddhiAppContext) {
+
+        this.siddhiAppName = siddhiAppContext.getName();
+        this.streamID = streamDefinition.getId();
+        this.dirPath = Paths.get(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_DIR_PATH));
+        String filePrefix = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_FILE_PREFIX,
+                Hl7Constants.DEFAULT_HL7_FILE_PREFIX);
+        int bufferSize;
+        try {
+            this.maxFileSize = Long.parseLong(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_FILE_MAX_SIZE,
+                    Hl7Constants.DEFAULT_HL7_FILE_MAX_SIZE));
+            this.maxFileAge = Long.parseLong(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_FILE_MAX_AGE,
+                    Hl7Constants.DEFAULT_HL7_FILE_MAX_AGE));
+            bufferSize = Integer.parseInt(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_FILE_BUFFER_SIZE,
+                    Hl7Constants.DEFAULT_HL7_FILE_BUFFER_SIZE));
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppValidationException("Invalid hl7.file.max.size, hl7.file.max.age.ms or " +
+                    "hl7.file.buffer.size defined in " + siddhiAppName + ":" + streamID + ". ", e);
+        }
+        if (maxFileSize < 1 || maxFileAge < 1 || bufferSize < 1) {
+            throw new SiddhiAppValidationException("Invalid hl7.file.max.size, hl7.file.max.age.ms or " +
+                    "hl7.file.buffer.size defined in " + siddhiAppName + ":" + streamID + ". The values should be " +
+                    "greater than zero. ");
+        }
+        this.fsyncPolicy = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_FILE_FSYNC,
+                Hl7Constants.DEFAULT_HL7_FILE_FSYNC).toLowerCase(Locale.ENGLISH);
+        if (!(fsyncPolicy.equals(Hl7Constants.FSYNC_NONE) || fsyncPolicy.equals(Hl7Constants.FSYNC_ROLLOVER) ||
+                fsyncPolicy.equals(Hl7Constants.FSYNC_ALWAYS))) {
+            throw new SiddhiAppValidationException("Invalid hl7.file.fsync defined in " + siddhiAppName + ":" +
+                    streamID + ". The hl7.file.fsync should be none, rollover or always. ");
+        }
+        Charset charset;
+        try {
+            charset = Charset.forName(optionHolder.validateAndGetStaticValue(Hl7Constants.CHARSET_NAME,
+                    Hl7Constants.DEFAULT_HL7_CHARSET));
+        } catch (IllegalArgumentException e) {
+            throw new SiddhiAppValidationException("Invalid charset defined in " + siddhiAppName + ":" + streamID +
+                    ". ", e);
+        }
+        this.writer = new Hl7BatchFileWriter(dirPath, filePrefix, charset, bufferSize);
+        this.scheduledExecutorService = siddhiAppContext.getScheduledExecutorService();
+    }
+
+    @Override
+    public void publish(Object payload, DynamicOptions dynamicOptions) throws ConnectionUnavailableException {
+
+        String hl7Message = (String) payload;
+        if (!Hl7Er7Utils.isValidMshSegment(hl7Message)) {
+            log.error("Error occurred while processing the message. Please check the " + siddhiAppName + ":" +
+                    streamID + ". Invalid MSH segment found in the message. ");
+            throw new Hl7SinkRuntimeException("Error occurred while processing the message. Please check the " +
+                    siddhiAppName + ":" + streamID + ". Invalid MSH segment found in the message. ");
+        }
+        synchronized (writer) {
+            try {
+                if (writer.isRolloverDue(maxFileSize, maxFileAge, System.currentTimeMillis())) {
+                    writer.close(!fsyncPolicy.equals(Hl7Constants.FSYNC_NONE));
+                }
+                writer.append(hl7Message);
+                if (fsyncPolicy.equals(Hl7Constants.FSYNC_ALWAYS)) {
+                    writer.flush(true);
+                }
+            } catch (IOException e) {
+                writer.abort();
+                throw new ConnectionUnavailableException("Error occurred while writing the message from stream: " +
+                        siddhiAppName + ":" + streamID + " to the directory " + dirPath + ". ", e);
+            }
+        }
+    }
+
+    private void flushOrRollover() {
+
+        synchronized (writer) {
+            try {
+                if (writer.isRolloverDue(maxFileSize, maxFileAge, System.currentTimeMillis())) {
+                    writer.close(!fsyncPolicy.equals(Hl7Constants.FSYNC_NONE));
+                } else {
+                    writer.flush(false);
+                }
+            } catch (IOException e) {
+                log.error("Error occurred while writing the batch file of stream " + siddhiAppName + ":" +
+                        streamID + " to the directory " + dirPath + ". The file is recovered when the sink " +
+                        "reconnects. ", e);
+                writer.abort();
+            }
+        }
+    }
+
+    @Override
+    public void connect() throws ConnectionUnavailableException {
+
+        try {
+            Files.createDirectories(dirPath);
+            synchronized (writer) {
+                writer.recoverPartFiles();
+            }
+        } catch (IOException e) {
+            throw new ConnectionUnavailableException("Failed to prepare the directory " + dirPath + " defined in " +
+                    siddhiAppName + ":" + streamID + ". ", e);
+        }
+        if (flushTask == null) {
+            flushTask = scheduledExecutorService.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+
+                    flushOrRollover();
+                }
+            }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void disconnect() {
+
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        synchronized (writer) {
+            try {
+                writer.close(!fsyncPolicy.equals(Hl7Constants.FSYNC_NONE));
+            } catch (IOException e) {
+                log.error("Error occurred while closing the batch file of stream " + siddhiAppName + ":" +
+                        streamID + " in the directory " + dirPath + ". ", e);
+                writer.abort();
+            }
+            writer.releaseLock();
+        }
+    }
+
+    @Override
+    public void destroy() {
+
+    }
+
+    @Override
+    public Map<String, Object> currentState() {
+
+        return null;
+    }
+
+    @Override
+    public void restoreState(Map<String, Object> map) {
+
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.sink;
+
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.hoh.api.DecodeException;
+import ca.uhn.hl7v2.hoh.api.EncodeException;
+import ca.uhn.hl7v2.hoh.api.IReceivable;
+import ca.uhn.hl7v2.hoh.hapi.client.HohClientMultithreaded;
+import ca.uhn.hl7v2.hoh.sockets.CustomCertificateTlsSocketFactory;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.ModelClassFactory;
+import ca.uhn.hl7v2.parser.Parser;
+import org.apache.log4j.Logger;
+import org.wso2.extension.siddhi.io.hl7.sink.exception.Hl7SinkRuntimeException;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Constants;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7HapiContextRegistry;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Utils;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7WarmUp;
+import org.wso2.siddhi.annotation.Example;
+import org.wso2.siddhi.annotation.Extension;
+import org.wso2.siddhi.annotation.Parameter;
+import org.wso2.siddhi.annotation.util.DataType;
+import org.wso2.siddhi.core.config.SiddhiAppContext;
+import org.wso2.siddhi.core.exception.ConnectionUnavailableException;
+import org.wso2.siddhi.core.stream.output.sink.Sink;
+import org.wso2.siddhi.core.util.config.ConfigReader;
+import org.wso2.siddhi.core.util.transport.BackoffRetryCounter;
+import org.wso2.siddhi.core.util.transport.DynamicOptions;
+import org.wso2.siddhi.core.util.transport.OptionHolder;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@code Hl7HttpSink } Handle the Hl7 over HTTP publishing tasks.
+ */
+@Extension(
+        name = "hl7http",
+        namespace = "sink",
+        description = "The hl7http sink publishes the hl7 messages using the HL7 over HTTP protocol. Each message is " +
+                "sent as a HTTP POST request and the acknowledgement is read from the response. Each publishing " +
+                "thread keeps its own persistent (keep-alive) connection, which is reused for the following " +
+                "requests and reopened when it is closed by the server. ",
+        parameters = {
+                @Parameter(name = "uri",
+                        description = "The URL of the HL7 over HTTP receiver. \n " +
+                                "e.g.,\n" +
+                                "`http://{hostname}:{port}/{path}`, \n" +
+                                "`https://{hostname}:{port}/{path}` \n" +
+                                "When `https` is used the keystore parameters are used to trust the server. ",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.encoding",
+                        description = "Encoding method of hl7. This can be er7 or xml. User should define hl7 " +
+                                "encoding type according to the input. ",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.ack.encoding",
+                        description = "Encoding method of hl7 to log the acknowledgment message. This parameter can " +
+                                "be specified as `xml` if required. Otherwise, system uses `er7` format as default. ",
+                        optional = true, defaultValue = "ER7",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "tls.keystore.type",
+                        description = "The type for the keystore used for `https`. ",
+                        optional = true, defaultValue = "JKS",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "tls.keystore.filepath",
+                        description = "The file path to the location of the keystore used for `https`. If a custom " +
+                                "keystore is not specified, then the system uses the default `wso2carbon` keystore " +
+                                "in the `${carbon.home}/resources/security` directory. ",
+                        optional = true, defaultValue = "${carbon.home}/resources/security/wso2carbon.jks",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "tls.keystore.passphrase",
+                        description = "The passphrase for the keystore used for `https`. ",
+                        optional = true, defaultValue = "wso2carbon",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.timeout",
+                        description = "This period of time (in milliseconds) the client will wait for a " +
+                                "response for a given message before timing out. ",
+                        optional = true, defaultValue = "10000",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "hl7.http.max.in.flight",
+                        description = "The maximum number of requests sent concurrently. When this is greater than " +
+                                "one, the messages are published by this number of threads, each with its own " +
+                                "persistent connection, and the order of the messages is not preserved. ",
+                        optional = true, defaultValue = "1",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "hl7.partition.queue.size",
+                        description = "The maximum number of messages waiting for each publishing thread when " +
+                                "`hl7.http.max.in.flight` is greater than one. Publishing is blocked when the " +
+                                "queue is full. ",
+                        optional = true, defaultValue = "1024",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "hl7.model",
+                        description = "The model classes used to parse the messages, which can be `default`, " +
+                                "`canonical` or `generic`, in the same way as the hl7 sink. ",
+                        optional = true, defaultValue = "default",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.model.version",
+                        description = "The hl7 version whose structures are used by the canonical model. ",
+                        optional = true, defaultValue = "2.5.1",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.allowed.versions",
+                        description = "Comma separated hl7 versions (MSH-12), e.g. `2.3,2.5.1`, of the " +
+                                "messages published by this sink. The version of a message is checked " +
+                                "before it is parsed, and a message of another version is dropped with an error. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.warmup.templates",
+                        description = "Comma separated built-in sample messages, `ADT`, `ORU` and `ORM`, which " +
+                                "are parsed and encoded before the sink connects, in the same way as the hl7 sink. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.warmup.files",
+                        description = "Comma separated paths of files, each containing an er7 or xml encoded " +
+                                "message, which are parsed and encoded with the built-in samples. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.warmup.iterations",
+                        description = "Number of times each warm-up message is parsed and encoded. ",
+                        optional = true, defaultValue = "100",
+                        type = {DataType.INT})
+        },
+        examples = {
+                @Example(
+                        syntax = "@App:name('Hl7HttpTestAppForTextMapping') \n" +
+                                "@sink(type = 'hl7http', \n" +
+                                "uri = 'http://localhost:8080/hl7', \n" +
+                                "hl7.encoding = 'er7', \n" +
+                                "hl7.http.max.in.flight = '8', \n" +
+                                "@map(type = 'text', @payload(\"{{payload}}\"))) \n" +
+                                "define stream hl7stream(payload string); \n"
+                        ,
+                        description = "This publishes the HL7 messages over HTTP with up to eight requests in flight " +
+                                "and logs the acknowledgements. \n "
+                )
+        }
+)
+public class Hl7HttpSink extends Sink {
+
+    private static final Logger log = Logger.getLogger(Hl7HttpSink.class);
+    private String hl7Encoding;
+    private String hl7AckEncoding;
+    private int hl7Timeout;
+    private String tlsKeystoreFilepath;
+    private String tlsKeystorePassphrase;
+    private String tlsKeystoreType;
+    private String siddhiAppName;
+    private String streamID;
+    private String uri;
+    private String hostName;
+    private int port;
+    private String uriPath;
+    private boolean tlsEnabled;
+    private int maxInFlight;
+    private int queueSize;
+    private HapiContext hapiContext;
+    private String hapiContextConfiguration;
+    private String model;
+    private ModelClassFactory modelClassFactory;
+    private Set<String> allowedVersions;
+    private Hl7WarmUp warmUp;
+    private HohClientMultithreaded client;
+    private volatile Hl7PartitionedDispatcher dispatcher;
+    private AtomicInteger nextLane = new AtomicInteger();
+
+    @Override
+    public Class[] getSupportedInputEventClasses() {
+
+        return new Class[]{String.class};
+    }
+
+    @Override
+    public String[] getSupportedDynamicOptions() {
+
+        return new String[0];
+    }
+
+    @Override
+    protected void init(StreamDefinition streamDefinition, OptionHolder optionHolder, ConfigReader configReader,
+                        SiddhiAppContext siddhiAppContext) {
+
+        this.siddhiAppName = siddhiAppContext.getName();
+        this.streamID = streamDefinition.getId();
+        this.uri = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_URI);
+        this.hl7Encoding = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_ENCODING);
+        this.hl7AckEncoding = optionHolder.validateAndGetStaticValue(Hl7Constants.ACK_HL7_ENCODING,
+                Hl7Constants.DEFAULT_ACK_HL7_ENCODING);
+        this.hl7Timeout = Integer.parseInt(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_TIMEOUT,
+                Hl7Constants.DEFAULT_HL7_TIMEOUT));
+        this.tlsKeystoreFilepath = optionHolder.validateAndGetStaticValue(Hl7Constants.TLS_KEYSTORE_FILEPATH,
+                Hl7Constants.DEFAULT_TLS_KEYSTORE_FILEPATH);
+        this.tlsKeystorePassphrase = optionHolder.validateAndGetStaticValue(Hl7Constants.TLS_KEYSTORE_PASSPHRASE,
+                Hl7Constants.DEFAULT_TLS_KEYSTORE_PASSPHRASE);
+        this.tlsKeystoreType = optionHolder.validateAndGetStaticValue(Hl7Constants.TLS_KEYSTORE_TYPE,
+                Hl7Constants.DEFAULT_TLS_KEYSTORE_TYPE);
+        this.maxInFlight = Integer.parseInt(optionHolder.validateAndGetStaticValue(
+                Hl7Constants.HL7_HTTP_MAX_IN_FLIGHT, Hl7Constants.DEFAULT_HL7_HTTP_MAX_IN_FLIGHT));
+        this.queueSize = Integer.parseInt(optionHolder.validateAndGetStaticValue(
+                Hl7Constants.HL7_PARTITION_QUEUE_SIZE, Hl7Constants.DEFAULT_HL7_PARTITION_QUEUE_SIZE));
+        if (maxInFlight < 1 || queueSize < 1) {
+            throw new SiddhiAppValidationException("Invalid hl7.http.max.in.flight or hl7.partition.queue.size " +
+                    "defined in " + siddhiAppName + ":" + streamID + ". The values should be greater than zero. ");
+        }
+        getValuesFromUri();
+        Hl7Utils.validateEncodingType(hl7Encoding, hl7AckEncoding, siddhiAppName, streamID);
+        Hl7Utils.doTlsValidation(tlsEnabled, tlsKeystoreFilepath, tlsKeystorePassphrase, tlsKeystoreType,
+                siddhiAppName, streamID);
+        String modelVersion = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_MODEL_VERSION,
+                Hl7Constants.DEFAULT_HL7_MODEL_VERSION);
+        this.model = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_MODEL, Hl7Constants.DEFAULT_HL7_MODEL);
+        this.modelClassFactory = Hl7Utils.createModelClassFactory(model, modelVersion, siddhiAppName, streamID);
+        if (modelClassFactory != null) {
+            model = model + " " + modelVersion;
+        }
+        this.allowedVersions = Hl7Utils.getAllowedVersions(optionHolder.validateAndGetStaticValue(
+                Hl7Constants.HL7_ALLOWED_VERSIONS, null), siddhiAppName, streamID);
+        this.warmUp = Hl7WarmUp.create(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_WARMUP_TEMPLATES,
+                Hl7Constants.DEFAULT_HL7_WARMUP_TEMPLATES),
+                optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_WARMUP_FILES, null),
+                optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_WARMUP_ITERATIONS,
+                        Hl7Constants.DEFAULT_HL7_WARMUP_ITERATIONS),
+                allowedVersions == null ? Collections.singleton(modelVersion) : allowedVersions, siddhiAppName,
+                streamID);
+    }
+
+    @Override
+    public void publish(Object payload, DynamicOptions dynamicOptions) throws ConnectionUnavailableException {
+
+        final String hl7Message = (String) payload;
+        if (allowedVersions != null) {
+            checkVersion(hl7Message);
+        }
+        // read once, as the dispatcher is dropped when the sink disconnects
+        final Hl7PartitionedDispatcher currentDispatcher = dispatcher;
+        if (currentDispatcher == null) {
+            sendMessage(hl7Message);
+            return;
+        }
+        final int lane = (nextLane.getAndIncrement() & Integer.MAX_VALUE) % currentDispatcher.getLaneCount();
+        try {
+            currentDispatcher.dispatch(lane, new Runnable() {
+                @Override
+                public void run() {
+
+                    publishInLane(currentDispatcher, hl7Message, lane);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new ConnectionUnavailableException("Failed to dispatch the message from stream: " +
+                    siddhiAppName + ":" + streamID + " since the sink is disconnecting. ", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Hl7SinkRuntimeException("Interruption occurred while dispatching the message from stream: " +
+                    siddhiAppName + ":" + streamID + ". ", e);
+        }
+    }
+
+    private void publishInLane(Hl7PartitionedDispatcher currentDispatcher, String hl7Message, int lane) {
+
+        BackoffRetryCounter retryCounter = new BackoffRetryCounter();
+        while (true) {
+            try {
+                sendMessage(hl7Message);
+                return;
+            } catch (ConnectionUnavailableException e) {
+                if (!currentDispatcher.isRunning()) {
+                    log.error("Dropping the message of lane " + lane + " since the sink of stream " + siddhiAppName +
+                            ":" + streamID + " is disconnecting. ", e);
+                    return;
+                }
+                log.error("Connection unavailable for lane " + lane + " of stream " + siddhiAppName + ":" +
+                        streamID + ", retrying in " + retryCounter.getTimeInterval() + ". " + e.getMessage());
+                try {
+                    Thread.sleep(retryCounter.getTimeIntervalMillis());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                retryCounter.increment();
+            } catch (Hl7SinkRuntimeException e) {
+                log.error("Dropping the message of lane " + lane + " of stream " + siddhiAppName + ":" + streamID +
+                        ". " + e.getMessage(), e);
+                return;
+            }
+        }
+    }
+
+    private void checkVersion(String hl7Message) {
+
+        String version = Hl7Utils.getVersion(hl7Message, hl7Encoding, hapiContext);
+        if (version == null || !allowedVersions.contains(version)) {
+            log.error("Error occurred while processing the message. Please check the " + siddhiAppName + ":" +
+                    streamID + ". The version " + version + " is not in hl7.allowed.versions. ");
+            throw new Hl7SinkRuntimeException("Error occurred while processing the message. Please check the " +
+                    siddhiAppName + ":" + streamID + ". The version " + version + " is not in " +
+                    "hl7.allowed.versions. ");
+        }
+    }
+
+    private void sendMessage(String hl7Message) throws ConnectionUnavailableException {
+
+        Parser pipeParser = hapiContext.getPipeParser();
+        Parser xmlParser = hapiContext.getXMLParser();
+        try {
+            Message message;
+            if (hl7Encoding.toUpperCase(Locale.ENGLISH).equals("ER7")) {
+                message = pipeParser.parse(hl7Message);
+            } else {
+                message = xmlParser.parse(hl7Message);
+            }
+            IReceivable<Message> response = client.sendAndReceiveMessage(message);
+            String responseString;
+            if (hl7AckEncoding.toUpperCase(Locale.ENGLISH).equals("ER7")) {
+                responseString = pipeParser.encode(response.getMessage());
+            } else {
+                responseString = xmlParser.encode(response.getMessage());
+            }
+            log.info("Received Response from " + uri + " for stream " + siddhiAppName + ":" + streamID + ":\n" +
+                    responseString.replaceAll("\r", "\n"));
+        } catch (HL7Exception e) {
+            log.error("Error occurred while processing the message. Please check the " + siddhiAppName + ":" +
+                    streamID + ". " + e);
+            throw new Hl7SinkRuntimeException("Error occurred while processing the message. Please check the " +
+                    siddhiAppName + ":" + streamID + ". ", e);
+        } catch (DecodeException | EncodeException e) {
+            throw new Hl7SinkRuntimeException("Error encountered with HL7 over HTTP protocol for stream " +
+                    siddhiAppName + ":" + streamID + ". ", e);
+        } catch (IOException e) {
+            throw new ConnectionUnavailableException("Interruption occurred while sending the message from " +
+                    "stream: " + siddhiAppName + ":" + streamID + ". ", e);
+        }
+    }
+
+    @Override
+    public void connect() throws ConnectionUnavailableException {
+
+        if (hapiContextConfiguration == null) {
+            String configuration = getClass().getSimpleName() + "[model=" + model + "]";
+            hapiContext = Hl7HapiContextRegistry.acquire(configuration, new Hl7HapiContextRegistry.ContextFactory() {
+                @Override
+                public HapiContext create() {
+
+                    HapiContext context = new DefaultHapiContext();
+                    if (modelClassFactory != null) {
+                        context.setModelClassFactory(modelClassFactory);
+                    }
+                    return context;
+                }
+            });
+            hapiContextConfiguration = configuration;
+        }
+        if (warmUp != null) {
+            warmUp.run(hapiContext, siddhiAppName + ":" + streamID);
+            warmUp = null;
+        }
+        client = new HohClientMultithreaded(hostName, port, uriPath, hapiContext.getPipeParser());
+        client.setSocketTimeout(hl7Timeout);
+        if (tlsEnabled) {
+            client.setSocketFactory(new CustomCertificateTlsSocketFactory(tlsKeystoreType, tlsKeystoreFilepath,
+                    tlsKeystorePassphrase));
+        }
+        if (maxInFlight > 1 && dispatcher == null) {
+            dispatcher = new Hl7PartitionedDispatcher(maxInFlight, queueSize,
+                    "Hl7HttpSink-" + siddhiAppName + "-" + streamID);
+        }
+        log.info("Executing HL7 over HTTP Sender: URL: " + uri + " for stream " + siddhiAppName + ":" + streamID +
+                ". ");
+    }
+
+    @Override
+    public void disconnect() {
+
+        Hl7PartitionedDispatcher currentDispatcher = dispatcher;
+        if (currentDispatcher != null) {
+            dispatcher = null;
+            currentDispatcher.shutdown(hl7Timeout);
+        }
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+        if (hapiContextConfiguration != null) {
+            Hl7HapiContextRegistry.release(hapiContextConfiguration);
+            hapiContextConfiguration = null;
+        }
+    }
+
+    @Override
+    public void destroy() {
+
+    }
+
+    @Override
+    public Map<String, Object> currentState() {
+
+        return null;
+    }
+
+    @Override
+    public void restoreState(Map<String, Object> map) {
+
+    }
+
+    private void getValuesFromUri() {
+
+        try {
+            URI aURI = new URI(uri);
+            String scheme = aURI.getScheme();
+            if (scheme == null || !(scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https")) ||
+                    aURI.getHost() == null) {
+                throw new SiddhiAppValidationException("Invalid uri format defined in " + siddhiAppName + ":" +
+                        streamID + ". Expected uri format is http://{host}:{port}/{path} or " +
+                        "https://{host}:{port}/{path}. ");
+            }
+            tlsEnabled = scheme.equalsIgnoreCase("https");
+            hostName = aURI.getHost();
+            port = aURI.getPort() != -1 ? aURI.getPort() : (tlsEnabled ? 443 : 80);
+            uriPath = aURI.getRawPath() == null || aURI.getRawPath().isEmpty() ? "/" : aURI.getRawPath();
+        } catch (URISyntaxException e) {
+            throw new SiddhiAppValidationException("Invalid uri format defined in " + siddhiAppName + ":" +
+                    streamID + ". Expected uri format is http://{host}:{port}/{path} or " +
+                    "https://{host}:{port}/{path}. ", e);
+        }
+    }
+}
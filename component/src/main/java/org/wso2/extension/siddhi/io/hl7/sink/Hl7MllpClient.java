@@ -0,0 +1,291 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.sink;
+
+import ca.uhn.hl7v2.util.SocketFactory;
+import org.apache.log4j.Logger;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Constants;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Er7Utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * {@code Hl7MllpClient} frames already encoded hl7 messages into MLLP blocks and writes them to the socket
+ * without parsing them into a HAPI message model.
+ */
+public class Hl7MllpClient {
+
+    private static final Logger log = Logger.getLogger(Hl7MllpClient.class);
+    private static final int COALESCING_QUEUE_SIZE = 4096;
+    private String hostName;
+    private int port;
+    private boolean tlsEnabled;
+    private SocketFactory socketFactory;
+    private Charset charset;
+    private int timeout;
+    private volatile Socket socket;
+    private InputStream inputStream;
+    private WritableByteChannel outputChannel;
+    private Hl7MllpFrameWriter frameWriter;
+    private ByteArrayOutputStream responseBuffer = new ByteArrayOutputStream();
+    private int unacknowledgedFrames;
+    private long coalescingWindowMicros = -1;
+    private volatile Hl7MllpCoalescingWriter coalescingWriter;
+
+    /**
+     * Creates a MLLP client which is not yet connected.
+     *
+     * @param hostName      - host name of the hl7 server
+     * @param port          - port of the hl7 server
+     * @param tlsEnabled    - whether a tls socket should be created
+     * @param socketFactory - socket factory configured in the HAPI context, used for tls connections
+     * @param charset       - character encoding of the messages
+     * @param timeout       - time (in milliseconds) to wait for the connection and for the acknowledgement
+     */
+    public Hl7MllpClient(String hostName, int port, boolean tlsEnabled, SocketFactory socketFactory, String charset,
+                         int timeout) {
+
+        this.hostName = hostName;
+        this.port = port;
+        this.tlsEnabled = tlsEnabled;
+        this.socketFactory = socketFactory;
+        this.charset = Charset.forName(charset);
+        this.timeout = timeout;
+        this.frameWriter = new Hl7MllpFrameWriter(this.charset);
+    }
+
+    /**
+     * Enables coalescing of the frames sent without waiting for a response. Should be called before connecting.
+     *
+     * @param windowMicros - time (in microseconds) to wait for more frames before writing
+     */
+    public void setWriteCoalescing(long windowMicros) {
+
+        this.coalescingWindowMicros = windowMicros;
+    }
+
+    /**
+     * Connects to the server. Plain connections are opened as socket channels, so that the frames are written
+     * from the direct buffer of the frame writer without copying them to the heap.
+     */
+    public void connect() throws IOException {
+
+        Socket newSocket;
+        if (tlsEnabled) {
+            newSocket = socketFactory.createTlsSocket();
+        } else {
+            newSocket = SocketChannel.open().socket();
+        }
+        try {
+            if (coalescingWindowMicros >= 0) {
+                newSocket.setTcpNoDelay(true);
+            }
+            newSocket.connect(new InetSocketAddress(hostName, port), timeout);
+            newSocket.setSoTimeout(timeout);
+            inputStream = new BufferedInputStream(newSocket.getInputStream());
+            if (newSocket.getChannel() != null) {
+                outputChannel = newSocket.getChannel();
+            } else {
+                outputChannel = Channels.newChannel(newSocket.getOutputStream());
+            }
+        } catch (IOException e) {
+            newSocket.close();
+            throw e;
+        }
+        if (coalescingWindowMicros >= 0) {
+            coalescingWriter = new Hl7MllpCoalescingWriter(outputChannel, charset, coalescingWindowMicros,
+                    COALESCING_QUEUE_SIZE, "Hl7MllpClient-" + getRemoteAddress() + "-writer");
+        }
+        socket = newSocket;
+    }
+
+    /**
+     * Sends the message as a single MLLP frame and waits for the response frame.
+     *
+     * @param message - encoded hl7 message
+     * @return the response message as it is received
+     * @throws IOException if the connection is broken or the response is not received within the timeout
+     */
+    public synchronized String sendAndReceive(String message) throws IOException {
+
+        writeFrame(message);
+        return readFrame();
+    }
+
+    /**
+     * Sends the message and waits for the acknowledgement of the given control id. Responses to messages which
+     * were previously sent without waiting are skipped.
+     *
+     * @param message   - encoded hl7 message
+     * @param controlId - control id of the message which should be acknowledged in MSA-2
+     * @return the acknowledgement of the message
+     * @throws IOException if the connection is broken or the response is not received within the timeout
+     */
+    public synchronized String sendAndReceive(String message, String controlId) throws IOException {
+
+        writeFrame(message);
+        String response = readFrame();
+        while (unacknowledgedFrames > 0 && controlId != null &&
+                !controlId.equals(Hl7Er7Utils.getField(response, "MSA", 2))) {
+            unacknowledgedFrames--;
+            log.warn("Skipping the unsolicited response received from " + getRemoteAddress() + ": MSA-1 = " +
+                    Hl7Er7Utils.getField(response, "MSA", 1) + ", MSA-2 = " +
+                    Hl7Er7Utils.getField(response, "MSA", 2));
+            response = readFrame();
+        }
+        return response;
+    }
+
+    /**
+     * Sends the message without waiting for a response. A response received later for this message is skipped
+     * by {@link #sendAndReceive(String, String)} or consumed by the response drain. When write coalescing is
+     * enabled the frame is queued and written together with the other queued frames.
+     *
+     * @param message - encoded hl7 message
+     * @throws IOException if the connection is broken
+     */
+    public synchronized void send(String message) throws IOException {
+
+        Hl7MllpCoalescingWriter currentWriter = coalescingWriter;
+        if (currentWriter != null) {
+            currentWriter.write(message);
+        } else {
+            writeFrame(message);
+        }
+        unacknowledgedFrames++;
+    }
+
+    /**
+     * Starts a background thread which reads the responses of the messages sent without waiting, so that the
+     * receive buffer of the socket does not fill up. The thread stops when the client is closed.
+     *
+     * @param responseHandler - handler notified for each received response
+     * @param threadName      - name of the drain thread
+     */
+    public void startResponseDrain(final ResponseHandler responseHandler, String threadName) throws IOException {
+
+        socket.setSoTimeout(0);
+        Thread drainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                while (isConnected()) {
+                    try {
+                        responseHandler.onResponse(readFrame());
+                    } catch (IOException e) {
+                        if (isConnected()) {
+                            log.error("Error occurred while reading the responses from " + getRemoteAddress() +
+                                    ". ", e);
+                            close();
+                        }
+                        return;
+                    }
+                }
+            }
+        }, threadName);
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    public synchronized void writeFrame(String message) throws IOException {
+
+        Hl7MllpCoalescingWriter currentWriter = coalescingWriter;
+        if (currentWriter != null) {
+            currentWriter.flush();
+        }
+        frameWriter.write(message, outputChannel);
+    }
+
+    public String readFrame() throws IOException {
+
+        int value = inputStream.read();
+        while (value != Hl7Constants.MLLP_START_BLOCK) {
+            if (value == -1) {
+                throw new EOFException("Connection closed by " + hostName + ":" + port + " before receiving " +
+                        "the response. ");
+            }
+            value = inputStream.read();
+        }
+        responseBuffer.reset();
+        while (true) {
+            value = inputStream.read();
+            if (value == -1) {
+                throw new EOFException("Connection closed by " + hostName + ":" + port + " while reading " +
+                        "the response. ");
+            }
+            if (value == Hl7Constants.MLLP_END_BLOCK) {
+                int next = inputStream.read();
+                if (next == Hl7Constants.MLLP_CARRIAGE_RETURN || next == -1) {
+                    break;
+                }
+                responseBuffer.write(value);
+                value = next;
+            }
+            responseBuffer.write(value);
+        }
+        return new String(responseBuffer.toByteArray(), charset);
+    }
+
+    public boolean isConnected() {
+
+        Socket currentSocket = socket;
+        return currentSocket != null && currentSocket.isConnected() && !currentSocket.isClosed();
+    }
+
+    public String getRemoteAddress() {
+
+        return hostName + ":" + port;
+    }
+
+    public void close() {
+
+        Hl7MllpCoalescingWriter currentWriter = coalescingWriter;
+        coalescingWriter = null;
+        if (currentWriter != null) {
+            currentWriter.stop(timeout);
+        }
+        Socket currentSocket = socket;
+        socket = null;
+        if (currentSocket != null) {
+            try {
+                currentSocket.close();
+            } catch (IOException e) {
+                log.error("Error occurred while closing the connection to " + hostName + ":" + port + ". ", e);
+            }
+        }
+    }
+
+    /**
+     * Handles the responses read by the response drain.
+     */
+    public interface ResponseHandler {
+
+        void onResponse(String response);
+    }
+}
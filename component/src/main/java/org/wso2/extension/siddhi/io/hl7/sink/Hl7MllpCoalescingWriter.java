@@ -0,0 +1,195 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.sink;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@code Hl7MllpCoalescingWriter} writes the frames of a connection from a background thread. Frames queued
+ * while the thread is writing, or within the coalescing window after the first frame of a write, are written
+ * together with a single write call. When the queue is idle the pending frames are written immediately after the
+ * window, so a single message is delayed by at most the window.
+ */
+public class Hl7MllpCoalescingWriter {
+
+    private static final Logger log = Logger.getLogger(Hl7MllpCoalescingWriter.class);
+    private static final int MAX_FRAMES_PER_WRITE = 256;
+    private BlockingQueue<String> queue;
+    private WritableByteChannel channel;
+    private Hl7MllpFrameWriter frameWriter;
+    private long windowNanos;
+    private Thread writerThread;
+    private volatile boolean running;
+    private volatile IOException failure;
+    private AtomicInteger pendingFrames = new AtomicInteger();
+
+    /**
+     * Creates the writer and starts its thread.
+     *
+     * @param channel      - channel of the connection
+     * @param charset      - character encoding of the messages
+     * @param windowMicros - time (in microseconds) to wait for more frames before writing
+     * @param queueSize    - maximum number of queued frames, writing blocks once it is full
+     * @param threadName   - name of the writer thread
+     */
+    public Hl7MllpCoalescingWriter(WritableByteChannel channel, Charset charset, long windowMicros, int queueSize,
+                                   String threadName) {
+
+        this.channel = channel;
+        this.frameWriter = new Hl7MllpFrameWriter(charset);
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.running = true;
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                writeQueuedFrames();
+            }
+        }, threadName);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues the message to be written.
+     *
+     * @param message - encoded hl7 message
+     * @throws IOException if a previous write failed or the writer is stopped
+     */
+    public void write(String message) throws IOException {
+
+        checkFailure();
+        pendingFrames.incrementAndGet();
+        try {
+            queue.put(message);
+        } catch (InterruptedException e) {
+            pendingFrames.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queuing the message. ");
+        }
+    }
+
+    /**
+     * Waits until all the queued frames are written.
+     *
+     * @throws IOException if a write failed
+     */
+    public void flush() throws IOException {
+
+        synchronized (this) {
+            while (pendingFrames.get() > 0 && failure == null && writerThread.isAlive()) {
+                try {
+                    wait(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while flushing the queued messages. ");
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Stops the writer after writing the queued frames.
+     *
+     * @param timeout - maximum time (in milliseconds) to wait for the queued frames to be written
+     */
+    public void stop(long timeout) {
+
+        running = false;
+        try {
+            writerThread.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            writerThread.interrupt();
+        }
+        if (!queue.isEmpty()) {
+            log.warn("Dropping " + queue.size() + " queued hl7 messages of " + writerThread.getName() + ". ");
+            queue.clear();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+
+        if (failure != null) {
+            throw failure;
+        }
+        if (!running) {
+            throw new IOException("The writer " + writerThread.getName() + " is stopped. ");
+        }
+    }
+
+    private void writeQueuedFrames() {
+
+        List<String> frames = new ArrayList<>(MAX_FRAMES_PER_WRITE);
+        try {
+            while (running || !queue.isEmpty()) {
+                String frame = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    continue;
+                }
+                frames.add(frame);
+                long deadline = System.nanoTime() + windowNanos;
+                while (frames.size() < MAX_FRAMES_PER_WRITE) {
+                    frame = queue.poll();
+                    if (frame == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0 || !running) {
+                            break;
+                        }
+                        frame = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (frame == null) {
+                            break;
+                        }
+                    }
+                    frames.add(frame);
+                }
+                frameWriter.write(frames, channel);
+                pendingFrames.addAndGet(-frames.size());
+                frames.clear();
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            log.error("Error occurred while writing the queued hl7 messages of " + writerThread.getName() + ". ", e);
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Writer " + writerThread.getName() + " was interrupted. ");
+        } finally {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.sink;
+
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+
+/**
+ * {@code Hl7MllpFrameWriter} encodes messages straight into a reused direct buffer, wraps them with the MLLP
+ * start and end block bytes in place and writes each frame, or a group of frames, to the channel with a single
+ * write call. The buffer grows when larger messages are written and is kept for the following messages. Writers
+ * are not thread safe, each connection should use its own writer.
+ */
+public class Hl7MllpFrameWriter {
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    private CharsetEncoder encoder;
+    private ByteBuffer buffer;
+
+    public Hl7MllpFrameWriter(Charset charset) {
+
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * Writes the message as one MLLP frame.
+     *
+     * @param message - encoded hl7 message
+     * @param channel - channel of the connection
+     * @throws IOException if the connection is broken
+     */
+    public void write(CharSequence message, WritableByteChannel channel) throws IOException {
+
+        buffer.clear();
+        appendFrame(message);
+        writeBuffer(channel);
+    }
+
+    /**
+     * Writes the messages as consecutive MLLP frames with a single write call.
+     *
+     * @param messages - encoded hl7 messages
+     * @param channel  - channel of the connection
+     * @throws IOException if the connection is broken
+     */
+    public void write(List<? extends CharSequence> messages, WritableByteChannel channel) throws IOException {
+
+        buffer.clear();
+        for (CharSequence message : messages) {
+            appendFrame(message);
+        }
+        writeBuffer(channel);
+    }
+
+    private void writeBuffer(WritableByteChannel channel) throws IOException {
+
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Encodes the message into the buffer as one MLLP frame after the frames already in the buffer.
+     */
+    private void appendFrame(CharSequence message) throws CharacterCodingException {
+
+        ensureCapacity((int) (message.length() * encoder.maxBytesPerChar()) + 3);
+        buffer.put(Hl7Constants.MLLP_START_BLOCK);
+        encoder.reset();
+        CharBuffer input = CharBuffer.wrap(message);
+        CoderResult result = encoder.encode(input, buffer, true);
+        if (result.isUnderflow()) {
+            result = encoder.flush(buffer);
+        }
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        buffer.put(Hl7Constants.MLLP_END_BLOCK);
+        buffer.put(Hl7Constants.MLLP_CARRIAGE_RETURN);
+    }
+
+    private void ensureCapacity(int requiredSize) {
+
+        if (buffer.remaining() >= requiredSize) {
+            return;
+        }
+        int newCapacity = Integer.highestOneBit(buffer.position() + requiredSize - 1) << 1;
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity);
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.sink;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code Hl7PartitionedDispatcher} maps each partition key to a single threaded lane. Messages with the same key
+ * are always published by the same lane in the order they were dispatched, while messages of different keys
+ * are published in parallel.
+ */
+public class Hl7PartitionedDispatcher {
+
+    private static final Logger log = Logger.getLogger(Hl7PartitionedDispatcher.class);
+    private ThreadPoolExecutor[] lanes;
+    private Semaphore[] laneSlots;
+    private volatile boolean running;
+
+    /**
+     * Creates the lanes of the dispatcher.
+     *
+     * @param laneCount        - number of lanes which publish in parallel
+     * @param queueSize        - maximum number of pending messages per lane, dispatching blocks once it is full
+     * @param threadNamePrefix - prefix of the lane thread names
+     */
+    public Hl7PartitionedDispatcher(int laneCount, int queueSize, final String threadNamePrefix) {
+
+        this.lanes = new ThreadPoolExecutor[laneCount];
+        this.laneSlots = new Semaphore[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            final int laneIndex = i;
+            // a task releases its slot before the lane takes the next task from the queue, hence the queue holds
+            // as many tasks as there are slots, so that execute never rejects a task holding a slot
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize + 1), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+
+                    Thread thread = new Thread(runnable, threadNamePrefix + "-lane-" + laneIndex);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            lanes[i].prestartAllCoreThreads();
+            // one slot for the running task and one for each pending task
+            laneSlots[i] = new Semaphore(queueSize + 1);
+        }
+        this.running = true;
+    }
+
+    public int getLaneCount() {
+
+        return lanes.length;
+    }
+
+    /**
+     * Returns the lane which publishes the messages of the given partition key.
+     *
+     * @param partitionKey - partition key of the message, messages without a key are published by the first lane
+     * @return index of the lane
+     */
+    public int getLane(String partitionKey) {
+
+        if (partitionKey == null) {
+            return 0;
+        }
+        return (partitionKey.hashCode() & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    /**
+     * Queues the task in the given lane. The caller is blocked while the lane queue is full.
+     *
+     * @param lane - index of the lane
+     * @param task - publishing task
+     * @throws InterruptedException       if interrupted while waiting for space in the lane queue
+     * @throws RejectedExecutionException if the dispatcher is shut down
+     */
+    public void dispatch(int lane, final Runnable task) throws InterruptedException {
+
+        final Semaphore slots = laneSlots[lane];
+        slots.acquire();
+        try {
+            lanes[lane].execute(new Runnable() {
+                @Override
+                public void run() {
+
+                    try {
+                        task.run();
+                    } finally {
+                        slots.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    public boolean isRunning() {
+
+        return running;
+    }
+
+    /**
+     * Stops accepting new messages and waits for the queued messages to be published.
+     *
+     * @param timeout - maximum time (in milliseconds) to wait for the pending messages of each lane
+     */
+    public void shutdown(long timeout) {
+
+        running = false;
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : lanes) {
+            try {
+                if (!lane.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                    log.warn("Dropping " + lane.shutdownNow().size() + " pending messages of the hl7 sink " +
+                            "since the lane did not complete within " + timeout + " milliseconds. ");
+                }
+            } catch (InterruptedException e) {
+                lane.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
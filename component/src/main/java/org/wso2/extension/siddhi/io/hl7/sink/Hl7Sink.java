@@ -21,6 +21,7 @@ package org.wso2.extension.siddhi.io.hl7.sink;
 import ca.uhn.hl7v2.DefaultHapiContext;
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.app.ActiveConnection;
 import ca.uhn.hl7v2.app.Connection;
 import ca.uhn.hl7v2.app.Initiator;
 import ca.uhn.hl7v2.hoh.sockets.CustomCertificateTlsSocketFactory;
@@ -28,30 +29,62 @@ import ca.uhn.hl7v2.hoh.util.HapiSocketTlsFactoryWrapper;
 import ca.uhn.hl7v2.llp.LLPException;
 import ca.uhn.hl7v2.llp.MinLowerLayerProtocol;
 import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.model.Segment;
+import ca.uhn.hl7v2.model.Structure;
+import ca.uhn.hl7v2.parser.ModelClassFactory;
 import ca.uhn.hl7v2.parser.Parser;
+import ca.uhn.hl7v2.util.SocketFactory;
+import ca.uhn.hl7v2.util.Terser;
 import org.apache.log4j.Logger;
 import org.wso2.extension.siddhi.io.hl7.sink.exception.Hl7SinkRuntimeException;
 import org.wso2.extension.siddhi.io.hl7.util.Hl7Constants;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Er7Utils;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7HapiContextRegistry;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7SequenceCounterFile;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7StateCodec;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7TimestampCache;
 import org.wso2.extension.siddhi.io.hl7.util.Hl7Utils;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7WarmUp;
 import org.wso2.siddhi.annotation.Example;
 import org.wso2.siddhi.annotation.Extension;
 import org.wso2.siddhi.annotation.Parameter;
 import org.wso2.siddhi.annotation.util.DataType;
 import org.wso2.siddhi.core.config.SiddhiAppContext;
+import org.wso2.siddhi.core.event.Event;
 import org.wso2.siddhi.core.exception.ConnectionUnavailableException;
+import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
 import org.wso2.siddhi.core.stream.output.sink.Sink;
 import org.wso2.siddhi.core.util.config.ConfigReader;
+import org.wso2.siddhi.core.util.transport.BackoffRetryCounter;
 import org.wso2.siddhi.core.util.transport.DynamicOptions;
+import org.wso2.siddhi.core.util.transport.InMemoryBroker;
+import org.wso2.siddhi.core.util.transport.Option;
 import org.wso2.siddhi.core.util.transport.OptionHolder;
 import org.wso2.siddhi.query.api.definition.StreamDefinition;
 import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * {@code Hl7Sink } Handle the Hl7 publishing tasks.
@@ -125,6 +158,180 @@ import java.util.concurrent.TimeUnit;
                         description = "This period of time (in milliseconds) the initiator will wait for a " +
                                 "response for a given message before timing out and throwing an exception. ",
                         optional = true, defaultValue = "10000",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "hl7.raw.mode",
+                        description = "This parameter specifies whether the mapped `er7` message should be framed " +
+                                "and sent as it is, without parsing it into a HAPI message model. Only the " +
+                                "`MSA-1` and `MSA-2` fields of the acknowledgement are read back in this mode. " +
+                                "This can only be used when the `hl7.encoding` is `er7`. ",
+                        optional = true, defaultValue = "false",
+                        type = {DataType.BOOL}),
+
+                @Parameter(name = "hl7.raw.msh.validation",
+                        description = "This parameter specifies whether a cheap sanity check should be done on the " +
+                                "`MSH` segment of the message before sending it in raw mode. The message type, " +
+                                "control id, processing id and version id fields should be present. ",
+                        optional = true, defaultValue = "true",
+                        type = {DataType.BOOL}),
+
+                @Parameter(name = "hl7.partition.key",
+                        description = "The key used to partition the messages when they are published in parallel. " +
+                                "Messages with the same key are always published in the order they arrive. This " +
+                                "can be a field of the `er7` message such as `PID-3` or `PID-3.1`, or a stream " +
+                                "attribute such as `{{patientId}}`. ",
+                        optional = true, defaultValue = "none",
+                        dynamic = true,
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.partition.count",
+                        description = "The number of lanes which publish the messages in parallel. Each partition " +
+                                "key is mapped to a single lane. In raw mode each lane uses its own connection, " +
+                                "otherwise the lanes share the connection and the acknowledgements are matched by " +
+                                "the message control id. When this is greater than one the `hl7.partition.key` " +
+                                "should be given. ",
+                        optional = true, defaultValue = "1",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "hl7.partition.queue.size",
+                        description = "The maximum number of messages waiting to be published in a lane. Publishing " +
+                                "is blocked when the queue of the lane is full. ",
+                        optional = true, defaultValue = "1024",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "batch.size",
+                        description = "The maximum number of messages sent together as one hl7 batch. When this is " +
+                                "greater than one, the messages are accumulated and wrapped in `FHS`/`BHS`/`BTS`/" +
+                                "`FTS` segments and the batch is sent as a single MLLP frame which is acknowledged " +
+                                "once. Batching always uses the raw mode, hence the `hl7.encoding` should be `er7`. ",
+                        optional = true, defaultValue = "1",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "batch.max.delay.ms",
+                        description = "The maximum time (in milliseconds) a message waits in an incomplete batch " +
+                                "before the batch is sent. ",
+                        optional = true, defaultValue = "1000",
+                        type = {DataType.LONG}),
+
+                @Parameter(name = "hl7.ack.mode",
+                        description = "Specifies when the receiver sends acknowledgements. This can be `always`, " +
+                                "`never` or `error-only`. With `never` and `error-only` the messages are written " +
+                                "without waiting for a response and any response received is read in the " +
+                                "background and logged, hence the raw mode is used and the `hl7.encoding` should " +
+                                "be `er7`. With `always`, a message sent in raw mode whose `MSH-15` is `NE` or " +
+                                "`ER` is also written without waiting. ",
+                        optional = true, defaultValue = "always",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "ack.stream",
+                        description = "The in-memory topic to which the outcome of each received acknowledgement " +
+                                "is published instead of logging the response. The outcomes can be consumed by a " +
+                                "stream defined with `@source(type = 'inMemory', topic = '{ack.stream}', " +
+                                "@map(type = 'passThrough'))` and the attributes `(controlId string, ackCode " +
+                                "string, ackText string, errorCodes string, latency long)`, where `controlId` is " +
+                                "MSA-2, `ackCode` is MSA-1, `ackText` is MSA-3, `errorCodes` is a comma separated " +
+                                "list of the error codes of the ERR segments and `latency` is the round-trip time " +
+                                "in milliseconds, or -1 when the response was received without waiting for it.",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.stamp.control.id",
+                        description = "This replaces the message control id (MSH-10) of each message with a " +
+                                "monotonic id of the form `{hl7.control.id.prefix}{counter}`. The last generated id " +
+                                "is included in the state of the sink. This can only be used with `er7` encoding.",
+                        optional = true, defaultValue = "false",
+                        type = {DataType.BOOL}),
+
+                @Parameter(name = "hl7.stamp.timestamp",
+                        description = "This replaces the date/time of message (MSH-7) of each message with the " +
+                                "current time. This can only be used with `er7` encoding.",
+                        optional = true, defaultValue = "false",
+                        type = {DataType.BOOL}),
+
+                @Parameter(name = "hl7.control.id.prefix",
+                        description = "The prefix of the stamped message control ids, used to keep the ids of " +
+                                "different nodes unique. Note that hl7 versions prior to 2.5 limit MSH-10 to 20 " +
+                                "characters.",
+                        optional = true, defaultValue = "empty",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.control.id.reserve.file",
+                        description = "The file in which the counter of the stamped message control ids reserves " +
+                                "blocks of ids, so that the ids continue from the last reserved block after a " +
+                                "restart. If this is not given, the counter starts from the current time in " +
+                                "microseconds.",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.write.coalescing",
+                        description = "This enables coalescing of the messages which are sent without waiting for " +
+                                "an acknowledgement (see `hl7.ack.mode`). Such messages are queued and written by a " +
+                                "background thread, which writes all the messages queued within the coalescing " +
+                                "window with a single socket write. TCP_NODELAY is enabled for the connection. " +
+                                "This can only be used with the raw mode.",
+                        optional = true, defaultValue = "false",
+                        type = {DataType.BOOL}),
+
+                @Parameter(name = "hl7.write.coalescing.window.us",
+                        description = "The time (in microseconds) the background writer waits for more messages " +
+                                "after the first message of a write. If no more messages are queued within this " +
+                                "time the pending messages are written.",
+                        optional = true, defaultValue = "50",
+                        type = {DataType.LONG}),
+
+                @Parameter(name = "hl7.sequence.file",
+                        description = "Enables the HL7 sequence number protocol, stamping each message with the " +
+                                "next sequence number (MSH-13), which is kept in this memory mapped file and in the " +
+                                "state of the sink. When the expected sequence number returned in MSA-4 of the " +
+                                "acknowledgement does not follow the sent one, the sink continues from the " +
+                                "expected sequence number, and a message which is rejected, or acknowledged as " +
+                                "already received, is sent once more with it. While the counter is unknown, e.g. " +
+                                "for a new file or uri, the expected sequence number is queried first. This " +
+                                "can only be used with er7 encoding, the `always` acknowledgement mode and " +
+                                "without partitioning or batching, and enables the raw mode.",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.model",
+                        description = "The model classes used to parse the messages. `default` loads the structure " +
+                                "classes of each hl7 version and message type on their first use, `canonical` " +
+                                "parses all the messages with the structures of the hl7.model.version, and " +
+                                "`generic` uses generic segments without structure classes. The canonical and " +
+                                "generic models load fewer classes, so the first messages are processed faster and " +
+                                "less metaspace is used. ",
+                        optional = true, defaultValue = "default",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.model.version",
+                        description = "The hl7 version whose structures are used by the canonical model. ",
+                        optional = true, defaultValue = "2.5.1",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.allowed.versions",
+                        description = "Comma separated hl7 versions (MSH-12), e.g. `2.3,2.5.1`, of the " +
+                                "messages published by this sink. The version of a message is checked " +
+                                "before it is parsed, and a message of another version is dropped with an error. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.warmup.templates",
+                        description = "Comma separated built-in sample messages, `ADT`, `ORU` and `ORM`, which " +
+                                "are parsed and encoded before the sink connects, so that the hl7 structures are " +
+                                "loaded and the parsers are compiled before the first message is published. The " +
+                                "samples are stamped with each of the hl7.allowed.versions, or with the " +
+                                "hl7.model.version when no version is given. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.warmup.files",
+                        description = "Comma separated paths of files, each containing an er7 or xml encoded " +
+                                "message, which are parsed and encoded with the built-in samples. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.warmup.iterations",
+                        description = "Number of times each warm-up message is parsed and encoded. ",
+                        optional = true, defaultValue = "100",
                         type = {DataType.INT})
         },
         examples = {
@@ -158,6 +365,89 @@ import java.util.concurrent.TimeUnit;
                         ,
                         description = "This publishes the HL7 messages in XML format, receives and logs the " +
                                 "acknowledgement message in the console using MLLP protocol and custom xml mapping. \n "
+                ),
+                @Example(
+                        syntax = "@App:name('Hl7TestAppForRawER7') \n" +
+                                "@sink(type = 'hl7', \n" +
+                                "uri = 'localhost:1080', \n" +
+                                "hl7.encoding = 'er7', \n" +
+                                "hl7.raw.mode = 'true', \n" +
+                                "@map(type = 'text', @payload(\"{{payload}}\"))) \n" +
+                                "define stream hl7stream(payload string); \n"
+                        ,
+                        description = "This publishes the HL7 messages in ER7 format without parsing them and logs " +
+                                "the acknowledgement code and the acknowledged control id of the response. \n "
+                ),
+                @Example(
+                        syntax = "@App:name('Hl7TestAppForPartitionedPublishing') \n" +
+                                "@sink(type = 'hl7', \n" +
+                                "uri = 'localhost:1080', \n" +
+                                "hl7.encoding = 'er7', \n" +
+                                "hl7.raw.mode = 'true', \n" +
+                                "hl7.partition.key = 'PID-3', \n" +
+                                "hl7.partition.count = '4', \n" +
+                                "@map(type = 'text', @payload(\"{{payload}}\"))) \n" +
+                                "define stream hl7stream(payload string); \n"
+                        ,
+                        description = "This publishes the HL7 messages of different patients in parallel using four " +
+                                "connections while the messages of the same patient (`PID-3`) are published in " +
+                                "order. \n "
+                ),
+                @Example(
+                        syntax = "@App:name('Hl7TestAppForBatchPublishing') \n" +
+                                "@sink(type = 'hl7', \n" +
+                                "uri = 'localhost:1080', \n" +
+                                "hl7.encoding = 'er7', \n" +
+                                "batch.size = '500', \n" +
+                                "batch.max.delay.ms = '2000', \n" +
+                                "@map(type = 'text', @payload(\"{{payload}}\"))) \n" +
+                                "define stream hl7stream(payload string); \n"
+                        ,
+                        description = "This sends the HL7 messages as batches of up to 500 messages. An incomplete " +
+                                "batch is sent when its first message has waited for two seconds. \n "
+                ),
+                @Example(
+                        syntax = "@App:name('Hl7TestAppForFireAndForget') \n" +
+                                "@sink(type = 'hl7', \n" +
+                                "uri = 'localhost:1080', \n" +
+                                "hl7.encoding = 'er7', \n" +
+                                "hl7.ack.mode = 'never', \n" +
+                                "@map(type = 'text', @payload(\"{{payload}}\"))) \n" +
+                                "define stream hl7stream(payload string); \n"
+                        ,
+                        description = "This writes the HL7 messages to a receiver which never acknowledges them, " +
+                                "without waiting for a response. \n "
+                ),
+                @Example(
+                        syntax = "@App:name('Hl7TestAppForAckStream') \n" +
+                                "@sink(type = 'hl7', \n" +
+                                "uri = 'localhost:1080', \n" +
+                                "hl7.encoding = 'er7', \n" +
+                                "ack.stream = 'hl7acks', \n" +
+                                "@map(type = 'text', @payload(\"{{payload}}\"))) \n" +
+                                "define stream hl7stream(payload string); \n" +
+                                "@source(type = 'inMemory', topic = 'hl7acks', @map(type = 'passThrough')) \n" +
+                                "define stream AckStream(controlId string, ackCode string, ackText string, " +
+                                "errorCodes string, latency long); \n"
+                        ,
+                        description = "This publishes the HL7 messages and emits the outcome of each acknowledgement " +
+                                "into the AckStream, so that the negative acknowledgements can be handled by " +
+                                "Siddhi queries. \n "
+                ),
+                @Example(
+                        syntax = "@App:name('Hl7TestAppForControlIdStamping') \n" +
+                                "@sink(type = 'hl7', \n" +
+                                "uri = 'localhost:1080', \n" +
+                                "hl7.encoding = 'er7', \n" +
+                                "hl7.stamp.control.id = 'true', \n" +
+                                "hl7.stamp.timestamp = 'true', \n" +
+                                "hl7.control.id.prefix = 'N1-', \n" +
+                                "hl7.control.id.reserve.file = '/var/hl7/node1-control-id', \n" +
+                                "@map(type = 'text', @payload(\"{{payload}}\"))) \n" +
+                                "define stream hl7stream(payload string); \n"
+                        ,
+                        description = "This sets MSH-10 of each message to `N1-{counter}` and MSH-7 to the current " +
+                                "time before publishing it. \n "
                 )
         }
 )
@@ -165,6 +455,9 @@ import java.util.concurrent.TimeUnit;
 public class Hl7Sink extends Sink {
 
     private static final Logger log = Logger.getLogger(Hl7Sink.class);
+    private static final int STATE_CONTROL_ID = 1;
+    private static final int STATE_SEQUENCE = 2;
+    private static final Pattern FIELD_PATH_PATTERN = Pattern.compile("([A-Z][A-Z0-9]{2})-(\\d+)(?:\\.(\\d+))?");
     private boolean tlsEnabled;
     private String charset;
     private String hl7Encoding;
@@ -174,12 +467,40 @@ public class Hl7Sink extends Sink {
     private String tlsKeystoreFilepath;
     private String tlsKeystorePassphrase;
     private HapiContext hapiContext;
+    private String hapiContextConfiguration;
+    private String model;
+    private ModelClassFactory modelClassFactory;
     private String hostName;
     private int port;
     private String tlsKeystoreType;
     private String streamID;
     private String siddhiAppName;
     private String uri;
+    private boolean rawMode;
+    private boolean rawMshValidation;
+    private Set<String> allowedVersions;
+    private Hl7WarmUp warmUp;
+    private Hl7MllpClient[] mllpClients;
+    private Option partitionKeyOption;
+    private String partitionSegment;
+    private int partitionField;
+    private int partitionComponent;
+    private int partitionCount;
+    private int partitionQueueSize;
+    private volatile Hl7PartitionedDispatcher dispatcher;
+    private String ackMode;
+    private String ackStream;
+    private Hl7ControlIdGenerator controlIdGenerator;
+    private boolean stampTimestamp;
+    private long coalescingWindow = -1;
+    private int batchSize;
+    private long batchMaxDelay;
+    private Hl7BatchBuffer[] batchBuffers;
+    private AtomicLong batchControlId;
+    private ScheduledExecutorService scheduledExecutorService;
+    private ScheduledFuture batchFlushTask;
+    private Hl7SequenceCounterFile sequenceCounter;
+    private String sequenceKey;
 
     @Override
     public Class[] getSupportedInputEventClasses() {
@@ -190,7 +511,7 @@ public class Hl7Sink extends Sink {
     @Override
     public String[] getSupportedDynamicOptions() {
 
-        return new String[0];
+        return new String[]{Hl7Constants.HL7_PARTITION_KEY};
     }
 
     @Override
@@ -215,18 +536,309 @@ public class Hl7Sink extends Sink {
                 Hl7Constants.DEFAULT_TLS_KEYSTORE_PASSPHRASE);
         this.tlsKeystoreType = optionHolder.validateAndGetStaticValue(Hl7Constants.TLS_KEYSTORE_TYPE,
                 Hl7Constants.DEFAULT_TLS_KEYSTORE_TYPE);
-        this.hapiContext = new DefaultHapiContext();
+        this.rawMode = Boolean.parseBoolean(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_RAW_MODE,
+                Hl7Constants.DEFAULT_HL7_RAW_MODE));
+        this.rawMshValidation = Boolean.parseBoolean(optionHolder.validateAndGetStaticValue(
+                Hl7Constants.HL7_RAW_MSH_VALIDATION, Hl7Constants.DEFAULT_HL7_RAW_MSH_VALIDATION));
+        String modelVersion = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_MODEL_VERSION,
+                Hl7Constants.DEFAULT_HL7_MODEL_VERSION);
+        this.model = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_MODEL, Hl7Constants.DEFAULT_HL7_MODEL);
+        this.modelClassFactory = Hl7Utils.createModelClassFactory(model, modelVersion, siddhiAppName, streamID);
+        if (modelClassFactory != null) {
+            model = model + " " + modelVersion;
+        }
+        this.allowedVersions = Hl7Utils.getAllowedVersions(optionHolder.validateAndGetStaticValue(
+                Hl7Constants.HL7_ALLOWED_VERSIONS, null), siddhiAppName, streamID);
+        this.warmUp = Hl7WarmUp.create(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_WARMUP_TEMPLATES,
+                Hl7Constants.DEFAULT_HL7_WARMUP_TEMPLATES),
+                optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_WARMUP_FILES, null),
+                optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_WARMUP_ITERATIONS,
+                        Hl7Constants.DEFAULT_HL7_WARMUP_ITERATIONS),
+                allowedVersions == null ? Collections.singleton(modelVersion) : allowedVersions, siddhiAppName,
+                streamID);
         getValuesFromUri();
         Hl7Utils.validateEncodingType(hl7Encoding, hl7AckEncoding, siddhiAppName, streamID);
+        if (rawMode && !hl7Encoding.toUpperCase(Locale.ENGLISH).equals("ER7")) {
+            throw new SiddhiAppValidationException("Invalid hl7.encoding type defined in " + siddhiAppName + ":" +
+                    streamID + ". hl7.raw.mode can only be used with er7 encoding. ");
+        }
         Hl7Utils.doTlsValidation(tlsEnabled, tlsKeystoreFilepath, tlsKeystorePassphrase, tlsKeystoreType,
                 siddhiAppName, streamID);
+        if (optionHolder.isOptionExists(Hl7Constants.HL7_ACK_STREAM)) {
+            this.ackStream = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_ACK_STREAM);
+        }
+        initStamping(optionHolder);
+        initPartitioning(optionHolder);
+        initAckMode(optionHolder);
+        initBatching(optionHolder, siddhiAppContext);
+        initSequencing(optionHolder);
+        if (Boolean.parseBoolean(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_WRITE_COALESCING,
+                Hl7Constants.DEFAULT_HL7_WRITE_COALESCING))) {
+            if (!rawMode) {
+                throw new SiddhiAppValidationException("Invalid hl7.write.coalescing defined in " + siddhiAppName +
+                        ":" + streamID + ". hl7.write.coalescing can only be used with hl7.raw.mode. ");
+            }
+            this.coalescingWindow = Long.parseLong(optionHolder.validateAndGetStaticValue(
+                    Hl7Constants.HL7_WRITE_COALESCING_WINDOW, Hl7Constants.DEFAULT_HL7_WRITE_COALESCING_WINDOW));
+            if (coalescingWindow < 0) {
+                throw new SiddhiAppValidationException("Invalid hl7.write.coalescing.window.us defined in " +
+                        siddhiAppName + ":" + streamID + ". The window should not be negative. ");
+            }
+        }
+    }
+
+    private void initStamping(OptionHolder optionHolder) {
+
+        boolean stampControlId = Boolean.parseBoolean(optionHolder.validateAndGetStaticValue(
+                Hl7Constants.HL7_STAMP_CONTROL_ID, Hl7Constants.DEFAULT_HL7_STAMP_CONTROL_ID));
+        this.stampTimestamp = Boolean.parseBoolean(optionHolder.validateAndGetStaticValue(
+                Hl7Constants.HL7_STAMP_TIMESTAMP, Hl7Constants.DEFAULT_HL7_STAMP_TIMESTAMP));
+        if ((stampControlId || stampTimestamp) && !hl7Encoding.toUpperCase(Locale.ENGLISH).equals("ER7")) {
+            throw new SiddhiAppValidationException("Invalid hl7.encoding type defined in " + siddhiAppName + ":" +
+                    streamID + ". hl7.stamp.control.id and hl7.stamp.timestamp can only be used with er7 " +
+                    "encoding. ");
+        }
+        if (stampControlId) {
+            String prefix = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_CONTROL_ID_PREFIX, "");
+            Path reserveFile = null;
+            if (optionHolder.isOptionExists(Hl7Constants.HL7_CONTROL_ID_RESERVE_FILE)) {
+                reserveFile = Paths.get(optionHolder.validateAndGetStaticValue(
+                        Hl7Constants.HL7_CONTROL_ID_RESERVE_FILE));
+            }
+            try {
+                this.controlIdGenerator = new Hl7ControlIdGenerator(prefix, reserveFile);
+            } catch (IOException | NumberFormatException e) {
+                throw new SiddhiAppCreationException("Failed to read the hl7.control.id.reserve.file " +
+                        reserveFile + " defined in " + siddhiAppName + ":" + streamID + ". ", e);
+            }
+        }
+    }
+
+    private void initAckMode(OptionHolder optionHolder) {
+
+        this.ackMode = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_ACK_MODE,
+                Hl7Constants.DEFAULT_HL7_ACK_MODE).toLowerCase(Locale.ENGLISH);
+        if (!(ackMode.equals(Hl7Constants.ACK_MODE_ALWAYS) || ackMode.equals(Hl7Constants.ACK_MODE_NEVER) ||
+                ackMode.equals(Hl7Constants.ACK_MODE_ERROR_ONLY))) {
+            throw new SiddhiAppValidationException("Invalid hl7.ack.mode defined in " + siddhiAppName + ":" +
+                    streamID + ". hl7.ack.mode should be always, never or error-only. ");
+        }
+        if (!ackMode.equals(Hl7Constants.ACK_MODE_ALWAYS)) {
+            if (!hl7Encoding.toUpperCase(Locale.ENGLISH).equals("ER7")) {
+                throw new SiddhiAppValidationException("Invalid hl7.encoding type defined in " + siddhiAppName +
+                        ":" + streamID + ". hl7.ack.mode " + ackMode + " can only be used with er7 encoding. ");
+            }
+            this.rawMode = true;
+        }
+    }
+
+    private void initBatching(OptionHolder optionHolder, SiddhiAppContext siddhiAppContext) {
+
+        this.batchSize = Integer.parseInt(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_BATCH_SIZE,
+                Hl7Constants.DEFAULT_HL7_BATCH_SIZE));
+        this.batchMaxDelay = Long.parseLong(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_BATCH_MAX_DELAY,
+                Hl7Constants.DEFAULT_HL7_BATCH_MAX_DELAY));
+        if (batchSize < 1 || batchMaxDelay < 1) {
+            throw new SiddhiAppValidationException("Invalid batch.size or batch.max.delay.ms defined in " +
+                    siddhiAppName + ":" + streamID + ". Both should be positive integers. ");
+        }
+        if (batchSize > 1) {
+            if (!hl7Encoding.toUpperCase(Locale.ENGLISH).equals("ER7")) {
+                throw new SiddhiAppValidationException("Invalid hl7.encoding type defined in " + siddhiAppName + ":" +
+                        streamID + ". batch.size can only be used with er7 encoding. ");
+            }
+            this.rawMode = true;
+            this.batchBuffers = new Hl7BatchBuffer[partitionCount];
+            for (int lane = 0; lane < partitionCount; lane++) {
+                batchBuffers[lane] = new Hl7BatchBuffer();
+            }
+            this.batchControlId = new AtomicLong(System.currentTimeMillis() * 1000);
+            this.scheduledExecutorService = siddhiAppContext.getScheduledExecutorService();
+        }
+    }
+
+    private void initSequencing(OptionHolder optionHolder) {
+
+        if (!optionHolder.isOptionExists(Hl7Constants.HL7_SEQUENCE_FILE)) {
+            return;
+        }
+        if (!hl7Encoding.toUpperCase(Locale.ENGLISH).equals("ER7") ||
+                !ackMode.equals(Hl7Constants.ACK_MODE_ALWAYS) || partitionCount > 1 || batchBuffers != null) {
+            throw new SiddhiAppValidationException("Invalid hl7.sequence.file defined in " + siddhiAppName + ":" +
+                    streamID + ". The sequence number protocol can only be used with er7 encoding, the always " +
+                    "hl7.ack.mode and without partitioning or batching. ");
+        }
+        Path sequenceFile = Paths.get(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_SEQUENCE_FILE));
+        this.sequenceCounter = new Hl7SequenceCounterFile(sequenceFile, 1);
+        this.sequenceKey = hostName + ":" + port;
+        try {
+            sequenceCounter.open();
+            if (sequenceCounter.get(sequenceKey, -1) < 0) {
+                // the slot of another uri, or a torn slot, is reused and the counter is queried from the receiver
+                sequenceCounter.reset();
+            }
+        } catch (IOException e) {
+            throw new SiddhiAppCreationException("Failed to open the hl7.sequence.file " + sequenceFile +
+                    " defined in " + siddhiAppName + ":" + streamID + ". ", e);
+        }
+        this.rawMode = true;
+    }
+
+    private void initPartitioning(OptionHolder optionHolder) {
+
+        this.partitionCount = Integer.parseInt(optionHolder.validateAndGetStaticValue(
+                Hl7Constants.HL7_PARTITION_COUNT, Hl7Constants.DEFAULT_HL7_PARTITION_COUNT));
+        this.partitionQueueSize = Integer.parseInt(optionHolder.validateAndGetStaticValue(
+                Hl7Constants.HL7_PARTITION_QUEUE_SIZE, Hl7Constants.DEFAULT_HL7_PARTITION_QUEUE_SIZE));
+        if (partitionCount < 1 || partitionQueueSize < 1) {
+            throw new SiddhiAppValidationException("Invalid hl7.partition.count or hl7.partition.queue.size defined " +
+                    "in " + siddhiAppName + ":" + streamID + ". Both should be positive integers. ");
+        }
+        if (optionHolder.isOptionExists(Hl7Constants.HL7_PARTITION_KEY)) {
+            partitionKeyOption = optionHolder.validateAndGetOption(Hl7Constants.HL7_PARTITION_KEY);
+            if (partitionKeyOption.isStatic()) {
+                Matcher matcher = FIELD_PATH_PATTERN.matcher(partitionKeyOption.getValue());
+                if (!matcher.matches()) {
+                    throw new SiddhiAppValidationException("Invalid hl7.partition.key defined in " + siddhiAppName +
+                            ":" + streamID + ". Expected a field such as PID-3 or PID-3.1, or a stream attribute " +
+                            "such as {{patientId}}. ");
+                }
+                if (!hl7Encoding.toUpperCase(Locale.ENGLISH).equals("ER7")) {
+                    throw new SiddhiAppValidationException("Invalid hl7.partition.key defined in " + siddhiAppName +
+                            ":" + streamID + ". A field can only be used as the partition key with er7 encoding, " +
+                            "use a stream attribute instead. ");
+                }
+                partitionSegment = matcher.group(1);
+                partitionField = Integer.parseInt(matcher.group(2));
+                partitionComponent = matcher.group(3) == null ? 0 : Integer.parseInt(matcher.group(3));
+            }
+        } else if (partitionCount > 1) {
+            throw new SiddhiAppValidationException("hl7.partition.key is not defined in " + siddhiAppName + ":" +
+                    streamID + ". It is required when hl7.partition.count is greater than one. ");
+        }
     }
 
     @Override
-    public void publish(Object payload, DynamicOptions dynamicOptions) {
+    public void publish(Object payload, DynamicOptions dynamicOptions) throws ConnectionUnavailableException {
 
-        Initiator initiator = connection.getInitiator();
         String hl7Message = (String) payload;
+        if (controlIdGenerator != null) {
+            hl7Message = Hl7Er7Utils.setField(hl7Message, "MSH", 10, controlIdGenerator.next());
+        }
+        if (stampTimestamp) {
+            hl7Message = Hl7Er7Utils.setField(hl7Message, "MSH", 7, Hl7TimestampCache.now());
+        }
+        if (allowedVersions != null) {
+            checkVersion(hl7Message);
+        }
+        // read once, as the dispatcher is dropped when the sink disconnects
+        Hl7PartitionedDispatcher currentDispatcher = dispatcher;
+        if (currentDispatcher != null) {
+            dispatchToLane(currentDispatcher, hl7Message, getPartitionKey(hl7Message, dynamicOptions));
+        } else {
+            sendMessage(hl7Message, 0);
+        }
+    }
+
+    private void checkVersion(String hl7Message) {
+
+        String version = Hl7Utils.getVersion(hl7Message, hl7Encoding, hapiContext);
+        if (version == null || !allowedVersions.contains(version)) {
+            log.error("Error occurred while processing the message. Please check the " + siddhiAppName + ":" +
+                    streamID + ". The version " + version + " is not in hl7.allowed.versions. ");
+            throw new Hl7SinkRuntimeException("Error occurred while processing the message. Please check the " +
+                    siddhiAppName + ":" + streamID + ". The version " + version + " is not in " +
+                    "hl7.allowed.versions. ");
+        }
+    }
+
+    private String getPartitionKey(String hl7Message, DynamicOptions dynamicOptions) {
+
+        if (partitionSegment != null) {
+            String field = Hl7Er7Utils.getField(hl7Message, partitionSegment, partitionField);
+            return partitionComponent > 0 ? Hl7Er7Utils.getComponent(hl7Message, field, partitionComponent) : field;
+        }
+        return partitionKeyOption.getValue(dynamicOptions);
+    }
+
+    private void dispatchToLane(final Hl7PartitionedDispatcher currentDispatcher, final String hl7Message,
+                                String partitionKey) throws ConnectionUnavailableException {
+
+        final int lane = currentDispatcher.getLane(partitionKey);
+        try {
+            currentDispatcher.dispatch(lane, new Runnable() {
+                @Override
+                public void run() {
+
+                    publishInLane(currentDispatcher, hl7Message, lane);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new ConnectionUnavailableException("Failed to dispatch the message from stream: " +
+                    siddhiAppName + ":" + streamID + " since the sink is disconnecting. ", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Hl7SinkRuntimeException("Interruption occurred while dispatching the message from stream: " +
+                    siddhiAppName + ":" + streamID + ". ", e);
+        }
+    }
+
+    private void publishInLane(Hl7PartitionedDispatcher currentDispatcher, String hl7Message, int lane) {
+
+        BackoffRetryCounter retryCounter = new BackoffRetryCounter();
+        while (true) {
+            try {
+                sendMessage(hl7Message, lane);
+                return;
+            } catch (ConnectionUnavailableException e) {
+                if (!currentDispatcher.isRunning()) {
+                    log.error("Dropping the message of lane " + lane + " since the sink of stream " + siddhiAppName +
+                            ":" + streamID + " is disconnecting. ", e);
+                    return;
+                }
+                log.error("Connection unavailable for lane " + lane + " of stream " + siddhiAppName + ":" +
+                        streamID + ", retrying in " + retryCounter.getTimeInterval() + ". " + e.getMessage());
+                try {
+                    Thread.sleep(retryCounter.getTimeIntervalMillis());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                retryCounter.increment();
+                reconnectLane(lane);
+            } catch (Hl7SinkRuntimeException e) {
+                log.error("Dropping the message of lane " + lane + " of stream " + siddhiAppName + ":" + streamID +
+                        ". " + e.getMessage(), e);
+                return;
+            }
+        }
+    }
+
+    private void reconnectLane(int lane) {
+
+        if (rawMode) {
+            try {
+                connectRawClient(lane);
+            } catch (ConnectionUnavailableException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void sendMessage(String hl7Message, int lane) throws ConnectionUnavailableException {
+
+        if (batchBuffers != null) {
+            addToBatch(hl7Message, lane);
+        } else if (rawMode) {
+            publishRaw(hl7Message, mllpClients[lane]);
+        } else {
+            publishWithInitiator(hl7Message);
+        }
+    }
+
+    private void publishWithInitiator(String hl7Message) {
+
+        Initiator initiator = connection.getInitiator();
         Parser pipeParser = hapiContext.getPipeParser();
         Parser xmlParser = hapiContext.getXMLParser();
         initiator.setTimeout(hl7Timeout, TimeUnit.MILLISECONDS);
@@ -238,7 +850,12 @@ public class Hl7Sink extends Sink {
             } else {
                 message = xmlParser.parse(hl7Message);
             }
+            long startTime = System.currentTimeMillis();
             response = initiator.sendAndReceive(message);
+            if (ackStream != null) {
+                publishAckOutcome(response, System.currentTimeMillis() - startTime);
+                return;
+            }
             try {
                 String responseString;
                 if (hl7AckEncoding.toUpperCase(Locale.ENGLISH).equals("ER7")) {
@@ -269,50 +886,544 @@ public class Hl7Sink extends Sink {
         }
     }
 
+    private void publishRaw(String hl7Message, Hl7MllpClient mllpClient) throws ConnectionUnavailableException {
+
+        validateRawMessage(hl7Message);
+        if (sequenceCounter != null) {
+            publishSequenced(hl7Message, mllpClient);
+        } else if (isAckExpected(hl7Message)) {
+            String controlId = Hl7Er7Utils.getField(hl7Message, "MSH", 10);
+            long startTime = System.currentTimeMillis();
+            String response = sendRaw(hl7Message, mllpClient, controlId);
+            handleRawResponse(response, mllpClient, System.currentTimeMillis() - startTime);
+        } else {
+            writeRaw(hl7Message, mllpClient);
+        }
+    }
+
+    /**
+     * Stamps the message with the next sequence number and sends it. The counter follows the expected sequence
+     * number (MSA-4) returned by the receiver. A message rejected for an unexpected sequence number, or accepted
+     * with an expected sequence number showing that its number was already received, is sent once more with the
+     * expected one. While the counter is unknown, the expected sequence number is queried (MSH-13 = -1) before the
+     * message is sent, as the receiver would silently acknowledge a number it already received. The counter is not
+     * advanced if the message cannot be sent.
+     */
+    private void publishSequenced(String hl7Message, Hl7MllpClient mllpClient)
+            throws ConnectionUnavailableException {
+
+        synchronized (sequenceCounter) {
+            String controlId = Hl7Er7Utils.getField(hl7Message, "MSH", 10);
+            if (sequenceCounter.get(sequenceKey, -1) < 0) {
+                querySequenceNumber(hl7Message, mllpClient, controlId);
+            }
+            long sequenceNumber = sequenceCounter.get(sequenceKey, 0) + 1;
+            if (!isAckExpected(hl7Message)) {
+                writeRaw(Hl7Er7Utils.setField(hl7Message, "MSH", 13, String.valueOf(sequenceNumber)), mllpClient);
+                updateSequenceNumber(sequenceNumber);
+                return;
+            }
+            boolean resent = false;
+            while (true) {
+                long startTime = System.currentTimeMillis();
+                String response = sendRaw(Hl7Er7Utils.setField(hl7Message, "MSH", 13,
+                        String.valueOf(sequenceNumber)), mllpClient, controlId);
+                long latency = System.currentTimeMillis() - startTime;
+                long expected = getExpectedSequenceNumber(response);
+                String ackCode = Hl7Er7Utils.getField(response, "MSA", 1);
+                boolean rejected = "AR".equals(ackCode);
+                boolean resendable = rejected || "AA".equals(ackCode) || "CA".equals(ackCode);
+                if (resendable && expected > 0 && expected != sequenceNumber + 1 && !resent) {
+                    log.warn("Resending the message with the sequence number " + expected + " expected by " +
+                            sequenceKey + " instead of " + sequenceNumber + " for stream " + siddhiAppName + ":" +
+                            streamID + ". ");
+                    sequenceNumber = expected;
+                    resent = true;
+                    continue;
+                }
+                if (expected > 0) {
+                    updateSequenceNumber(expected - 1);
+                } else if (!rejected) {
+                    updateSequenceNumber(sequenceNumber);
+                }
+                handleRawResponse(response, mllpClient, latency);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Queries the sequence number expected by the receiver with a copy of the message whose sequence number is -1,
+     * which the receiver acknowledges without processing it.
+     */
+    private void querySequenceNumber(String hl7Message, Hl7MllpClient mllpClient, String controlId)
+            throws ConnectionUnavailableException {
+
+        String query = Hl7Er7Utils.setField(Hl7Er7Utils.setField(hl7Message, "MSH", 13, "-1"), "MSH", 15, "AL");
+        long expected = getExpectedSequenceNumber(sendRaw(query, mllpClient, controlId));
+        if (expected > 0) {
+            updateSequenceNumber(expected - 1);
+            log.info("Resynchronized the sequence number of " + sequenceKey + " to " + expected + " for stream " +
+                    siddhiAppName + ":" + streamID + ". ");
+        }
+    }
+
+    private long getExpectedSequenceNumber(String response) {
+
+        String expected = Hl7Er7Utils.getField(response, "MSA", 4);
+        if (expected == null || expected.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(expected);
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring the invalid expected sequence number '" + expected + "' received from " +
+                    sequenceKey + " for stream " + siddhiAppName + ":" + streamID + ". ");
+            return -1;
+        }
+    }
+
+    private void updateSequenceNumber(long sequenceNumber) {
+
+        try {
+            sequenceCounter.set(sequenceKey, sequenceNumber);
+        } catch (IOException e) {
+            throw new Hl7SinkRuntimeException("Failed to store the sequence number of " + sequenceKey + " for " +
+                    "stream " + siddhiAppName + ":" + streamID + ". ", e);
+        }
+    }
+
+    private boolean isAckExpected(String hl7Message) {
+
+        if (!ackMode.equals(Hl7Constants.ACK_MODE_ALWAYS)) {
+            return false;
+        }
+        String acceptAckType = Hl7Er7Utils.getField(hl7Message, "MSH", 15);
+        return !("NE".equals(acceptAckType) || "ER".equals(acceptAckType));
+    }
+
+    private void validateRawMessage(String hl7Message) {
+
+        if (rawMshValidation && !Hl7Er7Utils.isValidMshSegment(hl7Message)) {
+            log.error("Error occurred while processing the message. Please check the " + siddhiAppName + ":" +
+                    streamID + ". Invalid MSH segment found in the message. ");
+            throw new Hl7SinkRuntimeException("Error occurred while processing the message. Please check the " +
+                    siddhiAppName + ":" + streamID + ". Invalid MSH segment found in the message. ");
+        }
+    }
+
+    private String sendRaw(String frame, Hl7MllpClient mllpClient, String controlId)
+            throws ConnectionUnavailableException {
+
+        try {
+            return mllpClient.sendAndReceive(frame, controlId);
+        } catch (IOException e) {
+            mllpClient.close();
+            throw new ConnectionUnavailableException("Interruption occurred while sending the message from " +
+                    "stream: " + siddhiAppName + ":" + streamID + ". ", e);
+        }
+    }
+
+    private void writeRaw(String frame, Hl7MllpClient mllpClient) throws ConnectionUnavailableException {
+
+        try {
+            mllpClient.send(frame);
+        } catch (IOException e) {
+            mllpClient.close();
+            throw new ConnectionUnavailableException("Interruption occurred while sending the message from " +
+                    "stream: " + siddhiAppName + ":" + streamID + ". ", e);
+        }
+    }
+
+    private void handleRawResponse(String response, Hl7MllpClient mllpClient, long latency) {
+
+        if (ackStream == null) {
+            logRawResponse(response, mllpClient);
+            return;
+        }
+        List<String> errorCodes = new ArrayList<>();
+        for (String errorCodeField : Hl7Er7Utils.getFields(response, "ERR", 3)) {
+            addErrorCode(errorCodes, Hl7Er7Utils.getComponent(response, errorCodeField, 1), response);
+        }
+        if (errorCodes.isEmpty()) {
+            for (String errorLocationField : Hl7Er7Utils.getFields(response, "ERR", 1)) {
+                addErrorCode(errorCodes, Hl7Er7Utils.getComponent(response, errorLocationField, 4), response);
+            }
+        }
+        publishAckOutcome(Hl7Er7Utils.getField(response, "MSA", 2), Hl7Er7Utils.getField(response, "MSA", 1),
+                Hl7Er7Utils.getField(response, "MSA", 3), errorCodes, latency);
+    }
+
+    private void addErrorCode(List<String> errorCodes, String errorCode, String response) {
+
+        if (errorCode == null || errorCode.isEmpty()) {
+            return;
+        }
+        String encodingCharacters = Hl7Er7Utils.getField(response, "MSH", 2);
+        if (encodingCharacters != null && encodingCharacters.length() > 3) {
+            int end = errorCode.indexOf(encodingCharacters.charAt(3));
+            if (end == 0) {
+                return;
+            } else if (end > 0) {
+                errorCode = errorCode.substring(0, end);
+            }
+        }
+        errorCodes.add(errorCode);
+    }
+
+    /**
+     * Publishes the outcome of an acknowledgement received through the HAPI initiator. Only the MSA and ERR
+     * fields are read, the response is not encoded.
+     */
+    private void publishAckOutcome(Message response, long latency) throws HL7Exception {
+
+        Terser terser = new Terser(response);
+        List<String> errorCodes = new ArrayList<>();
+        for (Structure structure : response.getAll("ERR")) {
+            Segment errorSegment = (Segment) structure;
+            String errorCode = Terser.get(errorSegment, 3, 0, 1, 1);
+            if (errorCode == null) {
+                errorCode = Terser.get(errorSegment, 1, 0, 4, 1);
+            }
+            if (errorCode != null && !errorCode.isEmpty()) {
+                errorCodes.add(errorCode);
+            }
+        }
+        publishAckOutcome(terser.get("/MSA-2"), terser.get("/MSA-1"), terser.get("/MSA-3"), errorCodes, latency);
+    }
+
+    private void publishAckOutcome(String controlId, String ackCode, String ackText, List<String> errorCodes,
+                                   long latency) {
+
+        StringBuilder errorCodeList = new StringBuilder();
+        for (String errorCode : errorCodes) {
+            if (errorCodeList.length() > 0) {
+                errorCodeList.append(',');
+            }
+            errorCodeList.append(errorCode);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Received Response for stream " + siddhiAppName + ":" + streamID + ": MSA-1 = " + ackCode +
+                    ", MSA-2 = " + controlId + ", latency = " + latency + " ms");
+        }
+        InMemoryBroker.publish(ackStream, new Event(System.currentTimeMillis(),
+                new Object[]{controlId, ackCode, ackText, errorCodeList.toString(), latency}));
+    }
+
+    private void logRawResponse(String response, Hl7MllpClient mllpClient) {
+
+        String ackCode = Hl7Er7Utils.getField(response, "MSA", 1);
+        String ackControlId = Hl7Er7Utils.getField(response, "MSA", 2);
+        if ("AA".equals(ackCode) || "CA".equals(ackCode)) {
+            log.info("Received Response from " + mllpClient.getRemoteAddress() + " for stream " + siddhiAppName +
+                    ":" + streamID + ": MSA-1 = " + ackCode + ", MSA-2 = " + ackControlId);
+        } else {
+            log.warn("Received negative Response from " + mllpClient.getRemoteAddress() + " for stream " +
+                    siddhiAppName + ":" + streamID + ": MSA-1 = " + ackCode + ", MSA-2 = " + ackControlId);
+        }
+    }
+
+    private void addToBatch(String hl7Message, int lane) throws ConnectionUnavailableException {
+
+        validateRawMessage(hl7Message);
+        Hl7BatchBuffer batchBuffer = batchBuffers[lane];
+        synchronized (batchBuffer) {
+            batchBuffer.add(hl7Message);
+            if (batchBuffer.size() >= batchSize) {
+                try {
+                    flushBatch(lane);
+                } catch (ConnectionUnavailableException e) {
+                    // the message is published again once the sink reconnects, while the rest of the batch is kept
+                    batchBuffer.removeLast();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the buffered messages of the lane as one batch. The caller should hold the lock of the batch buffer.
+     * The messages are kept in the buffer if the batch could not be sent.
+     */
+    private void flushBatch(int lane) throws ConnectionUnavailableException {
+
+        Hl7BatchBuffer batchBuffer = batchBuffers[lane];
+        if (batchBuffer.size() == 0) {
+            return;
+        }
+        String timestamp = Hl7TimestampCache.now();
+        String controlId = String.valueOf(batchControlId.incrementAndGet());
+        String batch = batchBuffer.build(controlId, timestamp);
+        Hl7MllpClient mllpClient = mllpClients[lane];
+        String response = null;
+        long startTime = System.currentTimeMillis();
+        if (ackMode.equals(Hl7Constants.ACK_MODE_ALWAYS)) {
+            response = sendRaw(batch, mllpClient, controlId);
+        } else {
+            writeRaw(batch, mllpClient);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Sent a batch of " + batchBuffer.size() + " messages from stream " + siddhiAppName + ":" +
+                    streamID + ". ");
+        }
+        batchBuffer.clear();
+        if (response != null) {
+            handleRawResponse(response, mllpClient, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    private void flushExpiredBatches(long maxDelay) {
+
+        long currentTime = System.currentTimeMillis();
+        for (int lane = 0; lane < batchBuffers.length; lane++) {
+            Hl7BatchBuffer batchBuffer = batchBuffers[lane];
+            synchronized (batchBuffer) {
+                if (batchBuffer.isExpired(currentTime, maxDelay)) {
+                    try {
+                        flushBatch(lane);
+                    } catch (ConnectionUnavailableException e) {
+                        log.error("Failed to send the batch of lane " + lane + " of stream " + siddhiAppName + ":" +
+                                streamID + ", the batch will be retried. " + e.getMessage());
+                        reconnectLane(lane);
+                    } catch (RuntimeException e) {
+                        log.error("Error occurred while sending the batch of lane " + lane + " of stream " +
+                                siddhiAppName + ":" + streamID + ". ", e);
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public void connect() throws ConnectionUnavailableException {
 
+        if (hapiContextConfiguration == null) {
+            String configuration = getClass().getSimpleName() + "[charset=" + charset + ", tls=" +
+                    Hl7HapiContextRegistry.getKeystoreIdentity(tlsEnabled, tlsKeystoreType, tlsKeystoreFilepath,
+                            tlsKeystorePassphrase) + ", model=" + model + "]";
+            hapiContext = Hl7HapiContextRegistry.acquire(configuration,
+                    new Hl7HapiContextRegistry.ContextFactory() {
+                @Override
+                public HapiContext create() {
+
+                    return createHapiContext();
+                }
+            });
+            hapiContextConfiguration = configuration;
+        }
+        if (warmUp != null) {
+            warmUp.run(hapiContext, siddhiAppName + ":" + streamID);
+            warmUp = null;
+        }
+        if (rawMode) {
+            closeRawClients();
+            mllpClients = new Hl7MllpClient[partitionCount];
+            for (int lane = 0; lane < partitionCount; lane++) {
+                connectRawClient(lane);
+            }
+            log.info("Executing HL7Sender in raw mode: HOST: " + hostName + ", PORT: " + port + " for stream " +
+                    siddhiAppName + ":" + streamID + ". ");
+        } else {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+            try {
+                connection = openConnection();
+                log.info("Executing HL7Sender: HOST: " + hostName + ", PORT: " + port + " for stream " +
+                        siddhiAppName + ":" + streamID + ". ");
+            } catch (IOException | LLPException e) {
+                throw new ConnectionUnavailableException("Failed to connect with the HL7 server, check " +
+                        "the host.name = " + hostName + ", port = " + port + " defined in " + siddhiAppName + ":" +
+                        streamID + ". ", e);
+            }
+        }
+        if (partitionCount > 1 && dispatcher == null) {
+            dispatcher = new Hl7PartitionedDispatcher(partitionCount, partitionQueueSize,
+                    "Hl7Sink-" + siddhiAppName + "-" + streamID);
+        }
+        if (batchBuffers != null && batchFlushTask == null) {
+            batchFlushTask = scheduledExecutorService.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+
+                    flushExpiredBatches(batchMaxDelay);
+                }
+            }, batchMaxDelay, batchMaxDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Creates the context shared by the sinks configured alike.
+     */
+    private HapiContext createHapiContext() {
+
+        HapiContext context = new DefaultHapiContext();
+        if (modelClassFactory != null) {
+            context.setModelClassFactory(modelClassFactory);
+        }
         MinLowerLayerProtocol mllp = new MinLowerLayerProtocol();
         mllp.setCharset(charset);
-        hapiContext.setLowerLayerProtocol(mllp);
+        context.setLowerLayerProtocol(mllp);
         if (tlsEnabled) {
             CustomCertificateTlsSocketFactory tlsFac = new CustomCertificateTlsSocketFactory(tlsKeystoreType,
                     tlsKeystoreFilepath, tlsKeystorePassphrase);
-            hapiContext.setSocketFactory(new HapiSocketTlsFactoryWrapper(tlsFac));
+            context.setSocketFactory(new HapiSocketTlsFactoryWrapper(tlsFac));
         }
+        return context;
+    }
+
+    /**
+     * Opens the connection of this sink. The connection is not taken from the connection hub of the shared
+     * context, as the sinks publishing to the same server would then share its socket and initiator, and receive
+     * the acknowledgements of each other's messages with the same control id.
+     */
+    private Connection openConnection() throws IOException, LLPException {
+
+        SocketFactory socketFactory = hapiContext.getSocketFactory();
+        Socket socket = tlsEnabled ? socketFactory.createTlsSocket() : socketFactory.createSocket();
         try {
-            connection = hapiContext.newClient(hostName, port, tlsEnabled);
-            log.info("Executing HL7Sender: HOST: " + hostName + ", PORT: " + port + " for stream " + siddhiAppName +
-                    ":" + streamID + ". ");
-        } catch (HL7Exception e) {
+            socket.connect(new InetSocketAddress(hostName, port), hl7Timeout);
+            ActiveConnection activeConnection = new ActiveConnection(hapiContext.getPipeParser(),
+                    hapiContext.getLowerLayerProtocol(), socket);
+            activeConnection.activate();
+            return activeConnection;
+        } catch (IOException | LLPException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void connectRawClient(int lane) throws ConnectionUnavailableException {
+
+        if (mllpClients[lane] != null) {
+            mllpClients[lane].close();
+        }
+        final Hl7MllpClient mllpClient = new Hl7MllpClient(hostName, port, tlsEnabled,
+                hapiContext.getSocketFactory(), charset, hl7Timeout);
+        if (coalescingWindow >= 0) {
+            mllpClient.setWriteCoalescing(coalescingWindow);
+        }
+        try {
+            mllpClient.connect();
+            if (!ackMode.equals(Hl7Constants.ACK_MODE_ALWAYS)) {
+                mllpClient.startResponseDrain(new Hl7MllpClient.ResponseHandler() {
+                    @Override
+                    public void onResponse(String response) {
+
+                        handleRawResponse(response, mllpClient, -1L);
+                    }
+                }, "Hl7Sink-" + siddhiAppName + "-" + streamID + "-drain-" + lane);
+            }
+        } catch (IOException e) {
+            mllpClient.close();
             throw new ConnectionUnavailableException("Failed to connect with the HL7 server, check " +
                     "the host.name = " + hostName + ", port = " + port + " defined in " + siddhiAppName + ":" +
                     streamID + ". ", e);
         }
+        mllpClients[lane] = mllpClient;
+    }
+
+    private void closeRawClients() {
+
+        if (mllpClients != null) {
+            for (Hl7MllpClient mllpClient : mllpClients) {
+                if (mllpClient != null) {
+                    mllpClient.close();
+                }
+            }
+        }
     }
 
     @Override
     public void disconnect() {
 
+        Hl7PartitionedDispatcher currentDispatcher = dispatcher;
+        if (currentDispatcher != null) {
+            dispatcher = null;
+            currentDispatcher.shutdown(hl7Timeout);
+        }
+        if (batchFlushTask != null) {
+            batchFlushTask.cancel(false);
+            batchFlushTask = null;
+            flushExpiredBatches(0);
+        }
         if (connection != null) {
             connection.close();
+            connection = null;
+        }
+        closeRawClients();
+        if (hapiContextConfiguration != null) {
+            Hl7HapiContextRegistry.release(hapiContextConfiguration);
+            hapiContextConfiguration = null;
         }
     }
 
     @Override
     public void destroy() {
 
+        if (sequenceCounter != null) {
+            sequenceCounter.close();
+        }
     }
 
     @Override
     public Map<String, Object> currentState() {
 
-        return null;
+        if (controlIdGenerator == null && sequenceCounter == null) {
+            return null;
+        }
+        Hl7StateCodec.Writer writer = new Hl7StateCodec.Writer(32);
+        writer.writeByte((controlIdGenerator != null ? STATE_CONTROL_ID : 0) |
+                (sequenceCounter != null ? STATE_SEQUENCE : 0));
+        if (controlIdGenerator != null) {
+            writer.writeVarLong(controlIdGenerator.getCurrent());
+        }
+        if (sequenceCounter != null) {
+            sequenceCounter.force();
+            writer.writeVarLong(sequenceCounter.get(sequenceKey, 0));
+        }
+        Map<String, Object> state = new HashMap<>();
+        state.put(Hl7Constants.STATE_ENCODED, writer.toByteArray());
+        return state;
     }
 
     @Override
     public void restoreState(Map<String, Object> map) {
 
+        if (map == null || map.get(Hl7Constants.STATE_ENCODED) == null) {
+            return;
+        }
+        try {
+            Hl7StateCodec.Reader reader = new Hl7StateCodec.Reader((byte[]) map.get(Hl7Constants.STATE_ENCODED));
+            int sections = reader.readByte();
+            if ((sections & STATE_CONTROL_ID) != 0) {
+                restoreControlId(reader.readVarLong());
+            }
+            if ((sections & STATE_SEQUENCE) != 0) {
+                restoreSequenceNumber(reader.readVarLong());
+            }
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new Hl7SinkRuntimeException("Failed to decode the state restored for stream " + siddhiAppName +
+                    ":" + streamID + ". ", e);
+        }
+    }
+
+    private void restoreControlId(long controlId) {
+
+        if (controlIdGenerator != null) {
+            controlIdGenerator.restore(controlId);
+        }
+    }
+
+    private void restoreSequenceNumber(long sequenceNumber) {
+
+        if (sequenceCounter != null) {
+            synchronized (sequenceCounter) {
+                // the counter in the file is never moved back, as the receiver has already seen those numbers
+                updateSequenceNumber(Math.max(sequenceCounter.get(sequenceKey, 0), sequenceNumber));
+            }
+        }
     }
 
     private void getValuesFromUri() {
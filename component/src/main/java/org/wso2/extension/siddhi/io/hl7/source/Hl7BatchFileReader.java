@@ -0,0 +1,211 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@code Hl7BatchFileReader} splits a file of ER7 messages, optionally wrapped in FHS/BHS/BTS/FTS batch segments,
+ * into messages. The file is memory mapped in windows and the segment boundaries are scanned in place, so only the
+ * bytes of each message are copied when the message is decoded. A new message starts at each MSH segment and a
+ * message ends at the next MSH segment, at a batch segment or at the end of the file. The segment names and
+ * delimiters are matched as single bytes, hence the charset should be ASCII compatible, e.g. UTF-8 or ISO-8859-1.
+ */
+public class Hl7BatchFileReader {
+
+    private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    private Path file;
+    private Charset charset;
+    private int windowSize;
+    private volatile boolean running = true;
+
+    public Hl7BatchFileReader(Path file, Charset charset) {
+
+        this(file, charset, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates the reader.
+     *
+     * @param file       - file to read
+     * @param charset    - character encoding of the file
+     * @param windowSize - number of bytes mapped at a time, the window grows for larger messages
+     */
+    public Hl7BatchFileReader(Path file, Charset charset, int windowSize) {
+
+        this.file = file;
+        this.charset = charset;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Reads the messages from the given offset until the end of the file or until the reader is stopped.
+     *
+     * @param offset  - byte offset to start reading from, should be the start of a message or segment
+     * @param handler - handler notified for each message
+     * @return byte offset from which the reading should continue
+     * @throws IOException if the file cannot be read
+     */
+    public long read(long offset, MessageHandler handler) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long position = offset;
+            long currentWindowSize = windowSize;
+            while (running && position < fileSize) {
+                long size = Math.min(currentWindowSize, fileSize - position);
+                boolean lastWindow = position + size == fileSize;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                int consumed = readWindow(window, position, lastWindow, handler);
+                if (consumed == 0) {
+                    if (lastWindow || currentWindowSize >= Integer.MAX_VALUE) {
+                        break;
+                    }
+                    currentWindowSize = Math.min(currentWindowSize * 2, Integer.MAX_VALUE);
+                } else {
+                    position += consumed;
+                    currentWindowSize = windowSize;
+                }
+            }
+            return position;
+        }
+    }
+
+    public boolean isRunning() {
+
+        return running;
+    }
+
+    public void stop() {
+
+        running = false;
+    }
+
+    /**
+     * Reads the complete messages of the window.
+     *
+     * @return number of bytes of the window which are processed
+     */
+    private int readWindow(ByteBuffer window, long base, boolean lastWindow, MessageHandler handler) {
+
+        int limit = window.limit();
+        int consumed = 0;
+        int messageStart = -1;
+        int segmentStart = 0;
+        while (segmentStart < limit && running) {
+            int segmentEnd = findLineEnd(window, segmentStart, limit);
+            if (segmentEnd == limit && !lastWindow) {
+                break;
+            }
+            int next = skipLineBreaks(window, segmentEnd, limit);
+            if (isSegment(window, segmentStart, limit, 'M', 'S', 'H')) {
+                if (messageStart >= 0) {
+                    handler.onMessage(decode(window, messageStart, segmentStart), base + segmentStart);
+                    consumed = segmentStart;
+                }
+                messageStart = segmentStart;
+            } else if (isBatchSegment(window, segmentStart, limit)) {
+                if (messageStart >= 0) {
+                    handler.onMessage(decode(window, messageStart, segmentStart), base + segmentStart);
+                    messageStart = -1;
+                }
+                consumed = next;
+            } else if (messageStart < 0) {
+                consumed = next;
+            }
+            segmentStart = next;
+        }
+        if (lastWindow && running && segmentStart >= limit) {
+            if (messageStart >= 0) {
+                handler.onMessage(decode(window, messageStart, limit), base + limit);
+            }
+            consumed = limit;
+        }
+        return consumed;
+    }
+
+    private String decode(ByteBuffer window, int start, int end) {
+
+        ByteBuffer messageBytes = window.duplicate();
+        messageBytes.limit(end);
+        messageBytes.position(start);
+        String message = charset.decode(messageBytes).toString();
+        if (message.indexOf('\n') >= 0) {
+            message = message.replace("\r\n", "\r").replace('\n', '\r');
+        }
+        int length = message.length();
+        while (length > 0 && message.charAt(length - 1) == '\r') {
+            length--;
+        }
+        return message.substring(0, length) + '\r';
+    }
+
+    private static int findLineEnd(ByteBuffer window, int from, int limit) {
+
+        for (int i = from; i < limit; i++) {
+            byte value = window.get(i);
+            if (value == '\r' || value == '\n') {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private static int skipLineBreaks(ByteBuffer window, int from, int limit) {
+
+        int position = from;
+        while (position < limit && (window.get(position) == '\r' || window.get(position) == '\n')) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isSegment(ByteBuffer window, int position, int limit, char first, char second,
+                                     char third) {
+
+        return position + 3 < limit && window.get(position) == first && window.get(position + 1) == second &&
+                window.get(position + 2) == third;
+    }
+
+    private static boolean isBatchSegment(ByteBuffer window, int position, int limit) {
+
+        return isSegment(window, position, limit, 'F', 'H', 'S') || isSegment(window, position, limit, 'B', 'H', 'S') ||
+                isSegment(window, position, limit, 'B', 'T', 'S') || isSegment(window, position, limit, 'F', 'T', 'S');
+    }
+
+    /**
+     * Handles the messages read from the file.
+     */
+    public interface MessageHandler {
+
+        /**
+         * Called for each message in the order of the file.
+         *
+         * @param message    - ER7 encoded message with segments terminated by carriage returns
+         * @param nextOffset - byte offset from which the reading should continue after this message
+         */
+        void onMessage(String message, long nextOffset);
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import org.apache.log4j.Logger;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Constants;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Utils;
+import org.wso2.siddhi.annotation.Example;
+import org.wso2.siddhi.annotation.Extension;
+import org.wso2.siddhi.annotation.Parameter;
+import org.wso2.siddhi.annotation.util.DataType;
+import org.wso2.siddhi.core.config.SiddhiAppContext;
+import org.wso2.siddhi.core.exception.ConnectionUnavailableException;
+import org.wso2.siddhi.core.stream.input.source.Source;
+import org.wso2.siddhi.core.stream.input.source.SourceEventListener;
+import org.wso2.siddhi.core.util.config.ConfigReader;
+import org.wso2.siddhi.core.util.transport.OptionHolder;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hl7 directory Source Implementation
+ */
+@Extension(
+        name = "hl7dir",
+        namespace = "source",
+        description = "The hl7dir source watches a directory for ER7 files, such as the result files dropped by " +
+                "lab instruments, and emits the messages of each file in the same way as the hl7 source. Files " +
+                "are processed in parallel by a bounded pool of workers, while the messages of a file are always " +
+                "emitted in order by a single worker. A file is deleted or moved once all its messages are " +
+                "emitted. The byte offset reached in each file being processed is kept in the state of the " +
+                "source, so that a restored snapshot resumes those files after the last emitted message. An " +
+                "offset only applies to a file with the same name, size and modified time. Files " +
+                "should be moved into the directory once they are completely written, as a file is read as soon " +
+                "as it appears. ",
+        parameters = {
+                @Parameter(name = "dir.path",
+                        description = "The path of the directory to watch. ",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.encoding",
+                        description = "Encoding method of the emitted hl7. This can be er7 or xml. If xml is used, " +
+                                "each message is parsed and encoded in xml. ",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "file.extension",
+                        description = "Only the files with this extension are processed. ",
+                        optional = true, defaultValue = "hl7",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "action.after.process",
+                        description = "Action performed on a file once all its messages are emitted. This can be " +
+                                "delete or move. ",
+                        optional = true, defaultValue = "delete",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "move.after.process",
+                        description = "The directory to which the processed files are moved. This is required " +
+                                "when the action.after.process is move. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.dir.worker.pool.size",
+                        description = "Maximum number of files processed in parallel. ",
+                        optional = true, defaultValue = "4",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "charset",
+                        description = "Character encoding of the files. This should be ASCII compatible. ",
+                        optional = true, defaultValue = "UTF-8",
+                        type = {DataType.STRING})
+        },
+        examples = {
+                @Example(
+                        syntax = "@App:name('Hl7DirTestApp') \n" +
+                                "@source(type = 'hl7dir', \n" +
+                                "dir.path = '/shares/lab/results', \n" +
+                                "hl7.encoding = 'er7', \n" +
+                                "action.after.process = 'move', \n" +
+                                "move.after.process = '/shares/lab/processed', \n" +
+                                "@map(type = 'text'))\n" +
+                                "define stream hl7stream(payload string); \n"
+                        ,
+                        description = "This emits the HL7 messages of the .hl7 files dropped into " +
+                                "/shares/lab/results, processing up to four files at a time, and moves each file " +
+                                "to /shares/lab/processed once its messages are emitted. \n "
+                )
+        }
+)
+public class Hl7DirectorySource extends Source {
+
+    private static final Logger log = Logger.getLogger(Hl7DirectorySource.class);
+    private static final int WORKER_QUEUE_SIZE = 1024;
+    private static final long DISCONNECT_TIMEOUT = 10000;
+    private String siddhiAppName;
+    private String streamID;
+    private Path dirPath;
+    private String fileExtension;
+    private String actionAfterProcess;
+    private Path movePath;
+    private int workerPoolSize;
+    private Charset charset;
+    private Hl7FileEventEmitter emitter;
+    private volatile boolean connected;
+    private WatchService watchService;
+    private Thread watcherThread;
+    private ThreadPoolExecutor workers;
+    private Semaphore workerSlots;
+    private Set<Path> scheduledFiles = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+    private Map<Path, Hl7BatchFileReader> activeReaders = new ConcurrentHashMap<>();
+    private Map<String, Long> fileOffsets = new ConcurrentHashMap<>();
+
+    @Override
+    public void init(SourceEventListener sourceEventListener, OptionHolder optionHolder,
+                     String[] requestedTransportPropertyNames, ConfigReader configReader,
+                     SiddhiAppContext siddhiAppContext) {
+
+        this.streamID = sourceEventListener.getStreamDefinition().getId();
+        this.siddhiAppName = siddhiAppContext.getName();
+        this.dirPath = Paths.get(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_DIR_PATH));
+        String hl7Encoding = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_ENCODING);
+        Hl7Utils.validateEncodingType(hl7Encoding, Hl7Constants.DEFAULT_ACK_HL7_ENCODING, siddhiAppName, streamID);
+        this.fileExtension = "." + optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_FILE_EXTENSION,
+                Hl7Constants.DEFAULT_HL7_FILE_EXTENSION);
+        this.actionAfterProcess = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_ACTION_AFTER_PROCESS,
+                Hl7Constants.DEFAULT_HL7_ACTION_AFTER_PROCESS).toLowerCase(Locale.ENGLISH);
+        if (actionAfterProcess.equals(Hl7Constants.ACTION_MOVE)) {
+            if (!optionHolder.isOptionExists(Hl7Constants.HL7_MOVE_AFTER_PROCESS)) {
+                throw new SiddhiAppValidationException("The move.after.process is required in " + siddhiAppName +
+                        ":" + streamID + " when the action.after.process is move. ");
+            }
+            this.movePath = Paths.get(optionHolder.validateAndGetStaticValue(
+                    Hl7Constants.HL7_MOVE_AFTER_PROCESS));
+        } else if (!actionAfterProcess.equals(Hl7Constants.ACTION_DELETE)) {
+            throw new SiddhiAppValidationException("Invalid action.after.process defined in " + siddhiAppName +
+                    ":" + streamID + ". The action.after.process should be delete or move. ");
+        }
+        try {
+            this.workerPoolSize = Integer.parseInt(optionHolder.validateAndGetStaticValue(
+                    Hl7Constants.HL7_DIR_WORKER_POOL_SIZE, Hl7Constants.DEFAULT_HL7_DIR_WORKER_POOL_SIZE));
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppValidationException("Invalid hl7.dir.worker.pool.size defined in " + siddhiAppName +
+                    ":" + streamID + ". ", e);
+        }
+        if (workerPoolSize < 1) {
+            throw new SiddhiAppValidationException("Invalid hl7.dir.worker.pool.size defined in " + siddhiAppName +
+                    ":" + streamID + ". The pool size should be at least 1. ");
+        }
+        try {
+            this.charset = Charset.forName(optionHolder.validateAndGetStaticValue(Hl7Constants.CHARSET_NAME,
+                    Hl7Constants.DEFAULT_HL7_CHARSET));
+        } catch (IllegalArgumentException e) {
+            throw new SiddhiAppValidationException("Invalid charset defined in " + siddhiAppName + ":" + streamID +
+                    ". ", e);
+        }
+        this.emitter = new Hl7FileEventEmitter(sourceEventListener, hl7Encoding, siddhiAppName, streamID);
+    }
+
+    @Override
+    public Class[] getOutputEventClasses() {
+
+        return new Class[]{String.class};
+    }
+
+    @Override
+    public void connect(ConnectionCallback connectionCallback) throws ConnectionUnavailableException {
+
+        if (!Files.isDirectory(dirPath)) {
+            throw new ConnectionUnavailableException("Failed to read the directory " + dirPath + " defined in " +
+                    siddhiAppName + ":" + streamID + ". ");
+        }
+        try {
+            if (movePath != null) {
+                Files.createDirectories(movePath);
+            }
+            watchService = dirPath.getFileSystem().newWatchService();
+            dirPath.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new ConnectionUnavailableException("Failed to watch the directory " + dirPath + " defined in " +
+                    siddhiAppName + ":" + streamID + ". ", e);
+        }
+        final String threadNamePrefix = "Hl7DirectorySource-" + siddhiAppName + "-" + streamID;
+        final AtomicInteger workerCount = new AtomicInteger();
+        workers = new ThreadPoolExecutor(workerPoolSize, workerPoolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(WORKER_QUEUE_SIZE), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, threadNamePrefix + "-worker-" + workerCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        workers.prestartAllCoreThreads();
+        workerSlots = new Semaphore(workerPoolSize + WORKER_QUEUE_SIZE);
+        connected = true;
+        watcherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                watch();
+            }
+        }, threadNamePrefix + "-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    private void watch() {
+
+        try {
+            scan();
+            while (connected) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        scan();
+                    } else {
+                        schedule(dirPath.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    log.error("Stopped watching the directory " + dirPath + " for stream " + siddhiAppName + ":" +
+                            streamID + " since it is no longer accessible. ");
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // the source is disconnected
+        } catch (IOException e) {
+            log.error("Error occurred while listing the directory " + dirPath + " for stream " + siddhiAppName +
+                    ":" + streamID + ". ", e);
+        }
+    }
+
+    /**
+     * Schedules the files of the directory, and drops the offsets of the files which are no longer in it.
+     */
+    private void scan() throws IOException, InterruptedException {
+
+        List<Path> files = listFiles();
+        fileOffsets.keySet().retainAll(getFileKeys(files));
+        for (Path file : files) {
+            schedule(file);
+        }
+    }
+
+    private List<Path> listFiles() throws IOException {
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(dirPath)) {
+            for (Path file : directoryStream) {
+                if (file.getFileName().toString().endsWith(fileExtension) && Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private Set<String> getFileKeys(List<Path> files) {
+
+        Set<String> fileKeys = new HashSet<>();
+        for (Path file : files) {
+            try {
+                fileKeys.add(getFileKey(file));
+            } catch (IOException e) {
+                // the file is removed while listing the directory
+            }
+        }
+        return fileKeys;
+    }
+
+    /**
+     * Identifies the file of an offset by its name, size and modified time, so that the offset of a processed file
+     * is never applied to another file created later with the same name.
+     */
+    private static String getFileKey(Path file) throws IOException {
+
+        return file.getFileName() + ":" + Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * Queues the file to be processed unless it is already queued or being processed. The watcher is blocked
+     * while all the workers are busy and their queue is full.
+     */
+    private void schedule(final Path file) throws InterruptedException {
+
+        if (!file.getFileName().toString().endsWith(fileExtension) || !Files.isRegularFile(file) ||
+                !scheduledFiles.add(file)) {
+            return;
+        }
+        final Semaphore slots = workerSlots;
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            scheduledFiles.remove(file);
+            throw e;
+        }
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+
+                    try {
+                        process(file);
+                    } finally {
+                        activeReaders.remove(file);
+                        scheduledFiles.remove(file);
+                        slots.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the source is disconnected
+            slots.release();
+            scheduledFiles.remove(file);
+        }
+    }
+
+    private void process(Path file) {
+
+        final String fileName = file.getFileName().toString();
+        final String fileKey;
+        try {
+            fileKey = getFileKey(file);
+        } catch (IOException e) {
+            log.error("Error occurred while reading the attributes of the file " + file + " for stream " +
+                    siddhiAppName + ":" + streamID + ". The file will be processed again when the source is " +
+                    "reconnected. ", e);
+            return;
+        }
+        Long startOffset = fileOffsets.get(fileKey);
+        Hl7BatchFileReader reader = new Hl7BatchFileReader(file, charset);
+        activeReaders.put(file, reader);
+        if (!connected) {
+            return;
+        }
+        try {
+            reader.read(startOffset == null ? 0 : startOffset, new Hl7BatchFileReader.MessageHandler() {
+                @Override
+                public void onMessage(String message, long nextOffset) {
+
+                    if (emitter.emit(message, fileName)) {
+                        fileOffsets.put(fileKey, nextOffset);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            if (reader.isRunning() && connected) {
+                log.error("Error occurred while reading the file " + file + " for stream " + siddhiAppName + ":" +
+                        streamID + ". The file will be processed again when the source is reconnected. ", e);
+            }
+            return;
+        }
+        if (!reader.isRunning()) {
+            return;
+        }
+        try {
+            if (movePath != null) {
+                Files.move(file, movePath.resolve(fileName), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(file);
+            }
+            fileOffsets.remove(fileKey);
+        } catch (IOException e) {
+            log.error("Error occurred while performing the action '" + actionAfterProcess + "' on the processed " +
+                    "file " + file + " for stream " + siddhiAppName + ":" + streamID + ". ", e);
+        }
+    }
+
+    @Override
+    public void disconnect() {
+
+        connected = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.error("Error occurred while closing the watch service of the directory " + dirPath + " for " +
+                        "stream " + siddhiAppName + ":" + streamID + ". ", e);
+            }
+            watchService = null;
+        }
+        if (watcherThread != null) {
+            watcherThread.interrupt();
+            watcherThread = null;
+        }
+        if (workers != null) {
+            for (Hl7BatchFileReader reader : activeReaders.values()) {
+                reader.stop();
+            }
+            workers.shutdownNow();
+            try {
+                if (!workers.awaitTermination(DISCONNECT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    log.warn("The workers of the hl7dir source " + siddhiAppName + ":" + streamID + " did not " +
+                            "stop within " + DISCONNECT_TIMEOUT + " milliseconds. ");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            workers = null;
+        }
+        scheduledFiles.clear();
+    }
+
+    @Override
+    public void destroy() {
+
+    }
+
+    @Override
+    public void pause() {
+
+        emitter.pause();
+    }
+
+    @Override
+    public void resume() {
+
+        emitter.resume();
+    }
+
+    @Override
+    public Map<String, Object> currentState() {
+
+        Map<String, Object> state = new HashMap<>();
+        state.put(Hl7Constants.STATE_FILE_OFFSETS, new HashMap<>(fileOffsets));
+        return state;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void restoreState(Map<String, Object> map) {
+
+        if (map == null || map.get(Hl7Constants.STATE_FILE_OFFSETS) == null) {
+            return;
+        }
+        fileOffsets.clear();
+        fileOffsets.putAll((Map<String, Long>) map.get(Hl7Constants.STATE_FILE_OFFSETS));
+        try {
+            fileOffsets.keySet().retainAll(getFileKeys(listFiles()));
+        } catch (IOException e) {
+            log.warn("Error occurred while listing the directory " + dirPath + " for stream " + siddhiAppName +
+                    ":" + streamID + ". The restored offsets of the files which are no longer in it are " +
+                    "dropped when it is listed again. ", e);
+        }
+    }
+}
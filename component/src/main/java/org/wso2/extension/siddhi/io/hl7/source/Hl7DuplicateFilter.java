@@ -0,0 +1,231 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@code Hl7DuplicateFilter} remembers the keys of the recently received messages for a time window. The keys are
+ * kept as 64 bit fingerprints in an open addressing hash table of primitive longs, and a ring buffer holds the
+ * fingerprints in their arrival order together with the arrival times, so that the oldest entries are evicted when
+ * they expire or when the filter is full. The keys of the messages which are being emitted are reserved, so that
+ * a message retransmitted in the meantime is recognized as a duplicate as well.
+ */
+public class Hl7DuplicateFilter {
+
+    private static final long EMPTY = 0L;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private long windowMillis;
+    private long[] table;
+    private int mask;
+    private long[] ringKeys;
+    private long[] ringTimes;
+    private int head;
+    private int size;
+    private Set<Long> pending = new HashSet<>();
+
+    /**
+     * Creates the filter.
+     *
+     * @param maxEntries   - maximum number of keys remembered, the oldest key is forgotten once this is reached
+     * @param windowMillis - time (in milliseconds) for which a key is remembered
+     */
+    public Hl7DuplicateFilter(int maxEntries, long windowMillis) {
+
+        this.windowMillis = windowMillis;
+        int tableSize = Integer.highestOneBit(Math.max(maxEntries, 1) * 2 - 1) << 1;
+        this.table = new long[tableSize];
+        this.mask = tableSize - 1;
+        this.ringKeys = new long[maxEntries];
+        this.ringTimes = new long[maxEntries];
+    }
+
+    /**
+     * Reserves the key of a message which is about to be emitted, unless the key was recorded within the time
+     * window or is reserved by a message which is still being emitted, e.g. the original of a message retransmitted
+     * because its acknowledgement was late. The reservation should be completed or abandoned.
+     *
+     * @param key         - key of the message
+     * @param currentTime - current time in milliseconds
+     * @return true if the key is reserved, false if the message is a duplicate
+     */
+    public synchronized boolean tryAcquire(String key, long currentTime) {
+
+        expire(currentTime);
+        long fingerprint = fingerprint(key);
+        return !contains(fingerprint) && pending.add(fingerprint);
+    }
+
+    /**
+     * Records the reserved key of a message which was emitted.
+     *
+     * @param key         - key of the message
+     * @param currentTime - current time in milliseconds
+     */
+    public synchronized void complete(String key, long currentTime) {
+
+        long fingerprint = fingerprint(key);
+        pending.remove(fingerprint);
+        expire(currentTime);
+        add(fingerprint, currentTime);
+    }
+
+    /**
+     * Releases the reserved key of a message which could not be emitted, so that it is accepted when it is sent
+     * again.
+     *
+     * @param key - key of the message
+     */
+    public synchronized void abandon(String key) {
+
+        pending.remove(fingerprint(key));
+    }
+
+    public synchronized int size() {
+
+        return size;
+    }
+
+    /**
+     * Returns the recorded fingerprints and their arrival times, oldest first.
+     *
+     * @return an array holding the fingerprints and an array holding the times
+     */
+    public synchronized long[][] snapshot() {
+
+        long[] keys = new long[size];
+        long[] times = new long[size];
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % ringKeys.length;
+            keys[i] = ringKeys[index];
+            times[i] = ringTimes[index];
+        }
+        return new long[][]{keys, times};
+    }
+
+    /**
+     * Replaces the recorded fingerprints with the ones returned by {@link #snapshot()}.
+     *
+     * @param keys  - fingerprints, oldest first
+     * @param times - arrival times of the fingerprints
+     */
+    public synchronized void restore(long[] keys, long[] times) {
+
+        Arrays.fill(table, EMPTY);
+        head = 0;
+        size = 0;
+        for (int i = 0; i < keys.length; i++) {
+            add(keys[i], times[i]);
+        }
+    }
+
+    private void add(long fingerprint, long time) {
+
+        if (ringKeys.length == 0 || contains(fingerprint)) {
+            return;
+        }
+        if (size == ringKeys.length) {
+            evictOldest();
+        }
+        int index = mix(fingerprint) & mask;
+        while (table[index] != EMPTY) {
+            index = (index + 1) & mask;
+        }
+        table[index] = fingerprint;
+        int tail = (head + size) % ringKeys.length;
+        ringKeys[tail] = fingerprint;
+        ringTimes[tail] = time;
+        size++;
+    }
+
+    private void expire(long currentTime) {
+
+        while (size > 0 && currentTime - ringTimes[head] >= windowMillis) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+
+        remove(ringKeys[head]);
+        head = (head + 1) % ringKeys.length;
+        size--;
+    }
+
+    private boolean contains(long fingerprint) {
+
+        int index = mix(fingerprint) & mask;
+        while (table[index] != EMPTY) {
+            if (table[index] == fingerprint) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    private void remove(long fingerprint) {
+
+        int index = mix(fingerprint) & mask;
+        while (table[index] != fingerprint) {
+            if (table[index] == EMPTY) {
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        // backward shift deletion, so that the probe sequences of the following entries stay unbroken
+        int gap = index;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (table[next] == EMPTY) {
+                break;
+            }
+            int home = mix(table[next]) & mask;
+            boolean reachable = gap <= next ? (gap < home && home <= next) : (gap < home || home <= next);
+            if (!reachable) {
+                table[gap] = table[next];
+                gap = next;
+            }
+        }
+        table[gap] = EMPTY;
+    }
+
+    private static int mix(long fingerprint) {
+
+        long hash = fingerprint * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static long fingerprint(String key) {
+
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < key.length(); i++) {
+            char value = key.charAt(i);
+            hash ^= value & 0xff;
+            hash *= FNV_PRIME;
+            hash ^= value >>> 8;
+            hash *= FNV_PRIME;
+        }
+        return hash == EMPTY ? 1L : hash;
+    }
+}
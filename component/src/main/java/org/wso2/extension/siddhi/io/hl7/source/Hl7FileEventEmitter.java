@@ -0,0 +1,117 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
+import org.apache.log4j.Logger;
+import org.wso2.siddhi.core.stream.input.source.SourceEventListener;
+
+import java.util.Locale;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@code Hl7FileEventEmitter} emits the ER7 messages read from files in the same format as the hl7 source, and
+ * blocks the reading threads while the source is paused.
+ */
+public class Hl7FileEventEmitter {
+
+    private static final Logger log = Logger.getLogger(Hl7FileEventEmitter.class);
+    private SourceEventListener sourceEventListener;
+    private boolean er7Encoding;
+    private HapiContext hapiContext;
+    private String siddhiAppName;
+    private String streamID;
+    private volatile boolean paused;
+    private ReentrantLock lock = new ReentrantLock();
+    private Condition condition = lock.newCondition();
+
+    public Hl7FileEventEmitter(SourceEventListener sourceEventListener, String hl7Encoding, String siddhiAppName,
+                               String streamID) {
+
+        this.sourceEventListener = sourceEventListener;
+        this.er7Encoding = hl7Encoding.toUpperCase(Locale.ENGLISH).equals("ER7");
+        this.hapiContext = new DefaultHapiContext();
+        this.siddhiAppName = siddhiAppName;
+        this.streamID = streamID;
+    }
+
+    /**
+     * Emits the message, waiting first if the source is paused. Messages which cannot be parsed into xml are
+     * logged and dropped.
+     *
+     * @param er7Message - message read from the file
+     * @param fileName   - name of the file, used for logging
+     * @return false if the thread was interrupted while paused and the message was not emitted
+     */
+    public boolean emit(String er7Message, String fileName) {
+
+        if (!waitIfPaused()) {
+            return false;
+        }
+        if (er7Encoding) {
+            sourceEventListener.onEvent("payload: " + "'" + er7Message + "'", null);
+        } else {
+            try {
+                String xmlMessage = hapiContext.getXMLParser().encode(hapiContext.getPipeParser().parse(er7Message));
+                sourceEventListener.onEvent(xmlMessage, null);
+            } catch (HL7Exception e) {
+                log.error("Dropping the message which could not be parsed from the file " + fileName + " for " +
+                        "stream " + siddhiAppName + ":" + streamID + ". " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private boolean waitIfPaused() {
+
+        if (paused) { //spurious wakeup condition is deliberately traded off for performance
+            lock.lock();
+            try {
+                while (paused) {
+                    condition.await();
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+        return true;
+    }
+
+    public void pause() {
+
+        paused = true;
+    }
+
+    public void resume() {
+
+        paused = false;
+        try {
+            lock.lock();
+            condition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import org.apache.log4j.Logger;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Constants;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Utils;
+import org.wso2.siddhi.annotation.Example;
+import org.wso2.siddhi.annotation.Extension;
+import org.wso2.siddhi.annotation.Parameter;
+import org.wso2.siddhi.annotation.util.DataType;
+import org.wso2.siddhi.core.config.SiddhiAppContext;
+import org.wso2.siddhi.core.exception.ConnectionUnavailableException;
+import org.wso2.siddhi.core.stream.input.source.Source;
+import org.wso2.siddhi.core.stream.input.source.SourceEventListener;
+import org.wso2.siddhi.core.util.config.ConfigReader;
+import org.wso2.siddhi.core.util.transport.OptionHolder;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hl7 batch file Source Implementation
+ */
+@Extension(
+        name = "hl7file",
+        namespace = "source",
+        description = "The hl7file source reads the hl7 messages of a ER7 encoded file, such as a FHS/BHS batch " +
+                "file. The file is memory mapped and split into messages at the MSH and batch segments, and each " +
+                "message is emitted in the same way as the hl7 source. The byte offset of the next message is " +
+                "kept in the state of the source, so that reading resumes from that message when a snapshot is " +
+                "restored. ",
+        parameters = {
+                @Parameter(name = "file.path",
+                        description = "The path of the file to read. ",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.encoding",
+                        description = "Encoding method of the emitted hl7. This can be er7 or xml. If xml is used, " +
+                                "each message is parsed and encoded in xml. ",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "charset",
+                        description = "Character encoding of the file. This should be ASCII compatible. ",
+                        optional = true, defaultValue = "UTF-8",
+                        type = {DataType.STRING})
+        },
+        examples = {
+                @Example(
+                        syntax = "@App:name('Hl7FileTestApp') \n" +
+                                "@source(type = 'hl7file', \n" +
+                                "file.path = '/data/backload/adt-2018.hl7', \n" +
+                                "hl7.encoding = 'er7', \n" +
+                                "@map(type = 'text'))\n" +
+                                "define stream hl7stream(payload string); \n"
+                        ,
+                        description = "This reads the HL7 messages of the batch file and emits them using text " +
+                                "mapping. \n "
+                )
+        }
+)
+public class Hl7FileSource extends Source {
+
+    private static final Logger log = Logger.getLogger(Hl7FileSource.class);
+    private SourceEventListener sourceEventListener;
+    private String siddhiAppName;
+    private String streamID;
+    private Path filePath;
+    private Charset charset;
+    private Hl7FileEventEmitter emitter;
+    private volatile long offset;
+    private volatile boolean connected;
+    private Hl7BatchFileReader reader;
+    private Thread readerThread;
+
+    @Override
+    public void init(SourceEventListener sourceEventListener, OptionHolder optionHolder,
+                     String[] requestedTransportPropertyNames, ConfigReader configReader,
+                     SiddhiAppContext siddhiAppContext) {
+
+        this.sourceEventListener = sourceEventListener;
+        this.streamID = sourceEventListener.getStreamDefinition().getId();
+        this.siddhiAppName = siddhiAppContext.getName();
+        this.filePath = Paths.get(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_FILE_PATH));
+        String hl7Encoding = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_ENCODING);
+        Hl7Utils.validateEncodingType(hl7Encoding, Hl7Constants.DEFAULT_ACK_HL7_ENCODING, siddhiAppName, streamID);
+        try {
+            this.charset = Charset.forName(optionHolder.validateAndGetStaticValue(Hl7Constants.CHARSET_NAME,
+                    Hl7Constants.DEFAULT_HL7_CHARSET));
+        } catch (IllegalArgumentException e) {
+            throw new SiddhiAppValidationException("Invalid charset defined in " + siddhiAppName + ":" + streamID +
+                    ". ", e);
+        }
+        this.emitter = new Hl7FileEventEmitter(sourceEventListener, hl7Encoding, siddhiAppName, streamID);
+    }
+
+    @Override
+    public Class[] getOutputEventClasses() {
+
+        return new Class[]{String.class};
+    }
+
+    @Override
+    public void connect(ConnectionCallback connectionCallback) throws ConnectionUnavailableException {
+
+        if (!Files.isReadable(filePath)) {
+            throw new ConnectionUnavailableException("Failed to read the file " + filePath + " defined in " +
+                    siddhiAppName + ":" + streamID + ". ");
+        }
+        connected = true;
+        startReader();
+    }
+
+    private synchronized void startReader() {
+
+        final Hl7BatchFileReader fileReader = new Hl7BatchFileReader(filePath, charset);
+        final long startOffset = offset;
+        reader = fileReader;
+        readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                try {
+                    long endOffset = fileReader.read(startOffset, new Hl7BatchFileReader.MessageHandler() {
+                        @Override
+                        public void onMessage(String message, long nextOffset) {
+
+                            if (emitter.emit(message, filePath.toString())) {
+                                offset = nextOffset;
+                            }
+                        }
+                    });
+                    if (!fileReader.isRunning()) {
+                        return;
+                    }
+                    offset = endOffset;
+                    log.info("Completed reading the file " + filePath + " for stream " + siddhiAppName + ":" +
+                            streamID + " at offset " + endOffset + ". ");
+                } catch (IOException e) {
+                    if (!fileReader.isRunning()) {
+                        return;
+                    }
+                    log.error("Error occurred while reading the file " + filePath + " for stream " + siddhiAppName +
+                            ":" + streamID + ". ", e);
+                }
+            }
+        }, "Hl7FileSource-" + siddhiAppName + "-" + streamID);
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    private synchronized void stopReader() {
+
+        if (reader != null) {
+            reader.stop();
+            readerThread.interrupt();
+            try {
+                readerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            reader = null;
+            readerThread = null;
+        }
+    }
+
+    @Override
+    public void disconnect() {
+
+        connected = false;
+        stopReader();
+    }
+
+    @Override
+    public void destroy() {
+
+    }
+
+    @Override
+    public void pause() {
+
+        emitter.pause();
+    }
+
+    @Override
+    public void resume() {
+
+        emitter.resume();
+    }
+
+    @Override
+    public Map<String, Object> currentState() {
+
+        Map<String, Object> state = new HashMap<>();
+        state.put(Hl7Constants.STATE_FILE_OFFSET, offset);
+        return state;
+    }
+
+    @Override
+    public void restoreState(Map<String, Object> map) {
+
+        if (map == null || map.get(Hl7Constants.STATE_FILE_OFFSET) == null) {
+            return;
+        }
+        stopReader();
+        offset = (Long) map.get(Hl7Constants.STATE_FILE_OFFSET);
+        if (connected) {
+            startReader();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import ca.uhn.hl7v2.llp.HL7Reader;
+import ca.uhn.hl7v2.llp.HL7Writer;
+import ca.uhn.hl7v2.llp.LLPException;
+import ca.uhn.hl7v2.llp.LowerLayerProtocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@code Hl7FilteringLowerLayerProtocol} wraps the lower layer protocol of a listener so that the frames of the
+ * message types which are not processed by the sources of the port are dropped as soon as they are read, before the
+ * server parses them. The reader of each connection replaces a dropped frame with its MSH segment, marked as
+ * dropped, which the listener acknowledges without delivering it to a source. Hence the acknowledgement is written
+ * by the connection itself, in the order of the frames, and only the header of a dropped frame is parsed.
+ */
+public class Hl7FilteringLowerLayerProtocol extends LowerLayerProtocol {
+
+    private LowerLayerProtocol protocol;
+    private int port;
+
+    /**
+     * Creates the protocol.
+     *
+     * @param protocol - protocol reading and writing the frames
+     * @param port     - port of the listener, whose sources decide which frames are dropped
+     */
+    public Hl7FilteringLowerLayerProtocol(LowerLayerProtocol protocol, int port) {
+
+        this.protocol = protocol;
+        this.port = port;
+    }
+
+    @Override
+    public HL7Reader getReader(InputStream in) throws LLPException {
+
+        return new FilteringReader(protocol.getReader(in), port);
+    }
+
+    @Override
+    public HL7Writer getWriter(OutputStream out) throws LLPException {
+
+        return protocol.getWriter(out);
+    }
+
+    private static class FilteringReader implements HL7Reader {
+
+        private HL7Reader reader;
+        private int port;
+
+        private FilteringReader(HL7Reader reader, int port) {
+
+            this.reader = reader;
+            this.port = port;
+        }
+
+        /**
+         * Returns the next frame, or the marked header of the frame if it is dropped.
+         */
+        @Override
+        public String getMessage() throws LLPException, IOException {
+
+            return Hl7ListenerRegistry.filterFrame(port, reader.getMessage());
+        }
+
+        @Override
+        public void setInputStream(InputStream in) throws IOException {
+
+            reader.setInputStream(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.hoh.llp.Hl7OverHttpLowerLayerProtocol;
+import ca.uhn.hl7v2.hoh.util.ServerRoleEnum;
+import ca.uhn.hl7v2.llp.HL7Reader;
+import ca.uhn.hl7v2.llp.HL7Writer;
+import ca.uhn.hl7v2.llp.LLPException;
+import ca.uhn.hl7v2.llp.LowerLayerProtocol;
+import org.apache.log4j.Logger;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Constants;
+import org.wso2.siddhi.annotation.Example;
+import org.wso2.siddhi.annotation.Extension;
+import org.wso2.siddhi.annotation.Parameter;
+import org.wso2.siddhi.annotation.util.DataType;
+import org.wso2.siddhi.core.config.SiddhiAppContext;
+import org.wso2.siddhi.core.stream.input.source.SourceEventListener;
+import org.wso2.siddhi.core.util.config.ConfigReader;
+import org.wso2.siddhi.core.util.transport.OptionHolder;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hl7 over HTTP Source Implementation
+ */
+@Extension(
+        name = "hl7http",
+        namespace = "source",
+        description = "The hl7http source consumes the hl7 messages sent using the HL7 over HTTP protocol. Each " +
+                "message is received as the body of a HTTP POST request and the acknowledgement is sent as the " +
+                "response. Persistent (keep-alive) connections are kept open and served by the same worker. The " +
+                "messages are processed in the same way as the messages received by the hl7 source, including the " +
+                "transport properties requested by the mapping. ",
+        parameters = {
+                @Parameter(name = "port",
+                        description = "The HTTP port on which the HL7 over HTTP requests are received. ",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "hl7.encoding",
+                        description = "Encoding method of received hl7. This can be er7 or xml. User should define " +
+                                "hl7 encoding type according to their mapping. \n" +
+                                "e.g., \n" +
+                                "If text mapping is used, then the hl7 encoding type should be er7. \n" +
+                                "If xml mapping is used, then the hl7 encoding type should be xml. ",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.ack.encoding",
+                        description = "Encoding method of hl7 to log the acknowledgment message. This parameter " +
+                                "can be specified as xml if required. Otherwise, system uses er7 format as default. ",
+                        optional = true, defaultValue = "ER7",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.http.worker.pool.size",
+                        description = "The maximum number of worker threads. Each open connection is served by one " +
+                                "worker, and two workers are used by the server itself. A connection accepted while " +
+                                "all the workers are busy is closed without reading from it, and the listener " +
+                                "keeps serving the open connections. ",
+                        optional = true, defaultValue = "20",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "tls.enabled",
+                        description = "This parameter specifies whether the requests are received over HTTPS. When " +
+                                "this parameter is set to `true`, the `tls.keystore.path` and " +
+                                "`tls.keystore.passphrase` parameters are initialized. ",
+                        optional = true, defaultValue = "false",
+                        type = {DataType.BOOL}),
+
+                @Parameter(name = "tls.keystore.filepath",
+                        description = "The file path to the location of the keystore of the server. A custom " +
+                                "keystore can be specified if required. If a custom keystore is not specified, " +
+                                "then the system uses the default `wso2carbon` keystore in the " +
+                                "`${carbon.home}/resources/security` directory. ",
+                        optional = true, defaultValue = "${carbon.home}/resources/security/wso2carbon.jks",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "tls.keystore.type",
+                        description = "The type for the keystore. A custom keystore type can be specified " +
+                                "if required. If no custom keystore type is specified, then the system uses " +
+                                "`JKS` as the default keystore type.",
+                        optional = true, defaultValue = "JKS",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "tls.keystore.passphrase",
+                        description = "The passphrase for the keystore. A custom passphrase can be specified " +
+                                "if required. If no custom passphrase is specified, then the system uses " +
+                                "`wso2carbon` as the default passphrase.",
+                        optional = true, defaultValue = "wso2carbon",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.conformance.profile.used",
+                        description = "This parameter specifies whether a `conformance profile` is used to validate " +
+                                "the incoming message or not. When the parameter is set to `true`, the " +
+                                "hl7.conformance.profile.file.name should be initialized by user. ",
+                        optional = true, defaultValue = "false",
+                        type = {DataType.BOOL}),
+
+                @Parameter(name = "hl7.conformance.profile.file.path",
+                        description = "Path conformance profile file that is used to validate the incoming " +
+                                "message. User should give the file path, if conformance profile is used to validate " +
+                                "the message. ",
+                        optional = true, defaultValue = "Empty",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.dedupe.window.ms",
+                        description = "The time (in milliseconds) for which the MSH-3, MSH-4 and MSH-10 of each " +
+                                "emitted message are remembered. A message received again within this time is " +
+                                "acknowledged but not emitted. Duplicates are emitted when this is 0. ",
+                        optional = true, defaultValue = "0",
+                        type = {DataType.LONG}),
+
+                @Parameter(name = "hl7.dedupe.max.entries",
+                        description = "The maximum number of messages remembered for duplicate suppression. ",
+                        optional = true, defaultValue = "100000",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "hl7.journal.dir",
+                        description = "Enables the durable mode, in which each received message is forced to a " +
+                                "write-ahead journal in this directory before it is acknowledged, and the " +
+                                "messages received after a restored snapshot are emitted again. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.journal.segment.size",
+                        description = "The size (in bytes) of a journal segment file. ",
+                        optional = true, defaultValue = "67108864",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "hl7.sequence.file",
+                        description = "Enables the HL7 sequence number protocol, keeping the next sequence number " +
+                                "(MSH-13) expected from each sender in this memory mapped file, in the same way as " +
+                                "the hl7 source. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.sequence.max.senders",
+                        description = "The maximum number of senders whose sequence numbers are kept. ",
+                        optional = true, defaultValue = "1024",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "hl7.route.message.type",
+                        description = "Comma separated message types (MSH-9.1) received by this source, when " +
+                                "several hl7http sources use the same port, in the same way as the hl7 source. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.route.trigger.event",
+                        description = "Comma separated trigger events (MSH-9.2) received by this source. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.route.version",
+                        description = "Comma separated versions (MSH-12) received by this source. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.route.sending.application",
+                        description = "Comma separated sending applications (MSH-3.1) received by this source. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.route.receiving.application",
+                        description = "Comma separated receiving applications (MSH-5.1) received by this source. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.route.receiving.facility",
+                        description = "Comma separated receiving facilities (MSH-6.1) received by this source. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.include.types",
+                        description = "Comma separated message types, e.g. `QRY` or `ADT^A31`, processed by this " +
+                                "source, in the same way as the hl7 source. The other messages are acknowledged " +
+                                "and dropped once they are parsed. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.exclude.types",
+                        description = "Comma separated message types which are acknowledged and dropped by this " +
+                                "source. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.lazy.parsing",
+                        description = "When this is `true`, only the MSH segment of a received er7 message is " +
+                                "parsed unless the complete message is needed, in the same way as the hl7 source. ",
+                        optional = true, defaultValue = "false",
+                        type = {DataType.BOOL}),
+
+                @Parameter(name = "hl7.model",
+                        description = "The model classes used to parse the messages, which can be `default`, " +
+                                "`canonical` or `generic`, in the same way as the hl7 source. ",
+                        optional = true, defaultValue = "default",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.model.version",
+                        description = "The hl7 version whose structures are used by the canonical model. ",
+                        optional = true, defaultValue = "2.5.1",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.allowed.versions",
+                        description = "Comma separated hl7 versions (MSH-12), e.g. `2.3,2.5.1`, of the " +
+                                "messages accepted by this source. The version of a received message is " +
+                                "checked before it is parsed, and a message of another version is rejected. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.warmup.templates",
+                        description = "Comma separated built-in sample messages, `ADT`, `ORU` and `ORM`, which " +
+                                "are parsed and encoded before the port is opened, in the same way as the hl7 source. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.warmup.files",
+                        description = "Comma separated paths of files, each containing an er7 or xml encoded " +
+                                "message, which are parsed and encoded with the built-in samples. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.warmup.iterations",
+                        description = "Number of times each warm-up message is parsed and encoded. ",
+                        optional = true, defaultValue = "100",
+                        type = {DataType.INT})
+        },
+        examples = {
+                @Example(
+                        syntax = "@App:name('Hl7HttpTestAppForTextMapping') \n" +
+                                "@source(type = 'hl7http', \n" +
+                                "port = '8080', \n" +
+                                "hl7.encoding = 'er7', \n" +
+                                "hl7.http.worker.pool.size = '50', \n" +
+                                "@map(type = 'text'))\n" +
+                                "define stream hl7stream(payload string); \n"
+                        ,
+                        description = "This receives the HL7 messages sent over HTTP on port 8080 and returns the " +
+                                "acknowledgement as the HTTP response, serving up to 48 connections in parallel. \n "
+                )
+        }
+)
+public class Hl7HttpSource extends Hl7Source {
+
+    private static final Logger log = Logger.getLogger(Hl7HttpSource.class);
+    private int workerPoolSize;
+    private String threadNamePrefix;
+    private ThreadPoolExecutor workerPool;
+
+    @Override
+    public void init(SourceEventListener sourceEventListener, OptionHolder optionHolder,
+                     String[] requestedTransportPropertyNames, ConfigReader configReader,
+                     SiddhiAppContext siddhiAppContext) {
+
+        super.init(sourceEventListener, optionHolder, requestedTransportPropertyNames, configReader,
+                siddhiAppContext);
+        String streamID = sourceEventListener.getStreamDefinition().getId();
+        this.threadNamePrefix = "Hl7HttpSource-" + siddhiAppContext.getName() + "-" + streamID;
+        this.workerPoolSize = Integer.parseInt(optionHolder.validateAndGetStaticValue(
+                Hl7Constants.HL7_HTTP_WORKER_POOL_SIZE, Hl7Constants.DEFAULT_HL7_HTTP_WORKER_POOL_SIZE));
+        if (workerPoolSize < 3) {
+            throw new SiddhiAppValidationException("Invalid hl7.http.worker.pool.size defined in " +
+                    siddhiAppContext.getName() + ":" + streamID + ". The pool size should be at least 3. ");
+        }
+    }
+
+    /**
+     * Reads the messages from HTTP requests and writes the acknowledgements as HTTP responses. The request body
+     * is decoded using the charset of its content type. The server and its connections run on a bounded pool, and
+     * a connection which would exceed the pool is closed when it is accepted, before a worker is requested for it.
+     */
+    @Override
+    protected void configureTransport(HapiContext hapiContext) {
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        workerPool = new ThreadPoolExecutor(0, workerPoolSize, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, threadNamePrefix + "-worker-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        hapiContext.setExecutorService(workerPool);
+        hapiContext.setLowerLayerProtocol(new BoundedLowerLayerProtocol(
+                new Hl7OverHttpLowerLayerProtocol(ServerRoleEnum.SERVER), workerPool, threadNamePrefix));
+    }
+
+    @Override
+    protected void releaseTransport() {
+
+        if (workerPool != null) {
+            workerPool.shutdown();
+            try {
+                if (!workerPool.awaitTermination(5, TimeUnit.SECONDS)) {
+                    log.warn("Stopping the workers of " + threadNamePrefix + " which did not complete within " +
+                            "5 seconds. ");
+                    workerPool.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                workerPool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            workerPool = null;
+        }
+    }
+
+    /**
+     * Closes the connections accepted while all the workers of the pool are busy. The server creates the reader
+     * of a connection before it requests a worker to read from it, and only the server requests workers after it
+     * starts, hence a connection accepted while a worker is free always gets it.
+     */
+    private static class BoundedLowerLayerProtocol extends LowerLayerProtocol {
+
+        private LowerLayerProtocol protocol;
+        private ThreadPoolExecutor workerPool;
+        private String threadNamePrefix;
+
+        private BoundedLowerLayerProtocol(LowerLayerProtocol protocol, ThreadPoolExecutor workerPool,
+                                          String threadNamePrefix) {
+
+            this.protocol = protocol;
+            this.workerPool = workerPool;
+            this.threadNamePrefix = threadNamePrefix;
+        }
+
+        @Override
+        public HL7Reader getReader(InputStream in) throws LLPException {
+
+            if (workerPool.getActiveCount() >= workerPool.getMaximumPoolSize()) {
+                log.warn("Closing a connection accepted by " + threadNamePrefix + " as all the " +
+                        workerPool.getMaximumPoolSize() + " workers are busy. ");
+                try {
+                    // closing the stream of a socket closes the socket
+                    in.close();
+                } catch (IOException e) {
+                    log.debug("Error while closing a connection accepted by " + threadNamePrefix + ". ", e);
+                }
+                throw new LLPException("All the workers of " + threadNamePrefix + " are busy. ");
+            }
+            return protocol.getReader(in);
+        }
+
+        @Override
+        public HL7Writer getWriter(OutputStream out) throws LLPException {
+
+            return protocol.getWriter(out);
+        }
+    }
+}
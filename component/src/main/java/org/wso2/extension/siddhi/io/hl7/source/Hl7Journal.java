@@ -0,0 +1,347 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * {@code Hl7Journal} is a write-ahead journal of the received messages. Records are appended to memory mapped
+ * segment files of a fixed size, each record holding the length, the sequence number and the CRC32 of the message
+ * followed by the UTF-8 bytes of the message. An append returns once the record is forced to the storage device,
+ * and the threads appending concurrently share a single force (group commit): the first waiting thread forces the
+ * segment for all the records written so far, and the other threads find their records already durable.
+ * A segment is deleted once all its records are consumed. On open, the records of the existing segments are
+ * verified and the journal continues after the last valid record.
+ */
+public class Hl7Journal {
+
+    private static final Logger log = Logger.getLogger(Hl7Journal.class);
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int END_MARKER_SIZE = 4;
+    private Path dirPath;
+    private int segmentSize;
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+    private final Object emitLock = new Object();
+    private TreeMap<Long, Path> segments = new TreeMap<>();
+    private MappedByteBuffer activeSegment;
+    private long nextSequence = 1;
+    private long writtenSequence;
+    private volatile long durableSequence;
+    private long emittedWatermark;
+    private PriorityQueue<Long> emittedOutOfOrder = new PriorityQueue<>();
+    private boolean closed;
+
+    /**
+     * Creates the journal, which should be opened before appending.
+     *
+     * @param dirPath     - directory of the segment files
+     * @param segmentSize - size (in bytes) of a segment file, the largest message should fit in a segment
+     */
+    public Hl7Journal(Path dirPath, int segmentSize) {
+
+        this.dirPath = dirPath;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Opens the existing segments and positions the journal after the last valid record. The records found in
+     * the journal are considered emitted.
+     */
+    public void open() throws IOException {
+
+        synchronized (writeLock) {
+            Files.createDirectories(dirPath);
+            try (DirectoryStream<Path> segmentFiles = Files.newDirectoryStream(dirPath,
+                    SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+                for (Path segmentFile : segmentFiles) {
+                    String fileName = segmentFile.getFileName().toString();
+                    try {
+                        segments.put(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+                                fileName.length() - SEGMENT_SUFFIX.length())), segmentFile);
+                    } catch (NumberFormatException e) {
+                        log.warn("Ignoring the file " + segmentFile + " which is not a journal segment. ");
+                    }
+                }
+            }
+            long lastSequence = 0;
+            Iterator<Map.Entry<Long, Path>> iterator = segments.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Path> segment = iterator.next();
+                boolean lastSegment = !iterator.hasNext();
+                MappedByteBuffer buffer = map(segment.getValue(), lastSegment);
+                long segmentLastSequence = scan(buffer, segment.getKey(), 0, Long.MAX_VALUE, null);
+                if (segmentLastSequence >= segment.getKey()) {
+                    lastSequence = segmentLastSequence;
+                }
+                if (lastSegment) {
+                    activeSegment = buffer;
+                }
+            }
+            nextSequence = lastSequence + 1;
+            writtenSequence = lastSequence;
+            durableSequence = lastSequence;
+            synchronized (emitLock) {
+                emittedWatermark = lastSequence;
+                emittedOutOfOrder.clear();
+            }
+            closed = false;
+        }
+    }
+
+    /**
+     * Appends the message and waits until it is forced to the storage device.
+     *
+     * @param message - ER7 encoded message
+     * @return sequence number of the record
+     * @throws IOException if the record cannot be written
+     */
+    public long append(String message) throws IOException {
+
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        int recordSize = RECORD_HEADER_SIZE + bytes.length;
+        if (recordSize + END_MARKER_SIZE > segmentSize) {
+            throw new IOException("The message of " + bytes.length + " bytes does not fit in a journal segment " +
+                    "of " + segmentSize + " bytes. ");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        long sequence;
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IOException("The journal " + dirPath + " is closed. ");
+            }
+            if (activeSegment == null || activeSegment.remaining() < recordSize + END_MARKER_SIZE) {
+                rollSegment();
+            }
+            sequence = nextSequence++;
+            activeSegment.putInt(bytes.length).putLong(sequence).putInt((int) crc.getValue()).put(bytes);
+            activeSegment.putInt(activeSegment.position(), 0);
+            writtenSequence = sequence;
+        }
+        sync(sequence);
+        return sequence;
+    }
+
+    /**
+     * Waits until the record of the given sequence number is durable. The thread which finds its record not yet
+     * durable forces the segment for every record written until then.
+     */
+    private void sync(long sequence) {
+
+        synchronized (syncLock) {
+            if (durableSequence >= sequence) {
+                return;
+            }
+            MappedByteBuffer segment;
+            long target;
+            synchronized (writeLock) {
+                segment = activeSegment;
+                target = writtenSequence;
+            }
+            if (segment != null) {
+                segment.force();
+                durableSequence = target;
+            }
+        }
+    }
+
+    private void rollSegment() throws IOException {
+
+        if (activeSegment != null) {
+            // records of the previous segment are made durable before they leave the reach of the group commit
+            activeSegment.force();
+        }
+        Path segmentFile = dirPath.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSequence,
+                SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            activeSegment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segments.put(nextSequence, segmentFile);
+    }
+
+    /**
+     * Marks the record as emitted. The emitted watermark advances once all the preceding records are emitted.
+     *
+     * @param sequence - sequence number of the record
+     */
+    public void markEmitted(long sequence) {
+
+        synchronized (emitLock) {
+            if (sequence != emittedWatermark + 1) {
+                emittedOutOfOrder.add(sequence);
+                return;
+            }
+            emittedWatermark = sequence;
+            while (!emittedOutOfOrder.isEmpty() && emittedOutOfOrder.peek() == emittedWatermark + 1) {
+                emittedWatermark = emittedOutOfOrder.poll();
+            }
+        }
+    }
+
+    /**
+     * Returns the sequence number up to which all the records are emitted.
+     */
+    public long getEmittedWatermark() {
+
+        synchronized (emitLock) {
+            return emittedWatermark;
+        }
+    }
+
+    /**
+     * Reads the records within the given range of sequence numbers, in order.
+     *
+     * @param afterSequence - records with greater sequence numbers are read
+     * @param upToSequence  - last sequence number read
+     * @param handler       - handler notified for each record
+     */
+    public void replay(long afterSequence, long upToSequence, RecordHandler handler) throws IOException {
+
+        List<Map.Entry<Long, Path>> segmentsToRead;
+        synchronized (writeLock) {
+            segmentsToRead = new ArrayList<>(segments.entrySet());
+        }
+        for (int i = 0; i < segmentsToRead.size(); i++) {
+            Map.Entry<Long, Path> segment = segmentsToRead.get(i);
+            if (segment.getKey() > upToSequence) {
+                break;
+            }
+            if (i + 1 < segmentsToRead.size() && segmentsToRead.get(i + 1).getKey() <= afterSequence + 1) {
+                continue;
+            }
+            scan(map(segment.getValue(), false), segment.getKey(), afterSequence, upToSequence, handler);
+        }
+    }
+
+    /**
+     * Deletes the segments whose records are all consumed. The segment being written is kept.
+     *
+     * @param consumedSequence - sequence number up to which the records are consumed
+     */
+    public void truncate(long consumedSequence) throws IOException {
+
+        synchronized (writeLock) {
+            while (segments.size() > 1) {
+                Map.Entry<Long, Path> first = segments.firstEntry();
+                Long nextFirstSequence = segments.higherKey(first.getKey());
+                if (nextFirstSequence - 1 > consumedSequence) {
+                    return;
+                }
+                Files.deleteIfExists(first.getValue());
+                segments.remove(first.getKey());
+                if (log.isDebugEnabled()) {
+                    log.debug("Deleted the consumed journal segment " + first.getValue() + ". ");
+                }
+            }
+        }
+    }
+
+    public void close() {
+
+        synchronized (writeLock) {
+            if (activeSegment != null) {
+                activeSegment.force();
+                activeSegment = null;
+            }
+            segments.clear();
+            closed = true;
+        }
+    }
+
+    private MappedByteBuffer map(Path segmentFile, boolean writable) throws IOException {
+
+        if (writable) {
+            try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Reads the valid records of a segment, leaving the position of the buffer after the last valid record.
+     *
+     * @return sequence number of the last valid record, or one less than the first sequence number of the
+     * segment if the segment is empty
+     */
+    private long scan(ByteBuffer buffer, long firstSequence, long afterSequence, long upToSequence,
+                      RecordHandler handler) {
+
+        long expectedSequence = firstSequence;
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            long sequence = buffer.getLong(start + 4);
+            if (length <= 0 || length > buffer.remaining() - RECORD_HEADER_SIZE || sequence != expectedSequence) {
+                break;
+            }
+            byte[] bytes = new byte[length];
+            buffer.position(start + RECORD_HEADER_SIZE);
+            buffer.get(bytes);
+            crc.reset();
+            crc.update(bytes);
+            if ((int) crc.getValue() != buffer.getInt(start + 12)) {
+                buffer.position(start);
+                log.warn("Ignoring the corrupted journal records from sequence " + sequence + " onwards. ");
+                break;
+            }
+            if (handler != null && sequence > afterSequence) {
+                if (sequence > upToSequence) {
+                    break;
+                }
+                handler.onRecord(sequence, new String(bytes, StandardCharsets.UTF_8));
+            }
+            expectedSequence++;
+        }
+        return expectedSequence - 1;
+    }
+
+    /**
+     * Handles the records read from the journal.
+     */
+    public interface RecordHandler {
+
+        void onRecord(long sequence, String message);
+    }
+}
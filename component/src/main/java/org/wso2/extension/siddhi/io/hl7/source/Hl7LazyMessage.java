@@ -0,0 +1,137 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.Parser;
+
+import java.util.Arrays;
+
+/**
+ * {@code Hl7LazyMessage} is a received ER7 encoded message of which only the MSH segment is parsed into a HAPI
+ * model. The segment boundaries are indexed when the message is received, so single segments can be read as text,
+ * and the complete HAPI model is only built when it is needed, e.g. for conformance profile validation or xml
+ * encoding. The header model is enough to route and acknowledge the message.
+ */
+public class Hl7LazyMessage {
+
+    private String frame;
+    private int[] segmentStarts;
+    private int segmentCount;
+    private Parser parser;
+    private Message header;
+    private Message message;
+
+    /**
+     * Indexes the segments of the message.
+     *
+     * @param frame  - ER7 encoded message, whose segments are separated by carriage returns
+     * @param parser - parser used to build the complete model
+     */
+    public Hl7LazyMessage(String frame, Parser parser) {
+
+        this.frame = frame;
+        this.parser = parser;
+        this.segmentStarts = new int[16];
+        int start = 0;
+        while (start < frame.length()) {
+            if (segmentCount == segmentStarts.length) {
+                segmentStarts = Arrays.copyOf(segmentStarts, segmentCount * 2);
+            }
+            segmentStarts[segmentCount++] = start;
+            int end = frame.indexOf('\r', start);
+            start = end < 0 ? frame.length() : end + 1;
+        }
+    }
+
+    /**
+     * Returns the received message, ending with a carriage return.
+     */
+    public String getFrame() {
+
+        return frame.endsWith("\r") ? frame : frame + "\r";
+    }
+
+    public int getSegmentCount() {
+
+        return segmentCount;
+    }
+
+    /**
+     * Returns the text of a segment, without the segment separator.
+     *
+     * @param index - zero based index of the segment
+     */
+    public String getSegment(int index) {
+
+        if (index < 0 || index >= segmentCount) {
+            throw new IndexOutOfBoundsException("Segment " + index + " of " + segmentCount + " segments. ");
+        }
+        int end = index + 1 < segmentCount ? segmentStarts[index + 1] - 1 : frame.length();
+        if (end > segmentStarts[index] && frame.charAt(end - 1) == '\r') {
+            end--;
+        }
+        return frame.substring(segmentStarts[index], end);
+    }
+
+    /**
+     * Returns the text of the first segment with the given name, or null if there is no such segment.
+     */
+    public String getSegment(String name) {
+
+        for (int i = 0; i < segmentCount; i++) {
+            if (frame.startsWith(name, segmentStarts[i])) {
+                return getSegment(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the model of the message in which only the MSH segment is populated.
+     */
+    public Message getHeader() {
+
+        return header;
+    }
+
+    void setHeader(Message header) {
+
+        this.header = header;
+    }
+
+    /**
+     * Returns the complete model of the message, parsing it on the first call.
+     *
+     * @throws HL7Exception if the message cannot be parsed
+     */
+    public Message getMessage() throws HL7Exception {
+
+        if (message == null) {
+            message = parser.parse(getFrame());
+        }
+        return message;
+    }
+
+    public boolean isMaterialized() {
+
+        return message != null;
+    }
+}
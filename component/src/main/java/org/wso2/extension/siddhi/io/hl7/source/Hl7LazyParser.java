@@ -0,0 +1,78 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.model.Message;
+
+import java.util.Set;
+
+/**
+ * {@code Hl7LazyParser} is the parser of a server which only parses the MSH segment of the received ER7 encoded
+ * messages. The parsed message is kept as a {@link Hl7LazyMessage}, which the receiving application takes on the
+ * thread the server invokes it on, after the message is parsed. Messages using line feeds as segment separators,
+ * which would be normalized by a complete parse, and xml encoded messages are parsed completely.
+ */
+public class Hl7LazyParser extends Hl7ServerParser {
+
+    private static final ThreadLocal<Hl7LazyMessage> PARSED_MESSAGE = new ThreadLocal<>();
+    private HapiContext hapiContext;
+
+    /**
+     * Creates the parser.
+     *
+     * @param hapiContext     - context of the server
+     * @param allowedVersions - accepted versions (MSH-12), or null to accept any version
+     */
+    public Hl7LazyParser(HapiContext hapiContext, Set<String> allowedVersions) {
+
+        super(hapiContext, allowedVersions);
+        this.hapiContext = hapiContext;
+    }
+
+    @Override
+    protected Message doParse(String message, String version) throws HL7Exception {
+
+        if (!message.startsWith("MSH") || message.indexOf('\n') >= 0) {
+            return super.doParse(message, version);
+        }
+        Hl7LazyMessage lazyMessage = new Hl7LazyMessage(message, hapiContext.getPipeParser());
+        Message header = super.doParse(lazyMessage.getSegment(0) + "\r", version);
+        lazyMessage.setHeader(header);
+        PARSED_MESSAGE.set(lazyMessage);
+        return header;
+    }
+
+    /**
+     * Takes the lazily parsed message of which the given message is the header model.
+     *
+     * @param message - message received by the application
+     * @return the lazily parsed message, or null if the given message is completely parsed
+     */
+    public static Hl7LazyMessage take(Message message) {
+
+        Hl7LazyMessage lazyMessage = PARSED_MESSAGE.get();
+        if (lazyMessage == null || lazyMessage.getHeader() != message) {
+            return null;
+        }
+        PARSED_MESSAGE.remove();
+        return lazyMessage;
+    }
+}
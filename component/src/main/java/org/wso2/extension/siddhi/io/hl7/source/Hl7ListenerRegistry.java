@@ -0,0 +1,354 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import ca.uhn.hl7v2.AcknowledgmentCode;
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.Version;
+import ca.uhn.hl7v2.app.HL7Service;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.protocol.ReceivingApplication;
+import ca.uhn.hl7v2.protocol.ReceivingApplicationException;
+import ca.uhn.hl7v2.util.Terser;
+import org.apache.log4j.Logger;
+import org.wso2.extension.siddhi.io.hl7.source.exception.Hl7SourceRuntimeException;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Constants;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Er7Utils;
+import org.wso2.siddhi.core.exception.ConnectionUnavailableException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code Hl7ListenerRegistry} keeps the listeners of the JVM, one for each port, so that several sources, of the
+ * same or of different Siddhi apps, can receive the messages of one port sharing its acceptor and worker threads.
+ * The first source attaching to a port starts the listener and the last source detaching from it stops the
+ * listener. Each received message is parsed once by the listener and delivered to the first source whose
+ * {@link Hl7Route} matches it, before it is encoded or converted into an event. A message which is not routed to
+ * any source is rejected, and a source whose route is the same as the route of an attached source cannot attach.
+ * A message whose type is not accepted by the {@link Hl7TypeFilter} of its source is acknowledged and dropped, if
+ * possible by {@link #filterFrame(int, String)} before it is parsed.
+ */
+public class Hl7ListenerRegistry {
+
+    private static final Logger log = Logger.getLogger(Hl7ListenerRegistry.class);
+    private static final Map<Integer, Listener> listeners = new ConcurrentHashMap<>();
+    // written to MSH-8 of the header which replaces a dropped frame, it cannot be guessed by a sender
+    private static final String DROPPED_FRAME_MARKER = "DROPPED-" + UUID.randomUUID();
+
+    private Hl7ListenerRegistry() {
+
+    }
+
+    /**
+     * Attaches the application of a source to the listener of the port, starting the listener if no other source
+     * is attached to it.
+     *
+     * @param port               - port of the listener
+     * @param transportSignature - description of the transport configuration, which should be the same for all the
+     *                           sources of a port
+     * @param route              - messages delivered to the application
+     * @param typeFilter         - types of the messages processed by the application, or null to process all
+     * @param application        - application of the source
+     * @param transport          - starts the listener if it is not running
+     * @throws ConnectionUnavailableException if the listener cannot be started
+     */
+    public static void attach(int port, String transportSignature, Hl7Route route, Hl7TypeFilter typeFilter,
+                              ReceivingApplication application, Transport transport)
+            throws ConnectionUnavailableException {
+
+        synchronized (listeners) {
+            Listener listener = listeners.get(port);
+            if (listener == null) {
+                HL7Service service = transport.start();
+                listener = new Listener(port, transportSignature, service, transport);
+                service.registerApplication(new RegistrationEventRouting(), listener);
+                service.setExceptionHandler(new Hl7ExceptionHandler());
+                listeners.put(port, listener);
+            } else if (!listener.transportSignature.equals(transportSignature)) {
+                throw new Hl7SourceRuntimeException("The listener on port " + port + " is used with the " +
+                        "transport configuration " + listener.transportSignature + ", which differs from " +
+                        transportSignature + ". ");
+            }
+            listener.addRoute(route, typeFilter, application);
+        }
+    }
+
+    /**
+     * Detaches the application of a source from the listener of the port, stopping the listener if no other
+     * source is attached to it.
+     */
+    public static void detach(int port, ReceivingApplication application) {
+
+        synchronized (listeners) {
+            Listener listener = listeners.get(port);
+            if (listener != null && listener.removeRoute(application)) {
+                listeners.remove(port);
+                listener.transport.stop(listener.service);
+            }
+        }
+    }
+
+    /**
+     * Checks an ER7 encoded frame received on the port before it is parsed, using only the fields of its MSH
+     * segment. The frame is dropped if the source it is routed to does not accept its message type, and is
+     * replaced with its MSH segment marked as dropped, which the listener acknowledges with AA. The version of the
+     * header is replaced with the default model version if HAPI does not support it, so that it can be parsed.
+     *
+     * @param port  - port on which the frame is received
+     * @param frame - received frame
+     * @return the frame, or the marked header if the frame is dropped
+     */
+    public static String filterFrame(int port, String frame) {
+
+        Listener listener = listeners.get(port);
+        return listener == null ? frame : listener.filterFrame(frame);
+    }
+
+    /**
+     * Checks whether an ER7 encoded frame is the marked header of a dropped frame.
+     */
+    static boolean isDroppedFrame(String frame) {
+
+        return frame != null && frame.startsWith("MSH") &&
+                DROPPED_FRAME_MARKER.equals(Hl7Er7Utils.getField(frame, "MSH", 8));
+    }
+
+    /**
+     * Starts and stops the server of a listener.
+     */
+    public interface Transport {
+
+        HL7Service start() throws ConnectionUnavailableException;
+
+        void stop(HL7Service service);
+    }
+
+    private static class RouteEntry {
+
+        private Hl7Route route;
+        private Hl7TypeFilter typeFilter;
+        private ReceivingApplication application;
+
+        private RouteEntry(Hl7Route route, Hl7TypeFilter typeFilter, ReceivingApplication application) {
+
+            this.route = route;
+            this.typeFilter = typeFilter;
+            this.application = application;
+        }
+    }
+
+    /**
+     * The application registered with the server of a port, which routes the messages to the sources.
+     */
+    private static class Listener implements ReceivingApplication {
+
+        private int port;
+        private String transportSignature;
+        private HL7Service service;
+        private Transport transport;
+        private volatile RouteEntry[] routes = new RouteEntry[0];
+        private volatile boolean filtering;
+
+        private Listener(int port, String transportSignature, HL7Service service, Transport transport) {
+
+            this.port = port;
+            this.transportSignature = transportSignature;
+            this.service = service;
+            this.transport = transport;
+        }
+
+        /**
+         * Adds the route of an application. A route which is the same as an attached one is rejected, as the
+         * messages are delivered to the first matching source, and such a source would never receive a message.
+         */
+        private void addRoute(Hl7Route route, Hl7TypeFilter typeFilter, ReceivingApplication application) {
+
+            for (RouteEntry entry : routes) {
+                if (entry.route.equals(route)) {
+                    throw new Hl7SourceRuntimeException("A source with the same route (" + route + ") is already " +
+                            "attached to the listener on port " + port + ", so no message would be delivered " +
+                            "to this source. Set different hl7.route options to share the port. ");
+                }
+                if (entry.route.getSpecificity() == route.getSpecificity() && entry.route.overlaps(route)) {
+                    log.warn("The route (" + route + ") overlaps with the route (" + entry.route + ") of a source " +
+                            "attached earlier to the listener on port " + port + ", which receives the messages " +
+                            "accepted by both routes. ");
+                }
+            }
+            List<RouteEntry> newRoutes = new ArrayList<>(routes.length + 1);
+            Collections.addAll(newRoutes, routes);
+            newRoutes.add(new RouteEntry(route, typeFilter, application));
+            // stable sort, the sources with the same specificity are evaluated in the order they attached
+            Collections.sort(newRoutes, new Comparator<RouteEntry>() {
+                @Override
+                public int compare(RouteEntry first, RouteEntry second) {
+
+                    return second.route.getSpecificity() - first.route.getSpecificity();
+                }
+            });
+            setRoutes(newRoutes);
+        }
+
+        /**
+         * Removes the route of the application.
+         *
+         * @return true if no route is left
+         */
+        private boolean removeRoute(ReceivingApplication application) {
+
+            List<RouteEntry> newRoutes = new ArrayList<>(routes.length);
+            for (RouteEntry entry : routes) {
+                if (entry.application != application) {
+                    newRoutes.add(entry);
+                }
+            }
+            setRoutes(newRoutes);
+            return newRoutes.isEmpty();
+        }
+
+        private void setRoutes(List<RouteEntry> newRoutes) {
+
+            boolean newFiltering = false;
+            for (RouteEntry entry : newRoutes) {
+                newFiltering |= entry.typeFilter != null;
+            }
+            routes = newRoutes.toArray(new RouteEntry[newRoutes.size()]);
+            filtering = newFiltering;
+        }
+
+        private String filterFrame(String frame) {
+
+            if (!filtering || frame == null || !frame.startsWith("MSH")) {
+                return frame;
+            }
+            String messageTypeField = Hl7Er7Utils.getField(frame, "MSH", 9);
+            String messageType = Hl7Er7Utils.getComponent(frame, messageTypeField, 1);
+            String triggerEvent = Hl7Er7Utils.getComponent(frame, messageTypeField, 2);
+            RouteEntry entry = findRoute(routes, messageType, triggerEvent, getFirstComponent(frame, 12),
+                    getFirstComponent(frame, 3), getFirstComponent(frame, 5), getFirstComponent(frame, 6));
+            if (entry == null || entry.typeFilter == null || entry.typeFilter.accepts(messageType, triggerEvent)) {
+                return frame;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Dropping the message " + Hl7Er7Utils.getField(frame, "MSH", 10) + " of type " +
+                        messageType + "^" + triggerEvent + " received on port " + port + ". ");
+            }
+            int headerEnd = frame.indexOf('\r');
+            int lineEnd = frame.indexOf('\n');
+            if (headerEnd < 0 || (lineEnd >= 0 && lineEnd < headerEnd)) {
+                headerEnd = lineEnd < 0 ? frame.length() : lineEnd;
+            }
+            String header = Hl7Er7Utils.setField(frame.substring(0, headerEnd) + "\r", "MSH", 8,
+                    DROPPED_FRAME_MARKER);
+            if (Version.versionOf(getFirstComponent(frame, 12)) == null) {
+                header = Hl7Er7Utils.setField(header, "MSH", 12, Hl7Constants.DEFAULT_HL7_MODEL_VERSION);
+            }
+            return header;
+        }
+
+        private static boolean isDroppedMessage(Message message, Map<String, Object> metaData) throws HL7Exception {
+
+            Object rawMsg = metaData != null ? metaData.get(Hl7Constants.HAPI_RAW_MESSAGE) : null;
+            if (rawMsg instanceof String) {
+                return isDroppedFrame((String) rawMsg);
+            }
+            return DROPPED_FRAME_MARKER.equals(new Terser(message).get("/MSH-8"));
+        }
+
+        private static String getFirstComponent(String frame, int fieldNo) {
+
+            return Hl7Er7Utils.getComponent(frame, Hl7Er7Utils.getField(frame, "MSH", fieldNo), 1);
+        }
+
+        private static RouteEntry findRoute(RouteEntry[] currentRoutes, String messageType, String triggerEvent,
+                                            String version, String sendingApplication, String receivingApplication,
+                                            String receivingFacility) {
+
+            for (RouteEntry entry : currentRoutes) {
+                if (entry.route.matches(messageType, triggerEvent, version, sendingApplication, receivingApplication,
+                        receivingFacility)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Message processMessage(Message message, Map<String, Object> metaData)
+                throws ReceivingApplicationException, HL7Exception {
+
+            if (isDroppedMessage(message, metaData)) {
+                Hl7LazyParser.take(message);
+                try {
+                    return message.generateACK();
+                } catch (IOException e) {
+                    throw new ReceivingApplicationException("Error: ", e);
+                }
+            }
+            RouteEntry[] currentRoutes = routes;
+            if (currentRoutes.length == 1 && currentRoutes[0].route.getSpecificity() == 0 &&
+                    currentRoutes[0].typeFilter == null) {
+                return currentRoutes[0].application.processMessage(message, metaData);
+            }
+            Terser terser = new Terser(message);
+            String messageType = terser.get("/MSH-9-1");
+            String triggerEvent = terser.get("/MSH-9-2");
+            String version = terser.get("/MSH-12");
+            String sendingApplication = terser.get("/MSH-3");
+            String receivingApplication = terser.get("/MSH-5");
+            String receivingFacility = terser.get("/MSH-6");
+            RouteEntry entry = findRoute(currentRoutes, messageType, triggerEvent, version, sendingApplication,
+                    receivingApplication, receivingFacility);
+            try {
+                if (entry != null && entry.typeFilter != null && !entry.typeFilter.accepts(messageType,
+                        triggerEvent)) {
+                    // messages which could not be filtered before they were parsed, e.g. xml encoded ones
+                    return message.generateACK();
+                }
+            } catch (IOException e) {
+                throw new ReceivingApplicationException("Error: ", e);
+            }
+            if (entry != null) {
+                return entry.application.processMessage(message, metaData);
+            }
+            log.warn("Rejecting the message of type " + messageType + "^" + triggerEvent + " from " +
+                    sendingApplication + " to " + receivingApplication + "^" + receivingFacility + " received on " +
+                    "port " + port + ", which is not routed to any source. ");
+            try {
+                return message.generateACK(AcknowledgmentCode.AR, new HL7Exception("No source on port " + port +
+                        " accepts messages of type " + messageType + "^" + triggerEvent + ". "));
+            } catch (IOException e) {
+                throw new ReceivingApplicationException("Error: ", e);
+            }
+        }
+
+        @Override
+        public boolean canProcess(Message message) {
+
+            return true;
+        }
+    }
+}
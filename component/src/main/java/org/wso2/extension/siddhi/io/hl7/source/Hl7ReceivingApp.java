@@ -18,6 +18,7 @@
  */
 package org.wso2.extension.siddhi.io.hl7.source;
 
+import ca.uhn.hl7v2.AcknowledgmentCode;
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.HapiContext;
 import ca.uhn.hl7v2.conf.ProfileException;
@@ -27,14 +28,19 @@ import ca.uhn.hl7v2.model.Message;
 import ca.uhn.hl7v2.parser.Parser;
 import ca.uhn.hl7v2.protocol.ReceivingApplication;
 import ca.uhn.hl7v2.protocol.ReceivingApplicationException;
+import ca.uhn.hl7v2.util.Terser;
 import org.apache.log4j.Logger;
 import org.wso2.extension.siddhi.io.hl7.source.exception.Hl7SourceRuntimeException;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Constants;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Er7Utils;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7SequenceCounterFile;
 import org.wso2.siddhi.core.stream.input.source.SourceEventListener;
 
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -45,6 +51,7 @@ import java.util.concurrent.locks.ReentrantLock;
 public class Hl7ReceivingApp implements ReceivingApplication {
 
     private static final Logger log = Logger.getLogger(Hl7ReceivingApp.class);
+    private static final long NO_SEQUENCE_NUMBER = Long.MIN_VALUE;
     private SourceEventListener sourceEventListener;
     private String hl7EncodeType;
     private String hl7AckType;
@@ -56,6 +63,11 @@ public class Hl7ReceivingApp implements ReceivingApplication {
     private RuntimeProfile conformanceProfile;
     private String siddhiAppName;
     private String streamID;
+    private Hl7DuplicateFilter duplicateFilter;
+    private Hl7Journal journal;
+    private Hl7SequenceCounterFile sequenceCounters;
+    private Hl7TransportProperties transportProperties;
+    private ConcurrentHashMap<String, Object> senderLocks = new ConcurrentHashMap<>();
 
     public Hl7ReceivingApp() {
 
@@ -72,10 +84,18 @@ public class Hl7ReceivingApp implements ReceivingApplication {
      * @param sourceEventListener - listens events
      * @param streamID            - the stream name of the siddhiApp
      * @param siddhiAppName       - the name of the siddhiApp
+     * @param duplicateFilter     - filter of the retransmitted messages, null if duplicates should be emitted
+     * @param journal             - journal to which the messages are written before they are acknowledged, null if
+     *                            the messages are not journaled
+     * @param sequenceCounters    - expected sequence numbers (MSH-13) of the senders, null if the sequence number
+     *                            protocol is not used
+     * @param transportProperties - transport properties requested by the mapping, null if none is requested
      */
     public Hl7ReceivingApp(SourceEventListener sourceEventListener, String siddhiAppName, String streamID,
                            String hl7EncodeType, String hl7AckType, HapiContext hapiContext, boolean conformanceUsed,
-                           RuntimeProfile conformanceProfile) {
+                           RuntimeProfile conformanceProfile, Hl7DuplicateFilter duplicateFilter,
+                           Hl7Journal journal, Hl7SequenceCounterFile sequenceCounters,
+                           Hl7TransportProperties transportProperties) {
 
         this.sourceEventListener = sourceEventListener;
         this.siddhiAppName = siddhiAppName;
@@ -85,6 +105,10 @@ public class Hl7ReceivingApp implements ReceivingApplication {
         this.hapiContext = hapiContext;
         this.conformanceUsed = conformanceUsed;
         this.conformanceProfile = conformanceProfile;
+        this.duplicateFilter = duplicateFilter;
+        this.journal = journal;
+        this.sequenceCounters = sequenceCounters;
+        this.transportProperties = transportProperties;
 
     }
 
@@ -106,23 +130,38 @@ public class Hl7ReceivingApp implements ReceivingApplication {
                 lock.unlock();
             }
         }
-        if (hl7EncodeType.toUpperCase(Locale.ENGLISH).equals("ER7")) {
-            String er7Msg = pipeParser.encode(message);
-            sourceEventListener.onEvent("payload: " + "'" + er7Msg + "'", null);
-        } else {
-            String xmlMsg = xmlParser.encode(message);
-            sourceEventListener.onEvent(xmlMsg, null);
+        // the server of a lazy parsing source only parses the header, and the received message is used as is
+        Hl7LazyMessage lazyMessage = Hl7LazyParser.take(message);
+        boolean er7Encoded = hl7EncodeType.toUpperCase(Locale.ENGLISH).equals("ER7");
+        String er7Msg = null;
+        if (lazyMessage != null) {
+            er7Msg = lazyMessage.getFrame();
+        } else if (er7Encoded || duplicateFilter != null || journal != null || sequenceCounters != null) {
+            er7Msg = pipeParser.encode(message);
+        }
+        String[] properties = null;
+        if (transportProperties != null) {
+            Object rawMsg = metaData != null ? metaData.get(Hl7Constants.HAPI_RAW_MESSAGE) : null;
+            String headerMsg;
+            if (rawMsg instanceof String && ((String) rawMsg).startsWith("MSH")) {
+                headerMsg = (String) rawMsg;
+            } else {
+                headerMsg = er7Msg != null ? er7Msg : pipeParser.encode(message);
+            }
+            properties = transportProperties.extract(headerMsg, metaData, System.currentTimeMillis());
         }
+        long sequenceNumber = sequenceCounters != null ? getSequenceNumber(er7Msg) : NO_SEQUENCE_NUMBER;
         Message ackMsg;
-        try {
-            ackMsg = message.generateACK();
-        } catch (IOException e) {
-            throw new ReceivingApplicationException("Error: ", e);
+        if (sequenceNumber == NO_SEQUENCE_NUMBER) {
+            emit(message, lazyMessage, er7Msg, er7Encoded, properties);
+            ackMsg = generateAck(message, null);
+        } else {
+            ackMsg = processSequenced(message, lazyMessage, er7Msg, er7Encoded, properties, sequenceNumber);
         }
         if (conformanceUsed) {
             HL7Exception[] problems;
             try {
-                problems = new DefaultValidator().validate(message,
+                problems = new DefaultValidator().validate(lazyMessage != null ? lazyMessage.getMessage() : message,
                         conformanceProfile.getMessage());
             } catch (ProfileException e) {
                 throw new HL7Exception(e);
@@ -143,6 +182,205 @@ public class Hl7ReceivingApp implements ReceivingApplication {
         return ackMsg;
     }
 
+    /**
+     * Emits the message unless it is a duplicate, writing it to the journal first when journaling is enabled.
+     *
+     * @param lazyMessage - the message of which only the header is parsed, or null if it is completely parsed
+     */
+    private void emit(Message message, Hl7LazyMessage lazyMessage, String er7Msg, boolean er7Encoded,
+                      String[] properties)
+            throws HL7Exception, ReceivingApplicationException {
+
+        String dedupeKey = duplicateFilter != null ? getDedupeKey(er7Msg) : null;
+        if (dedupeKey != null && !duplicateFilter.tryAcquire(dedupeKey, System.currentTimeMillis())) {
+            if (log.isDebugEnabled()) {
+                log.debug("Acknowledging without emitting the duplicate message with MSH-10 '" +
+                        Hl7Er7Utils.getField(er7Msg, "MSH", 10) + "' received for stream " + siddhiAppName + ":" +
+                        streamID + ". ");
+            }
+            return;
+        }
+        boolean emitted = false;
+        try {
+            long sequence = -1;
+            if (journal != null) {
+                try {
+                    sequence = journal.append(er7Msg);
+                } catch (IOException e) {
+                    throw new ReceivingApplicationException("Failed to write the message to the journal of " +
+                            "stream " + siddhiAppName + ":" + streamID + ". ", e);
+                }
+            }
+            try {
+                if (er7Encoded) {
+                    sourceEventListener.onEvent("payload: " + "'" + er7Msg + "'", properties);
+                } else {
+                    String xmlMsg = hapiContext.getXMLParser().encode(lazyMessage != null ?
+                            lazyMessage.getMessage() : message);
+                    sourceEventListener.onEvent(xmlMsg, properties);
+                }
+            } finally {
+                if (sequence > 0) {
+                    journal.markEmitted(sequence);
+                }
+            }
+            emitted = true;
+        } finally {
+            if (dedupeKey != null) {
+                if (emitted) {
+                    duplicateFilter.complete(dedupeKey, System.currentTimeMillis());
+                } else {
+                    duplicateFilter.abandon(dedupeKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the sequence number protocol. The message is emitted only if its sequence number is the one expected
+     * from the sender, or if the sender is not yet known. A sequence number of 0 starts a new sequence, and -1 only
+     * queries the expected sequence number. A lower sequence number is acknowledged as a duplicate and a higher
+     * one is rejected, and in both cases the expected sequence number is returned in MSA-4 so that the sender can
+     * resynchronize.
+     */
+    private Message processSequenced(Message message, Hl7LazyMessage lazyMessage, String er7Msg,
+                                     boolean er7Encoded, String[] properties, long sequenceNumber)
+            throws HL7Exception, ReceivingApplicationException {
+
+        String senderKey = Hl7Er7Utils.getField(er7Msg, "MSH", 3) + Hl7Er7Utils.getField(er7Msg, "MSH", 1) +
+                Hl7Er7Utils.getField(er7Msg, "MSH", 4);
+        Object senderLock = senderLocks.get(senderKey);
+        if (senderLock == null) {
+            Object newLock = new Object();
+            senderLock = senderLocks.putIfAbsent(senderKey, newLock);
+            if (senderLock == null) {
+                senderLock = newLock;
+            }
+        }
+        synchronized (senderLock) {
+            long expected = sequenceCounters.get(senderKey, NO_SEQUENCE_NUMBER);
+            Message ackMsg;
+            if (sequenceNumber == -1) {
+                ackMsg = generateAck(message, null);
+            } else if (expected != NO_SEQUENCE_NUMBER && sequenceNumber != 0 && sequenceNumber != expected) {
+                if (sequenceNumber < expected) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Acknowledging without emitting the message with the already received " +
+                                "sequence number " + sequenceNumber + " from '" + senderKey + "' for stream " +
+                                siddhiAppName + ":" + streamID + ". ");
+                    }
+                    ackMsg = generateAck(message, null);
+                } else {
+                    log.warn("Rejecting the message with the sequence number " + sequenceNumber + " from '" +
+                            senderKey + "' while expecting " + expected + " for stream " + siddhiAppName + ":" +
+                            streamID + ". ");
+                    ackMsg = generateAck(message, new HL7Exception("Sequence number " +
+                            sequenceNumber + " received while expecting " + expected + ". "));
+                }
+            } else {
+                if (expected == NO_SEQUENCE_NUMBER) {
+                    // the slot is allocated before emitting, so that the counter can be advanced once emitted
+                    updateSequenceNumber(senderKey, sequenceNumber);
+                }
+                emit(message, lazyMessage, er7Msg, er7Encoded, properties);
+                expected = sequenceNumber + 1;
+                updateSequenceNumber(senderKey, expected);
+                ackMsg = generateAck(message, null);
+            }
+            if (expected != NO_SEQUENCE_NUMBER) {
+                new Terser(ackMsg).set("MSA-4", String.valueOf(expected));
+            }
+            return ackMsg;
+        }
+    }
+
+    /**
+     * Reads the sequence number (MSH-13) of the message.
+     *
+     * @return the sequence number, or {@code NO_SEQUENCE_NUMBER} if the message does not have one
+     * @throws HL7Exception if the sequence number is not valid
+     */
+    private long getSequenceNumber(String er7Msg) throws HL7Exception {
+
+        String sequenceNumber = Hl7Er7Utils.getField(er7Msg, "MSH", 13);
+        if (sequenceNumber == null || sequenceNumber.isEmpty()) {
+            return NO_SEQUENCE_NUMBER;
+        }
+        try {
+            long value = Long.parseLong(sequenceNumber);
+            if (value >= -1) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new HL7Exception("Invalid sequence number '" + sequenceNumber + "' received for stream " +
+                siddhiAppName + ":" + streamID + ". ");
+    }
+
+    private void updateSequenceNumber(String senderKey, long value) throws ReceivingApplicationException {
+
+        try {
+            sequenceCounters.set(senderKey, value);
+        } catch (IOException e) {
+            throw new ReceivingApplicationException("Failed to store the sequence number of '" + senderKey +
+                    "' for stream " + siddhiAppName + ":" + streamID + ". ", e);
+        }
+    }
+
+    /**
+     * Generates an AA acknowledgement, or an AR acknowledgement if the message is rejected.
+     */
+    private Message generateAck(Message message, HL7Exception rejection)
+            throws HL7Exception, ReceivingApplicationException {
+
+        try {
+            return rejection == null ? message.generateACK() : message.generateACK(AcknowledgmentCode.AR, rejection);
+        } catch (IOException e) {
+            throw new ReceivingApplicationException("Error: ", e);
+        }
+    }
+
+    /**
+     * Emits a message read back from the journal, without acknowledging it. The transport properties of the
+     * connection the message was received from are not journaled, so only the header fields are known.
+     *
+     * @param er7Msg - ER7 encoded message
+     */
+    public void replay(String er7Msg) {
+
+        String[] properties = transportProperties != null ? transportProperties.extract(er7Msg, null, -1) : null;
+        if (hl7EncodeType.toUpperCase(Locale.ENGLISH).equals("ER7")) {
+            sourceEventListener.onEvent("payload: " + "'" + er7Msg + "'", properties);
+        } else {
+            try {
+                Message message = hapiContext.getPipeParser().parse(er7Msg);
+                sourceEventListener.onEvent(hapiContext.getXMLParser().encode(message), properties);
+            } catch (HL7Exception e) {
+                log.error("Dropping the journaled message which could not be parsed for stream " + siddhiAppName +
+                        ":" + streamID + ". " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Builds the key identifying a message of a sender, i.e. the sending application (MSH-3), the sending
+     * facility (MSH-4) and the message control id (MSH-10).
+     *
+     * @param er7Msg - ER7 encoded message
+     * @return the key or null if the message does not have a control id
+     */
+    private String getDedupeKey(String er7Msg) {
+
+        String controlId = Hl7Er7Utils.getField(er7Msg, "MSH", 10);
+        if (controlId == null || controlId.isEmpty()) {
+            return null;
+        }
+        String fieldSeparator = Hl7Er7Utils.getField(er7Msg, "MSH", 1);
+        return Hl7Er7Utils.getField(er7Msg, "MSH", 3) + fieldSeparator + Hl7Er7Utils.getField(er7Msg, "MSH", 4) +
+                fieldSeparator + controlId;
+    }
+
     @Override
     public boolean canProcess(Message message) {
 
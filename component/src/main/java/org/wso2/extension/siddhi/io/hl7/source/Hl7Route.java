@@ -0,0 +1,166 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * {@code Hl7Route} selects the messages delivered to a source sharing a listener, possibly with the sources of
+ * other Siddhi apps, e.g. by the receiving application and facility the message is addressed to. Each criterion
+ * is a set of accepted values of a MSH field, compiled once from a comma separated list, and a criterion which is
+ * not given accepts any value. A message is routed to the source if all the criteria accept it.
+ */
+public class Hl7Route {
+
+    private Set<String> messageTypes;
+    private Set<String> triggerEvents;
+    private Set<String> versions;
+    private Set<String> sendingApplications;
+    private Set<String> receivingApplications;
+    private Set<String> receivingFacilities;
+    private int specificity;
+
+    /**
+     * Creates the route.
+     *
+     * @param messageTypes          - accepted message types (MSH-9.1), or null to accept any
+     * @param triggerEvents         - accepted trigger events (MSH-9.2), or null to accept any
+     * @param versions              - accepted versions (MSH-12), or null to accept any
+     * @param sendingApplications   - accepted sending applications (MSH-3.1), or null to accept any
+     * @param receivingApplications - accepted receiving applications (MSH-5.1), or null to accept any
+     * @param receivingFacilities   - accepted receiving facilities (MSH-6.1), or null to accept any
+     */
+    public Hl7Route(String messageTypes, String triggerEvents, String versions, String sendingApplications,
+                    String receivingApplications, String receivingFacilities) {
+
+        this.messageTypes = compile(messageTypes, true);
+        this.triggerEvents = compile(triggerEvents, true);
+        this.versions = compile(versions, false);
+        this.sendingApplications = compile(sendingApplications, false);
+        this.receivingApplications = compile(receivingApplications, false);
+        this.receivingFacilities = compile(receivingFacilities, false);
+    }
+
+    /**
+     * Checks whether the message with the given header fields is routed to the source.
+     */
+    public boolean matches(String messageType, String triggerEvent, String version, String sendingApplication,
+                           String receivingApplication, String receivingFacility) {
+
+        return accepts(messageTypes, messageType, true) && accepts(triggerEvents, triggerEvent, true) &&
+                accepts(versions, version, false) && accepts(sendingApplications, sendingApplication, false) &&
+                accepts(receivingApplications, receivingApplication, false) &&
+                accepts(receivingFacilities, receivingFacility, false);
+    }
+
+    /**
+     * Returns the number of criteria of the route. Routes with more criteria are evaluated first, so that a source
+     * without criteria only receives the messages which are not routed to a more specific source.
+     */
+    public int getSpecificity() {
+
+        return specificity;
+    }
+
+    /**
+     * Checks whether a message can be accepted by both routes, i.e. whether each criterion of one route has a value
+     * in common with the same criterion of the other, or is not given in either of them.
+     */
+    public boolean overlaps(Hl7Route other) {
+
+        return intersect(messageTypes, other.messageTypes) && intersect(triggerEvents, other.triggerEvents) &&
+                intersect(versions, other.versions) && intersect(sendingApplications, other.sendingApplications) &&
+                intersect(receivingApplications, other.receivingApplications) &&
+                intersect(receivingFacilities, other.receivingFacilities);
+    }
+
+    private static boolean intersect(Set<String> first, Set<String> second) {
+
+        return first == null || second == null || !Collections.disjoint(first, second);
+    }
+
+    private Set<String> compile(String values, boolean upperCase) {
+
+        if (values == null || values.trim().isEmpty()) {
+            return null;
+        }
+        Set<String> compiled = new HashSet<>();
+        for (String value : values.split(",")) {
+            String trimmed = value.trim();
+            if (!trimmed.isEmpty()) {
+                compiled.add(upperCase ? trimmed.toUpperCase(Locale.ENGLISH) : trimmed);
+            }
+        }
+        specificity++;
+        return Collections.unmodifiableSet(compiled);
+    }
+
+    private static boolean accepts(Set<String> acceptedValues, String value, boolean upperCase) {
+
+        if (acceptedValues == null) {
+            return true;
+        }
+        if (value == null) {
+            return false;
+        }
+        return acceptedValues.contains(upperCase ? value.toUpperCase(Locale.ENGLISH) : value);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof Hl7Route)) {
+            return false;
+        }
+        Hl7Route other = (Hl7Route) object;
+        return Objects.equals(messageTypes, other.messageTypes) && Objects.equals(triggerEvents,
+                other.triggerEvents) && Objects.equals(versions, other.versions) &&
+                Objects.equals(sendingApplications, other.sendingApplications) &&
+                Objects.equals(receivingApplications, other.receivingApplications) &&
+                Objects.equals(receivingFacilities, other.receivingFacilities);
+    }
+
+    @Override
+    public int hashCode() {
+
+        return Objects.hash(messageTypes, triggerEvents, versions, sendingApplications, receivingApplications,
+                receivingFacilities);
+    }
+
+    @Override
+    public String toString() {
+
+        return "message types " + describe(messageTypes) + ", trigger events " + describe(triggerEvents) +
+                ", versions " + describe(versions) + ", sending applications " + describe(sendingApplications) +
+                ", receiving applications " + describe(receivingApplications) + ", receiving facilities " +
+                describe(receivingFacilities);
+    }
+
+    private static String describe(Set<String> values) {
+
+        return values == null ? "*" : values.toString();
+    }
+}
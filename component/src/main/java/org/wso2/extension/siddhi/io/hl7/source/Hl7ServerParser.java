@@ -0,0 +1,61 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import ca.uhn.hl7v2.ErrorCode;
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.GenericParser;
+
+import java.util.Set;
+
+/**
+ * {@code Hl7ServerParser} is the parser of a server which only accepts messages of the allowed hl7 versions. The
+ * version is checked before the message is parsed, so the structure classes of the other versions are never
+ * loaded, and the server rejects the message with the error of the parser. The header of a frame dropped by
+ * {@link Hl7ListenerRegistry#filterFrame(int, String)} is parsed whatever its version is, to be acknowledged.
+ */
+public class Hl7ServerParser extends GenericParser {
+
+    private Set<String> allowedVersions;
+
+    /**
+     * Creates the parser.
+     *
+     * @param hapiContext     - context of the server
+     * @param allowedVersions - accepted versions (MSH-12), or null to accept any version
+     */
+    public Hl7ServerParser(HapiContext hapiContext, Set<String> allowedVersions) {
+
+        super(hapiContext);
+        this.allowedVersions = allowedVersions;
+    }
+
+    @Override
+    protected Message doParse(String message, String version) throws HL7Exception {
+
+        if (allowedVersions != null && !allowedVersions.contains(version) &&
+                !Hl7ListenerRegistry.isDroppedFrame(message)) {
+            throw new HL7Exception("Messages of version " + version + " are not accepted, the accepted versions " +
+                    "are " + allowedVersions + ". ", ErrorCode.UNSUPPORTED_VERSION_ID);
+        }
+        return super.doParse(message, version);
+    }
+}
@@ -27,10 +27,17 @@ import ca.uhn.hl7v2.conf.spec.RuntimeProfile;
 import ca.uhn.hl7v2.hoh.sockets.CustomCertificateTlsSocketFactory;
 import ca.uhn.hl7v2.hoh.util.HapiSocketTlsFactoryWrapper;
 import ca.uhn.hl7v2.llp.MinLowerLayerProtocol;
+import ca.uhn.hl7v2.parser.GenericParser;
+import ca.uhn.hl7v2.parser.ModelClassFactory;
 
 import org.apache.log4j.Logger;
+import org.wso2.extension.siddhi.io.hl7.source.exception.Hl7SourceRuntimeException;
 import org.wso2.extension.siddhi.io.hl7.util.Hl7Constants;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7HapiContextRegistry;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7SequenceCounterFile;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7StateCodec;
 import org.wso2.extension.siddhi.io.hl7.util.Hl7Utils;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7WarmUp;
 import org.wso2.siddhi.annotation.Example;
 import org.wso2.siddhi.annotation.Extension;
 import org.wso2.siddhi.annotation.Parameter;
@@ -42,11 +49,19 @@ import org.wso2.siddhi.core.stream.input.source.Source;
 import org.wso2.siddhi.core.stream.input.source.SourceEventListener;
 import org.wso2.siddhi.core.util.config.ConfigReader;
 import org.wso2.siddhi.core.util.transport.OptionHolder;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Hl7 Source Implementation
@@ -55,7 +70,11 @@ import java.util.Map;
 @Extension(
         name = "hl7",
         namespace = "source",
-        description = "The hl7 source consumes the hl7 messages using MLLP protocol. ",
+        description = "The hl7 source consumes the hl7 messages using MLLP protocol. The mapping can request " +
+                "transport properties, which are extracted once from the received message and its connection " +
+                "instead of parsing the payload again: a field or a component of the MSH segment, e.g. " +
+                "`trp:MSH-10` or `trp:MSH-9.1`, `trp:remote.address` and `trp:remote.port` of the sender, and " +
+                "`trp:received.time` in milliseconds. ",
         parameters = {
                 @Parameter(name = "port",
                         description = "This is the unique logical address used to establish the connection for " +
@@ -125,7 +144,168 @@ import java.util.Map;
                                 "message. User should give the file path, if conformance profile is used to validate " +
                                 "the message. ",
                         optional = true, defaultValue = "Empty",
-                        type = {DataType.STRING})
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.dedupe.window.ms",
+                        description = "The time (in milliseconds) for which the sending application (MSH-3), " +
+                                "sending facility (MSH-4) and control id (MSH-10) of each emitted message are " +
+                                "remembered. A message received again within this time, e.g. a retransmission " +
+                                "after a missed acknowledgement, is acknowledged but not emitted. The remembered " +
+                                "messages are kept in the state of the source. Duplicates are emitted when this " +
+                                "is 0. ",
+                        optional = true, defaultValue = "0",
+                        type = {DataType.LONG}),
+
+                @Parameter(name = "hl7.dedupe.max.entries",
+                        description = "The maximum number of messages remembered for duplicate suppression. The " +
+                                "oldest message is forgotten when this is reached. ",
+                        optional = true, defaultValue = "100000",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "hl7.journal.dir",
+                        description = "Enables the durable mode, in which each received message is appended to a " +
+                                "write-ahead journal in this directory and forced to the storage device before it " +
+                                "is acknowledged. The sequence number of the last emitted message is kept in the " +
+                                "state of the source. When the state is restored, e.g. after a crash, the " +
+                                "journaled messages received after the snapshot are emitted again, and the journal " +
+                                "segments are deleted once a later snapshot covers them. This should be used " +
+                                "together with state persistence. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.journal.segment.size",
+                        description = "The size (in bytes) of a journal segment file. The largest message should " +
+                                "fit in a segment. ",
+                        optional = true, defaultValue = "67108864",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "hl7.sequence.file",
+                        description = "Enables the HL7 sequence number protocol, keeping the next sequence number " +
+                                "(MSH-13) expected from each sender (MSH-3 and MSH-4) in this memory mapped file. " +
+                                "A message with the expected sequence number is emitted, a message with a lower " +
+                                "sequence number is acknowledged without being emitted, and a message with a " +
+                                "higher sequence number is rejected. The expected sequence number is returned in " +
+                                "MSA-4 of each acknowledgement, a sequence number of -1 only queries it and 0 " +
+                                "starts a new sequence. The first message of an unknown sender starts its " +
+                                "sequence. The expected sequence numbers are also kept in the state of the " +
+                                "source. Messages without a sequence number are processed as usual. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.sequence.max.senders",
+                        description = "The maximum number of senders whose sequence numbers are kept in the " +
+                                "hl7.sequence.file. ",
+                        optional = true, defaultValue = "1024",
+                        type = {DataType.INT}),
+
+                @Parameter(name = "hl7.route.message.type",
+                        description = "Comma separated message types (MSH-9.1), e.g. `ADT,ORM`, received by this " +
+                                "source. Several hl7 sources, also of different Siddhi apps, can use the same port " +
+                                "sharing its listener, and each message received on " +
+                                "the port is delivered to the first source whose route options all accept it, " +
+                                "sources with more route options being evaluated first. A message accepted by no " +
+                                "source is rejected. If this is not given, any message type is accepted. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.route.trigger.event",
+                        description = "Comma separated trigger events (MSH-9.2), e.g. `A01,A04`, received by this " +
+                                "source. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.route.version",
+                        description = "Comma separated versions (MSH-12), e.g. `2.3,2.4`, received by this source. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.route.sending.application",
+                        description = "Comma separated sending applications (MSH-3.1) whose messages are received " +
+                                "by this source. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.route.receiving.application",
+                        description = "Comma separated receiving applications (MSH-5.1) whose messages are " +
+                                "received by this source, e.g. to deploy the interfaces of several applications " +
+                                "on one port. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.route.receiving.facility",
+                        description = "Comma separated receiving facilities (MSH-6.1) whose messages are received " +
+                                "by this source. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.include.types",
+                        description = "Comma separated message types processed by this source, each being a " +
+                                "message type (MSH-9.1), e.g. `QRY`, or a message type and a trigger event " +
+                                "(MSH-9.2), e.g. `ADT^A31`. The other messages routed to this source are " +
+                                "acknowledged and dropped. The message type of an er7 encoded message is read " +
+                                "from the received frame, so a dropped message is neither parsed nor converted " +
+                                "into an event. If this is not given, all the message types are processed. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.exclude.types",
+                        description = "Comma separated message types, in the same form as hl7.include.types, " +
+                                "which are acknowledged and dropped by this source. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.lazy.parsing",
+                        description = "When this is `true`, only the MSH segment of a received er7 message is " +
+                                "parsed to route and acknowledge it, and the received message is emitted as it is " +
+                                "when the hl7.encoding is er7. The complete message is only parsed when it is " +
+                                "validated against the conformance profile or emitted as xml, so large messages, " +
+                                "e.g. ORU messages with hundreds of OBX segments, are cheap to receive. Errors in " +
+                                "the segments after MSH are then not detected while receiving the message. This " +
+                                "applies to all the sources sharing the port. ",
+                        optional = true, defaultValue = "false",
+                        type = {DataType.BOOL}),
+
+                @Parameter(name = "hl7.model",
+                        description = "The model classes used to parse the messages. `default` loads the structure " +
+                                "classes of each hl7 version and message type on their first use, `canonical` " +
+                                "parses all the messages with the structures of the hl7.model.version, and " +
+                                "`generic` uses generic segments without structure classes. The canonical and " +
+                                "generic models load fewer classes, so the first messages are processed faster and " +
+                                "less metaspace is used. ",
+                        optional = true, defaultValue = "default",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.model.version",
+                        description = "The hl7 version whose structures are used by the canonical model. ",
+                        optional = true, defaultValue = "2.5.1",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.allowed.versions",
+                        description = "Comma separated hl7 versions (MSH-12), e.g. `2.3,2.5.1`, of the " +
+                                "messages accepted by this source. The version of a received message is " +
+                                "checked before it is parsed, and a message of another version is rejected. ",
+                        optional = true, defaultValue = "any",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.warmup.templates",
+                        description = "Comma separated built-in sample messages, `ADT`, `ORU` and `ORM`, which " +
+                                "are parsed and encoded before the port is opened, so that the hl7 structures are " +
+                                "loaded and the parsers are compiled before the first message is received. The " +
+                                "samples are stamped with each of the hl7.allowed.versions, or with the " +
+                                "hl7.model.version when no version is given. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.warmup.files",
+                        description = "Comma separated paths of files, each containing an er7 or xml encoded " +
+                                "message, which are parsed and encoded with the built-in samples. ",
+                        optional = true, defaultValue = "none",
+                        type = {DataType.STRING}),
+
+                @Parameter(name = "hl7.warmup.iterations",
+                        description = "Number of times each warm-up message is parsed and encoded. ",
+                        optional = true, defaultValue = "100",
+                        type = {DataType.INT})
 
         },
         examples = {
@@ -151,27 +331,93 @@ import java.util.Map;
                         ,
                         description = "This receives the HL7 messages nd send the acknowledgement message to the " +
                                 "client using the MLLP protocol and custom xml mapping. \n "
+                ),
+                @Example(
+                        syntax = "@App:name('Hl7TestAppForRouting') \n" +
+                                "@source(type = 'hl7', \n" +
+                                "port = '1080', \n" +
+                                "hl7.encoding = 'er7', \n" +
+                                "hl7.route.message.type = 'ADT', \n" +
+                                "@map(type = 'text'))\n" +
+                                "define stream adtStream(payload string); \n" +
+                                "@source(type = 'hl7', \n" +
+                                "port = '1080', \n" +
+                                "hl7.encoding = 'er7', \n" +
+                                "hl7.route.message.type = 'ORM,ORU', \n" +
+                                "@map(type = 'text'))\n" +
+                                "define stream orderStream(payload string); \n"
+                        ,
+                        description = "This receives the HL7 messages on port 1080, delivering the ADT messages to " +
+                                "adtStream and the ORM and ORU messages to orderStream, and rejecting the other " +
+                                "messages. \n "
+                ),
+                @Example(
+                        syntax = "@App:name('Hl7TestAppForTypeFilter') \n" +
+                                "@source(type = 'hl7', \n" +
+                                "port = '1080', \n" +
+                                "hl7.encoding = 'er7', \n" +
+                                "hl7.include.types = 'ADT', \n" +
+                                "hl7.exclude.types = 'ADT^A31', \n" +
+                                "@map(type = 'text'))\n" +
+                                "define stream adtStream(payload string); \n"
+                        ,
+                        description = "This receives the ADT messages other than ADT^A31, and acknowledges the " +
+                                "other messages without parsing them. \n "
+                ),
+                @Example(
+                        syntax = "@App:name('Hl7TestAppForTransportProperties') \n" +
+                                "@source(type = 'hl7', \n" +
+                                "port = '1080', \n" +
+                                "hl7.encoding = 'xml', \n" +
+                                "@map(type = 'xml', namespaces = 'ns=urn:hl7-org:v2xml', @attributes(" +
+                                "EVNTS1 = \"ns:EVN/ns:EVN.2/ns:TS.1\", controlId = \"trp:MSH-10\", " +
+                                "messageType = \"trp:MSH-9.1\", sender = \"trp:remote.address\")))\n" +
+                                "define stream hl7stream (EVNTS1 string, controlId string, messageType string, " +
+                                "sender string); \n"
+                        ,
+                        description = "This maps the control id and the message type of each message and the " +
+                                "address of its sender from the transport properties of the message. \n "
                 )
         }
 )
 public class Hl7Source extends Source {
 
     private static final Logger log = Logger.getLogger(Hl7Source.class);
+    private static final int STATE_DEDUPE = 1;
+    private static final int STATE_JOURNAL = 2;
+    private static final int STATE_SEQUENCE = 4;
     private SourceEventListener sourceEventListener;
     private int port;
     private boolean tlsEnabled;
     private String hl7Encoding;
     private String hl7AckEncoding;
     private String charset;
-    private HL7Service hl7Service;
+    private Hl7Route route;
+    private Hl7TypeFilter typeFilter;
+    private Hl7TransportProperties transportProperties;
+    private boolean lazyParsing;
+    private String model;
+    private ModelClassFactory modelClassFactory;
+    private Set<String> allowedVersions;
+    private Hl7WarmUp warmUp;
+    private HapiContext hapiContext;
+    private String hapiContextConfiguration;
     private String tlsKeystoreFilepath;
     private String tlsKeystorePassphrase;
     private Hl7ReceivingApp hl7ReceivingApp;
+    private Hl7ReceivingApp registeredReceivingApp;
     private boolean conformanceProfileUsed;
     private RuntimeProfile conformanceProfile;
     private String tlsKeystoreType;
     private String streamID;
     private String siddhiAppName;
+    private Hl7DuplicateFilter duplicateFilter;
+    private Path journalDir;
+    private int journalSegmentSize;
+    private Hl7Journal journal;
+    private long restoredJournalSequence = -1;
+    private long snapshotJournalSequence;
+    private Hl7SequenceCounterFile sequenceCounters;
     @Override
     public void init(SourceEventListener sourceEventListener, OptionHolder optionHolder,
                      String[] requestedTransportPropertyNames, ConfigReader configReader,
@@ -195,6 +441,24 @@ public class Hl7Source extends Source {
         this.conformanceProfileUsed = Boolean.parseBoolean(optionHolder.validateAndGetStaticValue(
                 Hl7Constants.HL7_CONFORMANCE_PROFILE_USED,
                 Hl7Constants.DEFAULT_CONFORMANCE_PROFILE_USED));
+        this.lazyParsing = Boolean.parseBoolean(optionHolder.validateAndGetStaticValue(
+                Hl7Constants.HL7_LAZY_PARSING, Hl7Constants.DEFAULT_HL7_LAZY_PARSING));
+        String modelVersion = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_MODEL_VERSION,
+                Hl7Constants.DEFAULT_HL7_MODEL_VERSION);
+        this.model = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_MODEL, Hl7Constants.DEFAULT_HL7_MODEL);
+        this.modelClassFactory = Hl7Utils.createModelClassFactory(model, modelVersion, siddhiAppName, streamID);
+        if (modelClassFactory != null) {
+            model = model + " " + modelVersion;
+        }
+        this.allowedVersions = Hl7Utils.getAllowedVersions(optionHolder.validateAndGetStaticValue(
+                Hl7Constants.HL7_ALLOWED_VERSIONS, null), siddhiAppName, streamID);
+        this.warmUp = Hl7WarmUp.create(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_WARMUP_TEMPLATES,
+                Hl7Constants.DEFAULT_HL7_WARMUP_TEMPLATES),
+                optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_WARMUP_FILES, null),
+                optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_WARMUP_ITERATIONS,
+                        Hl7Constants.DEFAULT_HL7_WARMUP_ITERATIONS),
+                allowedVersions == null ? Collections.singleton(modelVersion) : allowedVersions, siddhiAppName,
+                streamID);
         String profileFileName = optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_CONFORMANCE_PROFILE_FILE,
                 Hl7Constants.DEFAULT_CONFORMANCE_PROFILE_FILE);
         Hl7Utils.validateEncodingType(hl7Encoding, hl7AckEncoding, siddhiAppName, streamID);
@@ -206,6 +470,93 @@ public class Hl7Source extends Source {
         }
         Hl7Utils.doTlsValidation(tlsEnabled, tlsKeystoreFilepath, tlsKeystorePassphrase, tlsKeystoreType,
                 siddhiAppName, streamID);
+        initDuplicateFilter(optionHolder);
+        if (optionHolder.isOptionExists(Hl7Constants.HL7_JOURNAL_DIR)) {
+            this.journalDir = Paths.get(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_JOURNAL_DIR));
+            try {
+                this.journalSegmentSize = Integer.parseInt(optionHolder.validateAndGetStaticValue(
+                        Hl7Constants.HL7_JOURNAL_SEGMENT_SIZE, Hl7Constants.DEFAULT_HL7_JOURNAL_SEGMENT_SIZE));
+            } catch (NumberFormatException e) {
+                throw new SiddhiAppValidationException("Invalid hl7.journal.segment.size defined in " +
+                        siddhiAppName + ":" + streamID + ". ", e);
+            }
+            if (journalSegmentSize < 1024) {
+                throw new SiddhiAppValidationException("Invalid hl7.journal.segment.size defined in " +
+                        siddhiAppName + ":" + streamID + ". The segment size should be at least 1024 bytes. ");
+            }
+        }
+        initSequenceCounters(optionHolder);
+        this.route = new Hl7Route(
+                optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_ROUTE_MESSAGE_TYPE, null),
+                optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_ROUTE_TRIGGER_EVENT, null),
+                optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_ROUTE_VERSION, null),
+                optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_ROUTE_SENDING_APPLICATION, null),
+                optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_ROUTE_RECEIVING_APPLICATION, null),
+                optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_ROUTE_RECEIVING_FACILITY, null));
+        try {
+            this.typeFilter = Hl7TypeFilter.create(
+                    optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_INCLUDE_TYPES, null),
+                    optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_EXCLUDE_TYPES, null));
+        } catch (IllegalArgumentException e) {
+            throw new SiddhiAppValidationException("Invalid hl7.include.types or hl7.exclude.types defined in " +
+                    siddhiAppName + ":" + streamID + ". " + e.getMessage(), e);
+        }
+        try {
+            this.transportProperties = Hl7TransportProperties.create(requestedTransportPropertyNames);
+        } catch (IllegalArgumentException e) {
+            throw new SiddhiAppValidationException("Invalid transport property requested by the mapping of " +
+                    siddhiAppName + ":" + streamID + ". " + e.getMessage(), e);
+        }
+    }
+
+    private void initSequenceCounters(OptionHolder optionHolder) {
+
+        if (!optionHolder.isOptionExists(Hl7Constants.HL7_SEQUENCE_FILE)) {
+            return;
+        }
+        Path sequenceFile = Paths.get(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_SEQUENCE_FILE));
+        int maxSenders;
+        try {
+            maxSenders = Integer.parseInt(optionHolder.validateAndGetStaticValue(
+                    Hl7Constants.HL7_SEQUENCE_MAX_SENDERS, Hl7Constants.DEFAULT_HL7_SEQUENCE_MAX_SENDERS));
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppValidationException("Invalid hl7.sequence.max.senders defined in " + siddhiAppName +
+                    ":" + streamID + ". ", e);
+        }
+        if (maxSenders < 1) {
+            throw new SiddhiAppValidationException("Invalid hl7.sequence.max.senders defined in " + siddhiAppName +
+                    ":" + streamID + ". The maximum senders should be greater than zero. ");
+        }
+        this.sequenceCounters = new Hl7SequenceCounterFile(sequenceFile, maxSenders);
+        try {
+            sequenceCounters.open();
+        } catch (IOException e) {
+            throw new SiddhiAppCreationException("Failed to open the hl7.sequence.file " + sequenceFile +
+                    " defined in " + siddhiAppName + ":" + streamID + ". ", e);
+        }
+    }
+
+    private void initDuplicateFilter(OptionHolder optionHolder) {
+
+        long dedupeWindow;
+        int dedupeMaxEntries;
+        try {
+            dedupeWindow = Long.parseLong(optionHolder.validateAndGetStaticValue(Hl7Constants.HL7_DEDUPE_WINDOW,
+                    Hl7Constants.DEFAULT_HL7_DEDUPE_WINDOW));
+            dedupeMaxEntries = Integer.parseInt(optionHolder.validateAndGetStaticValue(
+                    Hl7Constants.HL7_DEDUPE_MAX_ENTRIES, Hl7Constants.DEFAULT_HL7_DEDUPE_MAX_ENTRIES));
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppValidationException("Invalid hl7.dedupe.window.ms or hl7.dedupe.max.entries " +
+                    "defined in " + siddhiAppName + ":" + streamID + ". ", e);
+        }
+        if (dedupeWindow < 0 || dedupeMaxEntries < 1) {
+            throw new SiddhiAppValidationException("Invalid hl7.dedupe.window.ms or hl7.dedupe.max.entries " +
+                    "defined in " + siddhiAppName + ":" + streamID + ". The window should not be negative and " +
+                    "the maximum entries should be greater than zero. ");
+        }
+        if (dedupeWindow > 0) {
+            this.duplicateFilter = new Hl7DuplicateFilter(dedupeMaxEntries, dedupeWindow);
+        }
     }
 
     @Override
@@ -217,40 +568,182 @@ public class Hl7Source extends Source {
     @Override
     public void connect(ConnectionCallback connectionCallback) throws ConnectionUnavailableException {
 
-        HapiContext hapiContext = new DefaultHapiContext();
-        MinLowerLayerProtocol mllp = new MinLowerLayerProtocol();
-        mllp.setCharset(charset);
-        hapiContext.setLowerLayerProtocol(mllp);
+        if (hapiContextConfiguration == null) {
+            String configuration = getClass().getSimpleName() + "[tls=" + Hl7HapiContextRegistry
+                    .getKeystoreIdentity(tlsEnabled, tlsKeystoreType, tlsKeystoreFilepath, tlsKeystorePassphrase) +
+                    ", lazy=" + lazyParsing + ", model=" + model + ", versions=" +
+                    (allowedVersions == null ? "*" : new TreeSet<>(allowedVersions)) + "]";
+            hapiContext = Hl7HapiContextRegistry.acquire(configuration,
+                    new Hl7HapiContextRegistry.ContextFactory() {
+                @Override
+                public HapiContext create() {
+
+                    return createHapiContext();
+                }
+            });
+            hapiContextConfiguration = configuration;
+        }
+        if (journalDir != null) {
+            journal = new Hl7Journal(journalDir, journalSegmentSize);
+            try {
+                journal.open();
+            } catch (IOException e) {
+                journal = null;
+                throw new ConnectionUnavailableException("Failed to open the journal " + journalDir + " defined in " +
+                        siddhiAppName + ":" + streamID + ". ", e);
+            }
+        }
+        if (warmUp != null) {
+            warmUp.run(hapiContext, siddhiAppName + ":" + streamID);
+            warmUp = null;
+        }
+        registeredReceivingApp = new Hl7ReceivingApp(sourceEventListener, siddhiAppName, streamID, hl7Encoding,
+                hl7AckEncoding, hapiContext, conformanceProfileUsed, conformanceProfile, duplicateFilter, journal,
+                sequenceCounters, transportProperties);
+        if (journal != null && restoredJournalSequence >= 0) {
+            replayJournal(restoredJournalSequence);
+            restoredJournalSequence = -1;
+        }
+        String transportSignature = getClass().getSimpleName() + "[charset=" + charset + ", tls=" + tlsEnabled +
+                ", lazy=" + lazyParsing + ", model=" + model + ", versions=" +
+                (allowedVersions == null ? "*" : new TreeSet<>(allowedVersions)) + "]";
+        Hl7ListenerRegistry.Transport transport = new Hl7ListenerRegistry.Transport() {
+            @Override
+            public HL7Service start() throws ConnectionUnavailableException {
+
+                HL7Service hl7Service;
+                synchronized (hapiContext) {
+                    configureTransport(hapiContext);
+                    hl7Service = hapiContext.newServer(port, tlsEnabled);
+                }
+                try {
+                    hl7Service.startAndWait();
+                } catch (InterruptedException e) {
+                    throw new ConnectionUnavailableException("Error occurred while starting the server on port: " +
+                            port + ", ", e);
+                }
+                return hl7Service;
+            }
+
+            @Override
+            public void stop(HL7Service hl7Service) {
+
+                hl7Service.stop();
+                releaseTransport();
+            }
+        };
+        try {
+            Hl7ListenerRegistry.attach(port, transportSignature, route, typeFilter, registeredReceivingApp,
+                    transport);
+        } catch (ConnectionUnavailableException | RuntimeException e) {
+            // the journal and the context are acquired again when connecting once more
+            disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the context shared by the sources configured alike, whose server parser only accepts the allowed
+     * versions and parses the received messages lazily, if enabled.
+     */
+    private HapiContext createHapiContext() {
+
+        HapiContext context;
+        if (lazyParsing || allowedVersions != null) {
+            context = new DefaultHapiContext() {
+                @Override
+                public GenericParser getGenericParser() {
+
+                    return lazyParsing ? new Hl7LazyParser(this, allowedVersions) :
+                            new Hl7ServerParser(this, allowedVersions);
+                }
+            };
+        } else {
+            context = new DefaultHapiContext();
+        }
+        if (modelClassFactory != null) {
+            context.setModelClassFactory(modelClassFactory);
+        }
         if (tlsEnabled) {
             CustomCertificateTlsSocketFactory tlsFac = new CustomCertificateTlsSocketFactory(tlsKeystoreType,
                     tlsKeystoreFilepath, tlsKeystorePassphrase);
-            hapiContext.setSocketFactory(new HapiSocketTlsFactoryWrapper(tlsFac));
+            context.setSocketFactory(new HapiSocketTlsFactoryWrapper(tlsFac));
         }
-        hl7Service = hapiContext.newServer(port, tlsEnabled);
+        return context;
+    }
+
+    /**
+     * Emits the journaled messages which were received after the given sequence number and were already emitted
+     * before the state was restored.
+     *
+     * @param afterSequence - sequence number of the last message emitted before the restored snapshot
+     */
+    private void replayJournal(long afterSequence) {
+
+        long upToSequence = journal.getEmittedWatermark();
         try {
-            hl7Service.startAndWait();
-        } catch (InterruptedException e) {
-            throw new ConnectionUnavailableException("Error occurred while starting the server on port: " + port
-                    + ", ", e);
-        }
-        hl7Service.registerApplication(new RegistrationEventRouting(), new Hl7ReceivingApp(sourceEventListener,
-                siddhiAppName, streamID, hl7Encoding, hl7AckEncoding, hapiContext, conformanceProfileUsed,
-                conformanceProfile));
-        hl7Service.setExceptionHandler(new Hl7ExceptionHandler());
+            journal.replay(afterSequence, upToSequence, new Hl7Journal.RecordHandler() {
+                @Override
+                public void onRecord(long sequence, String message) {
+
+                    registeredReceivingApp.replay(message);
+                }
+            });
+            log.info("Replayed the journaled messages " + (afterSequence + 1) + " to " + upToSequence + " for " +
+                    "stream " + siddhiAppName + ":" + streamID + ". ");
+        } catch (IOException e) {
+            log.error("Error occurred while replaying the journal " + journalDir + " for stream " + siddhiAppName +
+                    ":" + streamID + ". ", e);
+        }
+        snapshotJournalSequence = afterSequence;
+    }
+
+    /**
+     * Configures the lower layer protocol used by the server to read the messages and write the acknowledgements.
+     * The context is shared by the sources configured alike, so it is configured and the server is created while
+     * holding the lock of the context. The frames are read through a {@link Hl7FilteringLowerLayerProtocol}, so
+     * that the messages dropped by the type filters of the sources of the port are acknowledged without being
+     * parsed.
+     *
+     * @param hapiContext - context of the server
+     */
+    protected void configureTransport(HapiContext hapiContext) {
+
+        MinLowerLayerProtocol mllp = new MinLowerLayerProtocol();
+        mllp.setCharset(charset);
+        hapiContext.setLowerLayerProtocol(new Hl7FilteringLowerLayerProtocol(mllp, port));
+    }
+
+    /**
+     * Releases the resources of the transport once the server configured by this source is stopped, which happens
+     * when the last source sharing its port disconnects.
+     */
+    protected void releaseTransport() {
+
     }
 
     @Override
     public void disconnect() {
 
-        if (hl7Service != null) {
-            hl7Service.stop();
+        if (registeredReceivingApp != null) {
+            Hl7ListenerRegistry.detach(port, registeredReceivingApp);
+        }
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        if (hapiContextConfiguration != null) {
+            Hl7HapiContextRegistry.release(hapiContextConfiguration);
+            hapiContextConfiguration = null;
         }
-
     }
 
     @Override
     public void destroy() {
 
+        if (sequenceCounters != null) {
+            sequenceCounters.close();
+        }
     }
 
     @Override
@@ -265,15 +758,137 @@ public class Hl7Source extends Source {
         hl7ReceivingApp.resume();
     }
 
+    /**
+     * Encodes the state into a compact binary form. The state is copied without pausing the source, holding the
+     * lock of the duplicate filter only while its entries are copied. The messages received but not yet emitted
+     * are either journaled or not yet acknowledged, so they are redelivered from the journal or by the sender.
+     */
     @Override
     public Map<String, Object> currentState() {
 
-        return null;
+        if (duplicateFilter == null && journal == null && sequenceCounters == null) {
+            return null;
+        }
+        long[][] dedupeSnapshot = duplicateFilter != null ? duplicateFilter.snapshot() : null;
+        Hl7Journal currentJournal = journal;
+        Map<String, Long> sequenceNumbers = null;
+        if (sequenceCounters != null) {
+            sequenceCounters.force();
+            sequenceNumbers = sequenceCounters.snapshot();
+        }
+        Hl7StateCodec.Writer writer = new Hl7StateCodec.Writer(dedupeSnapshot != null ?
+                dedupeSnapshot[0].length * 10 + 64 : 64);
+        writer.writeByte((dedupeSnapshot != null ? STATE_DEDUPE : 0) |
+                (currentJournal != null ? STATE_JOURNAL : 0) | (sequenceNumbers != null ? STATE_SEQUENCE : 0));
+        if (dedupeSnapshot != null) {
+            long[] keys = dedupeSnapshot[0];
+            long[] times = dedupeSnapshot[1];
+            writer.writeVarLong(keys.length);
+            long previousTime = 0;
+            for (int i = 0; i < keys.length; i++) {
+                // entries are oldest first, so the times are written as small differences
+                writer.writeLong(keys[i]).writeVarLong(times[i] - previousTime);
+                previousTime = times[i];
+            }
+        }
+        if (currentJournal != null) {
+            long emittedSequence = currentJournal.getEmittedWatermark();
+            writer.writeVarLong(emittedSequence);
+            // the previous snapshot is taken as persisted once the next one is requested
+            try {
+                currentJournal.truncate(snapshotJournalSequence);
+            } catch (IOException e) {
+                log.error("Error occurred while deleting the consumed segments of the journal " + journalDir +
+                        " for stream " + siddhiAppName + ":" + streamID + ". ", e);
+            }
+            snapshotJournalSequence = emittedSequence;
+        }
+        if (sequenceNumbers != null) {
+            writer.writeVarLong(sequenceNumbers.size());
+            for (Map.Entry<String, Long> sequenceNumber : sequenceNumbers.entrySet()) {
+                writer.writeString(sequenceNumber.getKey()).writeVarLong(sequenceNumber.getValue());
+            }
+        }
+        Map<String, Object> state = new HashMap<>();
+        state.put(Hl7Constants.STATE_ENCODED, writer.toByteArray());
+        return state;
     }
 
     @Override
     public void restoreState(Map<String, Object> map) {
-        //No state to restore
+
+        if (map == null || map.get(Hl7Constants.STATE_ENCODED) == null) {
+            return;
+        }
+        restoreEncodedState((byte[]) map.get(Hl7Constants.STATE_ENCODED));
+    }
+
+    private void restoreEncodedState(byte[] encodedState) {
+
+        try {
+            Hl7StateCodec.Reader reader = new Hl7StateCodec.Reader(encodedState);
+            int sections = reader.readByte();
+            if ((sections & STATE_DEDUPE) != 0) {
+                int entryCount = (int) reader.readVarLong();
+                long[] keys = new long[entryCount];
+                long[] times = new long[entryCount];
+                long previousTime = 0;
+                for (int i = 0; i < entryCount; i++) {
+                    keys[i] = reader.readLong();
+                    times[i] = previousTime + reader.readVarLong();
+                    previousTime = times[i];
+                }
+                restoreDuplicateFilter(keys, times);
+            }
+            if ((sections & STATE_JOURNAL) != 0) {
+                restoreJournal(reader.readVarLong());
+            }
+            if ((sections & STATE_SEQUENCE) != 0) {
+                int senderCount = (int) reader.readVarLong();
+                Map<String, Long> sequenceNumbers = new HashMap<>();
+                for (int i = 0; i < senderCount; i++) {
+                    sequenceNumbers.put(reader.readString(), reader.readVarLong());
+                }
+                restoreSequenceNumbers(sequenceNumbers);
+            }
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new Hl7SourceRuntimeException("Failed to decode the state restored for stream " + siddhiAppName +
+                    ":" + streamID + ". ", e);
+        }
+    }
+
+    private void restoreDuplicateFilter(long[] keys, long[] times) {
+
+        if (duplicateFilter != null) {
+            duplicateFilter.restore(keys, times);
+        }
+    }
+
+    private void restoreJournal(long journalSequence) {
+
+        if (journalDir == null) {
+            return;
+        }
+        if (journal != null) {
+            replayJournal(journalSequence);
+        } else {
+            restoredJournalSequence = journalSequence;
+        }
+    }
+
+    private void restoreSequenceNumbers(Map<String, Long> sequenceNumbers) {
+
+        if (sequenceCounters == null) {
+            return;
+        }
+        for (Map.Entry<String, Long> sequenceNumber : sequenceNumbers.entrySet()) {
+            try {
+                sequenceCounters.set(sequenceNumber.getKey(), sequenceNumber.getValue());
+            } catch (IOException e) {
+                log.error("Failed to restore the sequence number of '" + sequenceNumber.getKey() + "' for " +
+                        "stream " + siddhiAppName + ":" + streamID + ". ", e);
+            }
+        }
     }
 
     private RuntimeProfile getConformanceProfile(String profileFileName) {
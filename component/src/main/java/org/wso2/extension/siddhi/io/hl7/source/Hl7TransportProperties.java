@@ -0,0 +1,133 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Constants;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Er7Utils;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@code Hl7TransportProperties} extracts the transport properties requested by the mapping of a source, so that
+ * header fields and connection details can be mapped to attributes without parsing the payload again. A property
+ * is either a field or a component of the MSH segment, e.g. {@code MSH-10} or {@code MSH-9.2}, read directly from
+ * the ER7 encoded message, or one of {@code remote.address}, {@code remote.port} and {@code received.time}, taken
+ * from the metadata of the connection.
+ */
+public class Hl7TransportProperties {
+
+    private static final int REMOTE_ADDRESS = -1;
+    private static final int REMOTE_PORT = -2;
+    private static final int RECEIVED_TIME = -3;
+    private int[] fieldNumbers;
+    private int[] componentNumbers;
+
+    /**
+     * Compiles the requested properties.
+     *
+     * @param propertyNames - names of the requested transport properties
+     * @throws IllegalArgumentException if a property is not supported
+     */
+    public Hl7TransportProperties(String[] propertyNames) {
+
+        this.fieldNumbers = new int[propertyNames.length];
+        this.componentNumbers = new int[propertyNames.length];
+        for (int i = 0; i < propertyNames.length; i++) {
+            String name = propertyNames[i].trim();
+            if (Hl7Constants.TRP_REMOTE_ADDRESS.equals(name)) {
+                fieldNumbers[i] = REMOTE_ADDRESS;
+            } else if (Hl7Constants.TRP_REMOTE_PORT.equals(name)) {
+                fieldNumbers[i] = REMOTE_PORT;
+            } else if (Hl7Constants.TRP_RECEIVED_TIME.equals(name)) {
+                fieldNumbers[i] = RECEIVED_TIME;
+            } else {
+                compileField(i, name);
+            }
+        }
+    }
+
+    /**
+     * Compiles the requested properties.
+     *
+     * @return the properties, or null if no property is requested
+     * @throws IllegalArgumentException if a property is not supported
+     */
+    public static Hl7TransportProperties create(String[] propertyNames) {
+
+        return propertyNames == null || propertyNames.length == 0 ? null : new Hl7TransportProperties(propertyNames);
+    }
+
+    private void compileField(int index, String name) {
+
+        String upperCaseName = name.toUpperCase(Locale.ENGLISH);
+        if (upperCaseName.startsWith("MSH-")) {
+            String[] numbers = upperCaseName.substring(4).split("\\.", -1);
+            try {
+                fieldNumbers[index] = Integer.parseInt(numbers[0]);
+                componentNumbers[index] = numbers.length == 2 ? Integer.parseInt(numbers[1]) : 0;
+                if (numbers.length <= 2 && fieldNumbers[index] > 0 && componentNumbers[index] >= 0) {
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+        }
+        throw new IllegalArgumentException("Unsupported transport property '" + name + "', which should be a MSH " +
+                "field such as MSH-10 or MSH-9.1, " + Hl7Constants.TRP_REMOTE_ADDRESS + ", " +
+                Hl7Constants.TRP_REMOTE_PORT + " or " + Hl7Constants.TRP_RECEIVED_TIME + ". ");
+    }
+
+    /**
+     * Extracts the values of the requested properties.
+     *
+     * @param er7Msg       - ER7 encoded message
+     * @param metaData     - metadata of the connection the message is received from, or null if it is not known
+     * @param receivedTime - time at which the message is received, or -1 if it is not known
+     * @return values of the properties, in the order they are requested
+     */
+    public String[] extract(String er7Msg, Map<String, Object> metaData, long receivedTime) {
+
+        String[] values = new String[fieldNumbers.length];
+        for (int i = 0; i < fieldNumbers.length; i++) {
+            switch (fieldNumbers[i]) {
+                case REMOTE_ADDRESS:
+                    values[i] = getMetaData(metaData, Hl7Constants.HAPI_SENDING_IP);
+                    break;
+                case REMOTE_PORT:
+                    values[i] = getMetaData(metaData, Hl7Constants.HAPI_SENDING_PORT);
+                    break;
+                case RECEIVED_TIME:
+                    values[i] = receivedTime < 0 ? null : String.valueOf(receivedTime);
+                    break;
+                default:
+                    String field = Hl7Er7Utils.getField(er7Msg, "MSH", fieldNumbers[i]);
+                    values[i] = componentNumbers[i] == 0 ? field :
+                            Hl7Er7Utils.getComponent(er7Msg, field, componentNumbers[i]);
+            }
+        }
+        return values;
+    }
+
+    private static String getMetaData(Map<String, Object> metaData, String key) {
+
+        Object value = metaData == null ? null : metaData.get(key);
+        return value == null ? null : value.toString();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * {@code Hl7TypeFilter} selects the message types a source is interested in. Each entry is either a message type,
+ * e.g. {@code QRY}, matching all its trigger events, or a message type and a trigger event, e.g. {@code ADT^A31}.
+ * A message is accepted if it matches an included entry, or any entry when nothing is included, and matches no
+ * excluded entry. The messages which are not accepted are acknowledged but neither parsed nor emitted.
+ */
+public class Hl7TypeFilter {
+
+    private Set<String> includedTypes;
+    private Set<String> excludedTypes;
+
+    /**
+     * Creates the filter.
+     *
+     * @param includedTypes - comma separated accepted types, or null to accept any type which is not excluded
+     * @param excludedTypes - comma separated dropped types, or null
+     * @throws IllegalArgumentException if an entry is not a message type optionally followed by a trigger event
+     */
+    public Hl7TypeFilter(String includedTypes, String excludedTypes) {
+
+        this.includedTypes = compile(includedTypes);
+        this.excludedTypes = compile(excludedTypes);
+    }
+
+    /**
+     * Creates the filter of the given options.
+     *
+     * @return the filter, or null if neither option is given
+     * @throws IllegalArgumentException if an entry is not a message type optionally followed by a trigger event
+     */
+    public static Hl7TypeFilter create(String includedTypes, String excludedTypes) {
+
+        Hl7TypeFilter typeFilter = new Hl7TypeFilter(includedTypes, excludedTypes);
+        return typeFilter.includedTypes == null && typeFilter.excludedTypes == null ? null : typeFilter;
+    }
+
+    /**
+     * Checks whether the message of the given type is processed by the source.
+     *
+     * @param messageType  - message type (MSH-9.1)
+     * @param triggerEvent - trigger event (MSH-9.2), may be null
+     */
+    public boolean accepts(String messageType, String triggerEvent) {
+
+        String type = messageType == null ? "" : messageType.toUpperCase(Locale.ENGLISH);
+        String typeAndEvent = triggerEvent == null || triggerEvent.isEmpty() ? null :
+                type + "^" + triggerEvent.toUpperCase(Locale.ENGLISH);
+        if (excludedTypes != null && matches(excludedTypes, type, typeAndEvent)) {
+            return false;
+        }
+        return includedTypes == null || matches(includedTypes, type, typeAndEvent);
+    }
+
+    private static boolean matches(Set<String> types, String type, String typeAndEvent) {
+
+        return types.contains(type) || (typeAndEvent != null && types.contains(typeAndEvent));
+    }
+
+    private static Set<String> compile(String types) {
+
+        if (types == null || types.trim().isEmpty()) {
+            return null;
+        }
+        Set<String> compiled = new HashSet<>();
+        for (String type : types.split(",")) {
+            String trimmed = type.trim().toUpperCase(Locale.ENGLISH);
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int separator = trimmed.indexOf('^');
+            if (separator == 0 || separator == trimmed.length() - 1 ||
+                    (separator > 0 && trimmed.indexOf('^', separator + 1) >= 0)) {
+                throw new IllegalArgumentException("Invalid message type '" + type.trim() + "', which should be " +
+                        "a message type such as QRY or a message type and a trigger event such as ADT^A31. ");
+            }
+            compiled.add(trimmed);
+        }
+        return Collections.unmodifiableSet(compiled);
+    }
+
+    @Override
+    public String toString() {
+
+        return "included types " + (includedTypes == null ? "*" : includedTypes.toString()) + ", excluded types " +
+                (excludedTypes == null ? "[]" : excludedTypes.toString());
+    }
+}
@@ -45,4 +45,104 @@ public class Hl7Constants {
     public static final String DEFAULT_CONFORMANCE_PROFILE_USED = "false";
     public static final String HL7_CONFORMANCE_PROFILE_FILE = "hl7.conformance.profile.file.path";
     public static final String DEFAULT_CONFORMANCE_PROFILE_FILE = "";
+    public static final String HL7_RAW_MODE = "hl7.raw.mode";
+    public static final String DEFAULT_HL7_RAW_MODE = "false";
+    public static final String HL7_RAW_MSH_VALIDATION = "hl7.raw.msh.validation";
+    public static final String DEFAULT_HL7_RAW_MSH_VALIDATION = "true";
+    public static final String HL7_PARTITION_KEY = "hl7.partition.key";
+    public static final String HL7_PARTITION_COUNT = "hl7.partition.count";
+    public static final String DEFAULT_HL7_PARTITION_COUNT = "1";
+    public static final String HL7_PARTITION_QUEUE_SIZE = "hl7.partition.queue.size";
+    public static final String DEFAULT_HL7_PARTITION_QUEUE_SIZE = "1024";
+    public static final String HL7_BATCH_SIZE = "batch.size";
+    public static final String DEFAULT_HL7_BATCH_SIZE = "1";
+    public static final String HL7_BATCH_MAX_DELAY = "batch.max.delay.ms";
+    public static final String DEFAULT_HL7_BATCH_MAX_DELAY = "1000";
+    public static final String HL7_ACK_MODE = "hl7.ack.mode";
+    public static final String DEFAULT_HL7_ACK_MODE = "always";
+    public static final String ACK_MODE_ALWAYS = "always";
+    public static final String ACK_MODE_NEVER = "never";
+    public static final String ACK_MODE_ERROR_ONLY = "error-only";
+    public static final String HL7_ACK_STREAM = "ack.stream";
+    public static final String HL7_STAMP_CONTROL_ID = "hl7.stamp.control.id";
+    public static final String DEFAULT_HL7_STAMP_CONTROL_ID = "false";
+    public static final String HL7_STAMP_TIMESTAMP = "hl7.stamp.timestamp";
+    public static final String DEFAULT_HL7_STAMP_TIMESTAMP = "false";
+    public static final String HL7_CONTROL_ID_PREFIX = "hl7.control.id.prefix";
+    public static final String HL7_CONTROL_ID_RESERVE_FILE = "hl7.control.id.reserve.file";
+    public static final String HL7_WRITE_COALESCING = "hl7.write.coalescing";
+    public static final String DEFAULT_HL7_WRITE_COALESCING = "false";
+    public static final String HL7_WRITE_COALESCING_WINDOW = "hl7.write.coalescing.window.us";
+    public static final String DEFAULT_HL7_WRITE_COALESCING_WINDOW = "50";
+    public static final String HL7_HTTP_WORKER_POOL_SIZE = "hl7.http.worker.pool.size";
+    public static final String DEFAULT_HL7_HTTP_WORKER_POOL_SIZE = "20";
+    public static final String HL7_HTTP_MAX_IN_FLIGHT = "hl7.http.max.in.flight";
+    public static final String DEFAULT_HL7_HTTP_MAX_IN_FLIGHT = "1";
+    public static final String HL7_DEDUPE_WINDOW = "hl7.dedupe.window.ms";
+    public static final String DEFAULT_HL7_DEDUPE_WINDOW = "0";
+    public static final String HL7_DEDUPE_MAX_ENTRIES = "hl7.dedupe.max.entries";
+    public static final String DEFAULT_HL7_DEDUPE_MAX_ENTRIES = "100000";
+    public static final String HL7_JOURNAL_DIR = "hl7.journal.dir";
+    public static final String HL7_JOURNAL_SEGMENT_SIZE = "hl7.journal.segment.size";
+    public static final String DEFAULT_HL7_JOURNAL_SEGMENT_SIZE = "67108864";
+    public static final String HL7_SEQUENCE_FILE = "hl7.sequence.file";
+    public static final String HL7_SEQUENCE_MAX_SENDERS = "hl7.sequence.max.senders";
+    public static final String DEFAULT_HL7_SEQUENCE_MAX_SENDERS = "1024";
+    public static final String HL7_ROUTE_MESSAGE_TYPE = "hl7.route.message.type";
+    public static final String HL7_ROUTE_TRIGGER_EVENT = "hl7.route.trigger.event";
+    public static final String HL7_ROUTE_VERSION = "hl7.route.version";
+    public static final String HL7_ROUTE_SENDING_APPLICATION = "hl7.route.sending.application";
+    public static final String HL7_ROUTE_RECEIVING_APPLICATION = "hl7.route.receiving.application";
+    public static final String HL7_ROUTE_RECEIVING_FACILITY = "hl7.route.receiving.facility";
+    public static final String HL7_INCLUDE_TYPES = "hl7.include.types";
+    public static final String HL7_EXCLUDE_TYPES = "hl7.exclude.types";
+    public static final String HL7_LAZY_PARSING = "hl7.lazy.parsing";
+    public static final String DEFAULT_HL7_LAZY_PARSING = "false";
+    public static final String HL7_MODEL = "hl7.model";
+    public static final String DEFAULT_HL7_MODEL = "default";
+    public static final String HL7_MODEL_VERSION = "hl7.model.version";
+    public static final String DEFAULT_HL7_MODEL_VERSION = "2.5.1";
+    public static final String HL7_ALLOWED_VERSIONS = "hl7.allowed.versions";
+    public static final String HL7_WARMUP_TEMPLATES = "hl7.warmup.templates";
+    public static final String DEFAULT_HL7_WARMUP_TEMPLATES = "none";
+    public static final String HL7_WARMUP_FILES = "hl7.warmup.files";
+    public static final String HL7_WARMUP_ITERATIONS = "hl7.warmup.iterations";
+    public static final String DEFAULT_HL7_WARMUP_ITERATIONS = "100";
+    public static final String TRP_REMOTE_ADDRESS = "remote.address";
+    public static final String TRP_REMOTE_PORT = "remote.port";
+    public static final String TRP_RECEIVED_TIME = "received.time";
+    public static final String HAPI_SENDING_IP = "SENDING_IP";
+    public static final String HAPI_SENDING_PORT = "SENDING_PORT";
+    public static final String HAPI_RAW_MESSAGE = "raw-message";
+    public static final String HL7_FILE_PATH = "file.path";
+    public static final String HL7_DIR_PATH = "dir.path";
+    public static final String HL7_FILE_EXTENSION = "file.extension";
+    public static final String DEFAULT_HL7_FILE_EXTENSION = "hl7";
+    public static final String HL7_ACTION_AFTER_PROCESS = "action.after.process";
+    public static final String DEFAULT_HL7_ACTION_AFTER_PROCESS = "delete";
+    public static final String ACTION_DELETE = "delete";
+    public static final String ACTION_MOVE = "move";
+    public static final String HL7_MOVE_AFTER_PROCESS = "move.after.process";
+    public static final String HL7_FILE_PREFIX = "file.prefix";
+    public static final String DEFAULT_HL7_FILE_PREFIX = "hl7-batch";
+    public static final String HL7_FILE_MAX_SIZE = "hl7.file.max.size";
+    public static final String DEFAULT_HL7_FILE_MAX_SIZE = "67108864";
+    public static final String HL7_FILE_MAX_AGE = "hl7.file.max.age.ms";
+    public static final String DEFAULT_HL7_FILE_MAX_AGE = "60000";
+    public static final String HL7_FILE_FSYNC = "hl7.file.fsync";
+    public static final String DEFAULT_HL7_FILE_FSYNC = "rollover";
+    public static final String FSYNC_NONE = "none";
+    public static final String FSYNC_ROLLOVER = "rollover";
+    public static final String FSYNC_ALWAYS = "always";
+    public static final String HL7_FILE_BUFFER_SIZE = "hl7.file.buffer.size";
+    public static final String DEFAULT_HL7_FILE_BUFFER_SIZE = "65536";
+    public static final String HL7_DIR_WORKER_POOL_SIZE = "hl7.dir.worker.pool.size";
+    public static final String DEFAULT_HL7_DIR_WORKER_POOL_SIZE = "4";
+    public static final String STATE_ENCODED = "encodedState";
+    public static final String STATE_FILE_OFFSET = "offset";
+    public static final String STATE_FILE_OFFSETS = "fileOffsets";
+    public static final String HL7_TIMESTAMP_FORMAT = "yyyyMMddHHmmss.SSSZ";
+    public static final byte MLLP_START_BLOCK = 0x0b;
+    public static final byte MLLP_END_BLOCK = 0x1c;
+    public static final byte MLLP_CARRIAGE_RETURN = 0x0d;
 }
@@ -0,0 +1,250 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class contains the utility functions used to read fields directly from ER7 encoded hl7 messages
+ * without building a HAPI message model.
+ */
+public class Hl7Er7Utils {
+
+    private static final String MSH = "MSH";
+    private static final String BHS = "BHS";
+    private static final String FHS = "FHS";
+
+    /**
+     * Returns the value of a field from the first occurrence of the given segment.
+     *
+     * @param message     - ER7 encoded hl7 message
+     * @param segmentName - name of the segment, e.g. MSH, MSA, PID
+     * @param fieldNo     - one based field number as used in hl7, e.g. 10 for MSH-10
+     * @return value of the field or null if the segment or the field does not exist
+     */
+    public static String getField(String message, String segmentName, int fieldNo) {
+
+        if (!hasHeader(message) || fieldNo < 1) {
+            return null;
+        }
+        char fieldSeparator = message.charAt(3);
+        int segmentStart = findSegment(message, segmentName, fieldSeparator, 0);
+        if (segmentStart < 0) {
+            return null;
+        }
+        return getField(message, segmentStart, segmentName, fieldNo, fieldSeparator);
+    }
+
+    /**
+     * Returns the value of a field from every occurrence of the given segment, e.g. the error codes of all the
+     * ERR segments in an acknowledgement.
+     *
+     * @param message     - ER7 encoded hl7 message
+     * @param segmentName - name of the segment
+     * @param fieldNo     - one based field number as used in hl7
+     * @return values of the field in the order of the segments, segments without the field are skipped
+     */
+    public static List<String> getFields(String message, String segmentName, int fieldNo) {
+
+        List<String> values = new ArrayList<>();
+        if (!hasHeader(message) || fieldNo < 1) {
+            return values;
+        }
+        char fieldSeparator = message.charAt(3);
+        int segmentStart = findSegment(message, segmentName, fieldSeparator, 0);
+        while (segmentStart >= 0) {
+            String value = getField(message, segmentStart, segmentName, fieldNo, fieldSeparator);
+            if (value != null) {
+                values.add(value);
+            }
+            segmentStart = findSegment(message, segmentName, fieldSeparator,
+                    findSegmentEnd(message, segmentStart));
+        }
+        return values;
+    }
+
+    private static String getField(String message, int segmentStart, String segmentName, int fieldNo,
+                                   char fieldSeparator) {
+
+        int segmentEnd = findSegmentEnd(message, segmentStart);
+        boolean header = isHeaderSegment(segmentName);
+        if (header && fieldNo == 1) {
+            return String.valueOf(fieldSeparator);
+        }
+        int tokenIndex = header ? fieldNo - 1 : fieldNo;
+        int start = segmentStart + 3;
+        for (int i = 1; i < tokenIndex; i++) {
+            start = message.indexOf(fieldSeparator, start + 1);
+            if (start < 0 || start >= segmentEnd) {
+                return null;
+            }
+        }
+        int end = message.indexOf(fieldSeparator, start + 1);
+        if (end < 0 || end > segmentEnd) {
+            end = segmentEnd;
+        }
+        return message.substring(start + 1, end);
+    }
+
+    /**
+     * Replaces the value of a field in the first occurrence of the given segment. Missing fields are added.
+     *
+     * @param message     - ER7 encoded hl7 message
+     * @param segmentName - name of the segment
+     * @param fieldNo     - one based field number as used in hl7, should be greater than 2 for header segments
+     * @param value       - new value of the field, already escaped
+     * @return the message with the new field value, or the same message if the segment does not exist
+     */
+    public static String setField(String message, String segmentName, int fieldNo, String value) {
+
+        boolean header = isHeaderSegment(segmentName);
+        if (!hasHeader(message) || fieldNo < 1 || (header && fieldNo < 3)) {
+            return message;
+        }
+        char fieldSeparator = message.charAt(3);
+        int segmentStart = findSegment(message, segmentName, fieldSeparator, 0);
+        if (segmentStart < 0) {
+            return message;
+        }
+        int segmentEnd = findSegmentEnd(message, segmentStart);
+        int tokenIndex = header ? fieldNo - 1 : fieldNo;
+        int start = segmentStart + 3;
+        int missingSeparators = 0;
+        for (int i = 1; i < tokenIndex; i++) {
+            int next = message.indexOf(fieldSeparator, start + 1);
+            if (next < 0 || next >= segmentEnd) {
+                missingSeparators = tokenIndex - i;
+                break;
+            }
+            start = next;
+        }
+        StringBuilder stamped = new StringBuilder(message.length() + value.length() + missingSeparators + 1);
+        if (missingSeparators > 0) {
+            stamped.append(message, 0, segmentEnd);
+            for (int i = 0; i < missingSeparators; i++) {
+                stamped.append(fieldSeparator);
+            }
+            return stamped.append(value).append(message, segmentEnd, message.length()).toString();
+        }
+        int end = message.indexOf(fieldSeparator, start + 1);
+        if (end < 0 || end > segmentEnd) {
+            end = segmentEnd;
+        }
+        return stamped.append(message, 0, start + 1).append(value).append(message, end, message.length())
+                .toString();
+    }
+
+    /**
+     * Returns a component of the first repetition of a field value.
+     *
+     * @param message     - ER7 encoded hl7 message which defines the encoding characters
+     * @param fieldValue  - value of the field as returned by {@link #getField(String, String, int)}
+     * @param componentNo - one based component number
+     * @return value of the component or null if the component does not exist
+     */
+    public static String getComponent(String message, String fieldValue, int componentNo) {
+
+        if (fieldValue == null || !hasHeader(message) || componentNo < 1) {
+            return null;
+        }
+        char componentSeparator = message.charAt(4);
+        char repetitionSeparator = message.charAt(5);
+        int end = fieldValue.indexOf(repetitionSeparator);
+        if (end < 0) {
+            end = fieldValue.length();
+        }
+        int start = -1;
+        for (int i = 1; i < componentNo; i++) {
+            start = fieldValue.indexOf(componentSeparator, start + 1);
+            if (start < 0 || start >= end) {
+                return null;
+            }
+        }
+        int componentEnd = fieldValue.indexOf(componentSeparator, start + 1);
+        if (componentEnd < 0 || componentEnd > end) {
+            componentEnd = end;
+        }
+        return fieldValue.substring(start + 1, componentEnd);
+    }
+
+    /**
+     * Does a cheap sanity check of the MSH segment of an ER7 encoded message. The message type (MSH-9),
+     * the message control id (MSH-10), the processing id (MSH-11) and the version id (MSH-12) should be present.
+     *
+     * @param message - ER7 encoded hl7 message
+     * @return true if the MSH segment contains the mandatory header fields
+     */
+    public static boolean isValidMshSegment(String message) {
+
+        if (message == null || message.length() < 8 || !message.startsWith(MSH)) {
+            return false;
+        }
+        return !isEmpty(getField(message, MSH, 9)) && !isEmpty(getField(message, MSH, 10)) &&
+                !isEmpty(getField(message, MSH, 11)) && !isEmpty(getField(message, MSH, 12));
+    }
+
+    private static boolean hasHeader(String message) {
+
+        return message != null && message.length() > 8 && (message.startsWith(MSH) || message.startsWith(BHS) ||
+                message.startsWith(FHS));
+    }
+
+    private static boolean isHeaderSegment(String segmentName) {
+
+        return MSH.equals(segmentName) || BHS.equals(segmentName) || FHS.equals(segmentName);
+    }
+
+    private static boolean isEmpty(String value) {
+
+        return value == null || value.isEmpty();
+    }
+
+    private static int findSegment(String message, String segmentName, char fieldSeparator, int from) {
+
+        int length = message.length();
+        int position = from;
+        while (position < length && (message.charAt(position) == '\r' || message.charAt(position) == '\n')) {
+            position++;
+        }
+        while (position < length) {
+            if (message.startsWith(segmentName, position) && position + 3 < length &&
+                    message.charAt(position + 3) == fieldSeparator) {
+                return position;
+            }
+            position = findSegmentEnd(message, position);
+            while (position < length && (message.charAt(position) == '\r' || message.charAt(position) == '\n')) {
+                position++;
+            }
+        }
+        return -1;
+    }
+
+    private static int findSegmentEnd(String message, int segmentStart) {
+
+        int length = message.length();
+        for (int i = segmentStart; i < length; i++) {
+            char c = message.charAt(i);
+            if (c == '\r' || c == '\n') {
+                return i;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.util;
+
+import ca.uhn.hl7v2.HapiContext;
+import org.apache.log4j.Logger;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@code Hl7HapiContextRegistry} keeps the HAPI contexts of the JVM, one for each configuration, so that the
+ * sources and sinks of all the Siddhi apps which are configured alike share the parsers and model classes of
+ * one context instead of creating their own, while each of them keeps its own connections. A context is created
+ * by the first source or sink acquiring its configuration when it connects, and is dropped when the last one
+ * releasing it disconnects. The configuration should describe everything the factory sets on the context, e.g.
+ * the charset, TLS keystore and model class factory, as a context is never reconfigured once it is shared.
+ */
+public class Hl7HapiContextRegistry {
+
+    private static final Logger log = Logger.getLogger(Hl7HapiContextRegistry.class);
+    private static final Map<String, SharedContext> contexts = new HashMap<>();
+
+    private Hl7HapiContextRegistry() {
+
+    }
+
+    /**
+     * Acquires the context of the configuration, creating it if it is not used by another source or sink.
+     *
+     * @param configuration - description of the configuration of the context
+     * @param factory       - creates and configures the context
+     * @return the shared context
+     */
+    public static HapiContext acquire(String configuration, ContextFactory factory) {
+
+        synchronized (contexts) {
+            SharedContext sharedContext = contexts.get(configuration);
+            if (sharedContext == null) {
+                sharedContext = new SharedContext(factory.create());
+                contexts.put(configuration, sharedContext);
+                if (log.isDebugEnabled()) {
+                    log.debug("Created the hl7 context " + configuration + ". ");
+                }
+            }
+            sharedContext.references++;
+            return sharedContext.hapiContext;
+        }
+    }
+
+    /**
+     * Releases a context acquired with the configuration, dropping it if no other source or sink uses it.
+     *
+     * @param configuration - description of the configuration the context is acquired with
+     */
+    public static void release(String configuration) {
+
+        synchronized (contexts) {
+            SharedContext sharedContext = contexts.get(configuration);
+            if (sharedContext != null && --sharedContext.references == 0) {
+                contexts.remove(configuration);
+                if (log.isDebugEnabled()) {
+                    log.debug("Dropped the hl7 context " + configuration + ". ");
+                }
+            }
+        }
+    }
+
+    /**
+     * Describes the keystore of the TLS socket factory of a context, for the configuration of the context. The
+     * passphrase is included as a digest, so that it is not written to the logs.
+     *
+     * @return the identity of the keystore, or false if TLS is not enabled
+     */
+    public static String getKeystoreIdentity(boolean tlsEnabled, String keystoreType, String keystoreFilepath,
+                                             String keystorePassphrase) {
+
+        if (!tlsEnabled) {
+            return "false";
+        }
+        String passphraseDigest;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+                    String.valueOf(keystorePassphrase).getBytes(StandardCharsets.UTF_8));
+            passphraseDigest = new BigInteger(1, digest).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            passphraseDigest = Integer.toHexString(String.valueOf(keystorePassphrase).hashCode());
+        }
+        return keystoreType + ":" + Paths.get(keystoreFilepath).toAbsolutePath().normalize() + ":" +
+                passphraseDigest;
+    }
+
+    /**
+     * Returns the number of sources and sinks using the context of the configuration.
+     */
+    public static int getReferences(String configuration) {
+
+        synchronized (contexts) {
+            SharedContext sharedContext = contexts.get(configuration);
+            return sharedContext == null ? 0 : sharedContext.references;
+        }
+    }
+
+    /**
+     * Creates the context of a configuration.
+     */
+    public interface ContextFactory {
+
+        HapiContext create();
+    }
+
+    private static class SharedContext {
+
+        private HapiContext hapiContext;
+        private int references;
+
+        private SharedContext(HapiContext hapiContext) {
+
+            this.hapiContext = hapiContext;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.util;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * {@code Hl7SequenceCounterFile} keeps the HL7 sequence numbers (MSH-13) of a set of peers in a memory mapped
+ * file. The file is divided into slots of 128 bytes, each holding the length and the UTF-8 bytes of the key
+ * followed by the counter and the CRC32 of the key and the counter. Updates are written to the mapped file, so
+ * they survive a crash of the process without forcing the file, and a slot torn by a crash of the host fails its
+ * checksum and is read back as an unknown counter, which the sequence number protocol resynchronizes.
+ */
+public class Hl7SequenceCounterFile {
+
+    private static final Logger log = Logger.getLogger(Hl7SequenceCounterFile.class);
+    private static final int SLOT_SIZE = 128;
+    private static final int KEY_OFFSET = 4;
+    private static final int MAX_KEY_LENGTH = 108;
+    private static final int VALUE_OFFSET = 112;
+    private static final int CRC_OFFSET = 120;
+    private Path filePath;
+    private int slotCount;
+    private MappedByteBuffer buffer;
+    private Map<String, Integer> slots = new HashMap<>();
+    private Map<String, Long> counters = new HashMap<>();
+
+    /**
+     * Creates the counter file, which should be opened before use.
+     *
+     * @param filePath  - path of the file
+     * @param slotCount - maximum number of counters kept in the file
+     */
+    public Hl7SequenceCounterFile(Path filePath, int slotCount) {
+
+        this.filePath = filePath;
+        this.slotCount = slotCount;
+    }
+
+    /**
+     * Maps the file, creating it if it does not exist, and loads the counters of the valid slots.
+     */
+    public synchronized void open() throws IOException {
+
+        Path parent = filePath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slotCount * SLOT_SIZE);
+        }
+        slots.clear();
+        counters.clear();
+        CRC32 crc = new CRC32();
+        for (int slot = 0; slot < slotCount; slot++) {
+            int position = slot * SLOT_SIZE;
+            int keyLength = buffer.getInt(position);
+            if (keyLength <= 0 || keyLength > MAX_KEY_LENGTH) {
+                continue;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            for (int i = 0; i < keyLength; i++) {
+                keyBytes[i] = buffer.get(position + KEY_OFFSET + i);
+            }
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            long value = buffer.getLong(position + VALUE_OFFSET);
+            slots.put(key, slot);
+            if (checksum(crc, keyBytes, value) == buffer.getInt(position + CRC_OFFSET)) {
+                counters.put(key, value);
+            } else {
+                log.warn("Ignoring the corrupted sequence number of '" + key + "' in " + filePath + ". ");
+            }
+        }
+    }
+
+    /**
+     * Returns the counter of the given key.
+     *
+     * @param key          - key of the peer
+     * @param defaultValue - value returned if the counter is unknown
+     */
+    public synchronized long get(String key, long defaultValue) {
+
+        Long value = counters.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Updates the counter of the given key, allocating a slot for a new key.
+     *
+     * @param key   - key of the peer
+     * @param value - new value of the counter
+     * @throws IOException if the key is too long or all the slots are used
+     */
+    public synchronized void set(String key, long value) throws IOException {
+
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            if (keyBytes.length == 0 || keyBytes.length > MAX_KEY_LENGTH) {
+                throw new IOException("The sequence number key '" + key + "' should have 1 to " + MAX_KEY_LENGTH +
+                        " bytes. ");
+            }
+            if (slots.size() >= slotCount) {
+                throw new IOException("All the " + slotCount + " sequence number slots of " + filePath +
+                        " are used. ");
+            }
+            slot = slots.size();
+            int position = slot * SLOT_SIZE;
+            for (int i = 0; i < keyBytes.length; i++) {
+                buffer.put(position + KEY_OFFSET + i, keyBytes[i]);
+            }
+            buffer.putInt(position, keyBytes.length);
+            slots.put(key, slot);
+        }
+        int position = slot * SLOT_SIZE;
+        buffer.putLong(position + VALUE_OFFSET, value);
+        buffer.putInt(position + CRC_OFFSET, checksum(new CRC32(), keyBytes, value));
+        counters.put(key, value);
+    }
+
+    /**
+     * Clears all the slots, so that the counters of the keys which are no longer used do not keep their slots.
+     */
+    public synchronized void reset() {
+
+        for (int slot = 0; slot < slotCount; slot++) {
+            buffer.putInt(slot * SLOT_SIZE, 0);
+        }
+        slots.clear();
+        counters.clear();
+    }
+
+    /**
+     * Returns a copy of the known counters.
+     */
+    public synchronized Map<String, Long> snapshot() {
+
+        return new HashMap<>(counters);
+    }
+
+    /**
+     * Forces the updates to the storage device.
+     */
+    public synchronized void force() {
+
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    public synchronized void close() {
+
+        force();
+        buffer = null;
+    }
+
+    private static int checksum(CRC32 crc, byte[] keyBytes, long value) {
+
+        crc.reset();
+        crc.update(keyBytes);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (value >>> shift));
+        }
+        return (int) crc.getValue();
+    }
+}
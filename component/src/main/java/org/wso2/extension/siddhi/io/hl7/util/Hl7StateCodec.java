@@ -0,0 +1,168 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.util;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@code Hl7StateCodec} encodes the state of the hl7 sources and sinks into a compact binary form. Numbers are
+ * written as variable length integers, so that small values such as counters and the differences between
+ * consecutive timestamps take one or two bytes, and strings are written as their UTF-8 bytes prefixed by the
+ * length. Each encoded state starts with a version byte.
+ */
+public class Hl7StateCodec {
+
+    public static final byte VERSION = 1;
+
+    private Hl7StateCodec() {
+
+    }
+
+    /**
+     * Writes the state into a growing byte array.
+     */
+    public static class Writer {
+
+        private byte[] bytes;
+        private int length;
+
+        public Writer(int initialCapacity) {
+
+            this.bytes = new byte[Math.max(initialCapacity, 16)];
+            writeByte(VERSION);
+        }
+
+        public Writer writeByte(int value) {
+
+            ensureCapacity(1);
+            bytes[length++] = (byte) value;
+            return this;
+        }
+
+        /**
+         * Writes a fixed length long, used for values such as hashes which do not benefit from variable length
+         * encoding.
+         */
+        public Writer writeLong(long value) {
+
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[length++] = (byte) (value >>> shift);
+            }
+            return this;
+        }
+
+        /**
+         * Writes a zig-zag encoded variable length long, taking one byte for each 7 bits of the magnitude.
+         */
+        public Writer writeVarLong(long value) {
+
+            ensureCapacity(10);
+            long zigZag = (value << 1) ^ (value >> 63);
+            while ((zigZag & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((zigZag & 0x7F) | 0x80);
+                zigZag >>>= 7;
+            }
+            bytes[length++] = (byte) zigZag;
+            return this;
+        }
+
+        public Writer writeString(String value) {
+
+            byte[] stringBytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(stringBytes.length);
+            ensureCapacity(stringBytes.length);
+            System.arraycopy(stringBytes, 0, bytes, length, stringBytes.length);
+            length += stringBytes.length;
+            return this;
+        }
+
+        public byte[] toByteArray() {
+
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private void ensureCapacity(int extra) {
+
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+
+    /**
+     * Reads the state written by a {@link Writer}.
+     */
+    public static class Reader {
+
+        private ByteBuffer buffer;
+
+        /**
+         * Creates the reader.
+         *
+         * @param bytes - encoded state
+         * @throws IllegalArgumentException if the state is of an unknown version
+         */
+        public Reader(byte[] bytes) {
+
+            this.buffer = ByteBuffer.wrap(bytes);
+            byte version = bytes.length > 0 ? buffer.get() : -1;
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unknown version " + version + " of the encoded hl7 state. ");
+            }
+        }
+
+        public int readByte() {
+
+            return buffer.get() & 0xFF;
+        }
+
+        public long readLong() {
+
+            return buffer.getLong();
+        }
+
+        public long readVarLong() {
+
+            long zigZag = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                zigZag |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (zigZag >>> 1) ^ -(zigZag & 1);
+                }
+            }
+            throw new IllegalArgumentException("Malformed variable length number in the encoded hl7 state. ");
+        }
+
+        public String readString() {
+
+            long length = readVarLong();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            byte[] stringBytes = new byte[(int) length];
+            buffer.get(stringBytes);
+            return new String(stringBytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * {@code Hl7TimestampCache} formats the current time in the hl7 TS format. The formatted value is cached and
+ * shared by all threads for the rest of the millisecond, so the date is formatted at most once per millisecond.
+ */
+public class Hl7TimestampCache {
+
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+
+            return new SimpleDateFormat(Hl7Constants.HL7_TIMESTAMP_FORMAT, Locale.ENGLISH);
+        }
+    };
+    private static volatile CachedTimestamp cachedTimestamp = new CachedTimestamp(-1, null);
+
+    public static String now() {
+
+        long currentTime = System.currentTimeMillis();
+        CachedTimestamp cached = cachedTimestamp;
+        if (cached.time == currentTime) {
+            return cached.formatted;
+        }
+        String formatted = DATE_FORMAT.get().format(new Date(currentTime));
+        cachedTimestamp = new CachedTimestamp(currentTime, formatted);
+        return formatted;
+    }
+
+    private static class CachedTimestamp {
+
+        private final long time;
+        private final String formatted;
+
+        private CachedTimestamp(long time, String formatted) {
+
+            this.time = time;
+            this.formatted = formatted;
+        }
+    }
+}
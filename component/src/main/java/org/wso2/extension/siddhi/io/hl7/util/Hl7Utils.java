@@ -18,8 +18,14 @@
  */
 package org.wso2.extension.siddhi.io.hl7.util;
 
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.Version;
 import ca.uhn.hl7v2.hoh.util.IOUtils;
 import ca.uhn.hl7v2.hoh.util.KeystoreUtils;
+import ca.uhn.hl7v2.parser.CanonicalModelClassFactory;
+import ca.uhn.hl7v2.parser.GenericModelClassFactory;
+import ca.uhn.hl7v2.parser.ModelClassFactory;
 import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
 import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
 
@@ -32,7 +38,10 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Set;
 
 /**
  * This class contains the utility functions required to the Hl7 extension.
@@ -101,6 +110,83 @@ public class Hl7Utils {
         }
     }
 
+    /**
+     * Creates the model class factory of the hl7.model option. The default factory loads the structure classes of
+     * each version and message type on their first use, while the canonical factory uses the structures of a
+     * single version for all the messages and the generic factory does not use structure classes.
+     *
+     * @param model         - default, canonical or generic
+     * @param modelVersion  - version of the structures used by the canonical factory
+     * @param siddhiAppName - Defined siddhi app name
+     * @param streamID      - defined stream id
+     * @return the model class factory, or null if the default factory should be used
+     */
+    public static ModelClassFactory createModelClassFactory(String model, String modelVersion, String siddhiAppName,
+                                                            String streamID) {
+
+        String upperCaseModel = model.toUpperCase(Locale.ENGLISH);
+        if (upperCaseModel.equals("DEFAULT")) {
+            return null;
+        } else if (upperCaseModel.equals("GENERIC")) {
+            return new GenericModelClassFactory();
+        } else if (upperCaseModel.equals("CANONICAL")) {
+            if (Version.versionOf(modelVersion) == null) {
+                throw new SiddhiAppValidationException("Invalid hl7.model.version defined in " + siddhiAppName +
+                        ":" + streamID + ". " + modelVersion + " is not a hl7 version. ");
+            }
+            return new CanonicalModelClassFactory(modelVersion);
+        }
+        throw new SiddhiAppValidationException("Invalid hl7.model defined in " + siddhiAppName + ":" + streamID +
+                ". hl7.model should be default, canonical or generic. ");
+    }
+
+    /**
+     * Compiles the hl7.allowed.versions option.
+     *
+     * @param versions      - comma separated hl7 versions, e.g. 2.3,2.5.1
+     * @param siddhiAppName - Defined siddhi app name
+     * @param streamID      - defined stream id
+     * @return the allowed versions, or null if all the versions are allowed
+     */
+    public static Set<String> getAllowedVersions(String versions, String siddhiAppName, String streamID) {
+
+        if (versions == null || versions.trim().isEmpty()) {
+            return null;
+        }
+        Set<String> allowedVersions = new HashSet<>();
+        for (String version : versions.split(",")) {
+            String trimmed = version.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (Version.versionOf(trimmed) == null) {
+                throw new SiddhiAppValidationException("Invalid hl7.allowed.versions defined in " + siddhiAppName +
+                        ":" + streamID + ". " + trimmed + " is not a hl7 version. ");
+            }
+            allowedVersions.add(trimmed);
+        }
+        return Collections.unmodifiableSet(allowedVersions);
+    }
+
+    /**
+     * Reads the version (MSH-12) of a message without parsing it.
+     *
+     * @param hl7Message  - hl7 message
+     * @param hl7Encoding - er7 or xml
+     * @param hapiContext - context used to read the version of a xml encoded message
+     * @return the version, or null if it cannot be read
+     */
+    public static String getVersion(String hl7Message, String hl7Encoding, HapiContext hapiContext) {
+
+        if (hl7Encoding.toUpperCase(Locale.ENGLISH).equals("ER7")) {
+            return Hl7Er7Utils.getComponent(hl7Message, Hl7Er7Utils.getField(hl7Message, "MSH", 12), 1);
+        }
+        try {
+            return hapiContext.getXMLParser().getVersion(hl7Message);
+        } catch (HL7Exception e) {
+            return null;
+        }
+    }
 
     /**
      * Used to parse the inputStream to String type
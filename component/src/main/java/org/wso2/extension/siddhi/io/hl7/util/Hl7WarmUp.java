@@ -0,0 +1,179 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.util;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.Parser;
+import org.apache.log4j.Logger;
+import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@code Hl7WarmUp} parses and encodes a set of sample messages with the context of a source or a sink before it
+ * starts, so that the structure classes are loaded and the parsers are compiled before the first message is
+ * received or published. The samples are the built-in ADT, ORU and ORM templates, stamped with the given versions,
+ * and the messages of the given files.
+ */
+public class Hl7WarmUp {
+
+    private static final Logger log = Logger.getLogger(Hl7WarmUp.class);
+    private static final String VERSION_PLACEHOLDER = "${version}";
+    private static final String HEADER = "MSH|^~\\&|WARMUP|WARMUP|WARMUP|WARMUP|20190101000000||";
+    private static final Map<String, String> TEMPLATES;
+
+    static {
+        Map<String, String> templates = new LinkedHashMap<>();
+        templates.put("ADT", HEADER + "ADT^A01|WARMUP-ADT|P|" + VERSION_PLACEHOLDER + "\r" +
+                "EVN|A01|20190101000000\r" +
+                "PID|1||100001^^^MRN||DOE^JOHN^A||19700101|M|||1 MAIN ST^^COLOMBO^^00100||555-0100\r" +
+                "PV1|1|I|WARD^101^1||||2001^SMITH^JANE\r");
+        templates.put("ORU", HEADER + "ORU^R01|WARMUP-ORU|P|" + VERSION_PLACEHOLDER + "\r" +
+                "PID|1||100001^^^MRN||DOE^JOHN^A||19700101|M\r" +
+                "OBR|1|ORD-1|FIL-1|CBC^COMPLETE BLOOD COUNT|||20190101000000\r" +
+                "OBX|1|NM|WBC^WHITE BLOOD COUNT||7.5|10*3/uL|4.0-11.0|N|||F\r" +
+                "OBX|2|NM|HGB^HEMOGLOBIN||14.2|g/dL|12.0-16.0|N|||F\r");
+        templates.put("ORM", HEADER + "ORM^O01|WARMUP-ORM|P|" + VERSION_PLACEHOLDER + "\r" +
+                "PID|1||100001^^^MRN||DOE^JOHN^A||19700101|M\r" +
+                "ORC|NW|ORD-1\r" +
+                "OBR|1|ORD-1||CBC^COMPLETE BLOOD COUNT|||20190101000000\r");
+        TEMPLATES = Collections.unmodifiableMap(templates);
+    }
+
+    private List<String> samples;
+    private int iterations;
+
+    private Hl7WarmUp(List<String> samples, int iterations) {
+
+        this.samples = samples;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Compiles the warm-up options of a source or a sink.
+     *
+     * @param templates     - comma separated built-in templates (ADT, ORU, ORM), or none
+     * @param files         - comma separated paths of files which contain a sample message each, or null
+     * @param iterations    - number of times each sample is parsed and encoded
+     * @param versions      - versions the built-in templates are stamped with
+     * @param siddhiAppName - Defined siddhi app name
+     * @param streamID      - defined stream id
+     * @return the warm-up, or null if there is no sample
+     */
+    public static Hl7WarmUp create(String templates, String files, String iterations, Collection<String> versions,
+                                   String siddhiAppName, String streamID) {
+
+        List<String> samples = new ArrayList<>();
+        if (templates != null && !templates.trim().equalsIgnoreCase("none")) {
+            for (String name : templates.split(",")) {
+                String trimmed = name.trim().toUpperCase(Locale.ENGLISH);
+                if (trimmed.isEmpty()) {
+                    continue;
+                }
+                String template = TEMPLATES.get(trimmed);
+                if (template == null) {
+                    throw new SiddhiAppValidationException("Invalid hl7.warmup.templates defined in " +
+                            siddhiAppName + ":" + streamID + ". " + trimmed + " should be one of " +
+                            TEMPLATES.keySet() + " or none. ");
+                }
+                for (String version : versions) {
+                    samples.add(template.replace(VERSION_PLACEHOLDER, version));
+                }
+            }
+        }
+        if (files != null) {
+            for (String file : files.split(",")) {
+                if (!file.trim().isEmpty()) {
+                    samples.add(readSample(file.trim(), siddhiAppName, streamID));
+                }
+            }
+        }
+        if (samples.isEmpty()) {
+            return null;
+        }
+        int count;
+        try {
+            count = Integer.parseInt(iterations);
+        } catch (NumberFormatException e) {
+            count = -1;
+        }
+        if (count <= 0) {
+            throw new SiddhiAppValidationException("Invalid hl7.warmup.iterations defined in " + siddhiAppName +
+                    ":" + streamID + ". " + iterations + " should be a positive integer. ");
+        }
+        return new Hl7WarmUp(samples, count);
+    }
+
+    private static String readSample(String file, String siddhiAppName, String streamID) {
+
+        try (InputStream in = new FileInputStream(file)) {
+            return Hl7Utils.streamToString(in).trim().replace("\r\n", "\r").replace('\n', '\r');
+        } catch (IOException e) {
+            throw new SiddhiAppCreationException("Failed to load the hl7 warm-up message " + file + " given in " +
+                    siddhiAppName + ":" + streamID + ". ", e);
+        }
+    }
+
+    /**
+     * Parses each sample, encodes it in ER7 and xml, and encodes its acknowledgement, the configured number of
+     * times. A sample which cannot be parsed with the context is logged and skipped.
+     *
+     * @param hapiContext - context of the source or the sink
+     * @param owner       - siddhi app and stream of the source or the sink, used for logging
+     */
+    public void run(HapiContext hapiContext, String owner) {
+
+        long start = System.currentTimeMillis();
+        Parser pipeParser = hapiContext.getPipeParser();
+        Parser xmlParser = hapiContext.getXMLParser();
+        List<String> usable = new ArrayList<>(samples);
+        for (int i = 0; i < iterations && !usable.isEmpty(); i++) {
+            for (int j = usable.size() - 1; j >= 0; j--) {
+                String sample = usable.get(j);
+                try {
+                    Message message = sample.startsWith("<") ? xmlParser.parse(sample) : pipeParser.parse(sample);
+                    String er7Msg = pipeParser.encode(message);
+                    xmlParser.parse(xmlParser.encode(message));
+                    pipeParser.parse(er7Msg);
+                    pipeParser.encode(message.generateACK());
+                } catch (HL7Exception | IOException e) {
+                    log.warn("Skipping a hl7 warm-up message of " + owner + ", which cannot be parsed: " +
+                            e.getMessage());
+                    usable.remove(j);
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Warmed up the hl7 parsers of " + owner + " with " + usable.size() + " messages in " +
+                    (System.currentTimeMillis() - start) + " ms. ");
+        }
+    }
+}
@@ -28,12 +28,21 @@ import ca.uhn.hl7v2.model.Message;
 import ca.uhn.hl7v2.protocol.ApplicationRouter;
 import ca.uhn.hl7v2.protocol.ReceivingApplication;
 import org.apache.log4j.Logger;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Er7Utils;
 import org.wso2.extension.siddhi.io.hl7.util.TestUtil;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Hl7SinkTestUtil {
 
@@ -44,6 +53,13 @@ public class Hl7SinkTestUtil {
     private static boolean eventArrived;
     private static List<String> results;
     private TestUtil testUtil = new TestUtil();
+    private ServerSocket rawServerSocket;
+    private List<String> rawFrames = Collections.synchronizedList(new ArrayList<String>());
+    private AtomicInteger rawReadCount = new AtomicInteger();
+    private List<Socket> rawSockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private volatile String rawAckCode;
+    private volatile String rawAckText;
+    private volatile String rawErrorSegments;
 
     public void connect(int port, int counter, boolean eventArrive, boolean useTLS, int expectedEventCount)
             throws InterruptedException {
@@ -83,6 +99,131 @@ public class Hl7SinkTestUtil {
         hl7Service.registerApplication(new RegistrationEventRout(), new TestApp());
     }
 
+    /**
+     * Starts a plain MLLP server which records the received frames as they are, including batch frames.
+     */
+    public void startRawServer(int port, final boolean sendAck) throws IOException {
+
+        rawFrames.clear();
+        rawReadCount.set(0);
+        rawAckCode = null;
+        rawServerSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+
+                while (!rawServerSocket.isClosed()) {
+                    try {
+                        final Socket socket = rawServerSocket.accept();
+                        rawSockets.add(socket);
+                        Thread handler = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+
+                                handleRawConnection(socket, sendAck);
+                            }
+                        });
+                        handler.setDaemon(true);
+                        handler.start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void handleRawConnection(Socket socket, boolean sendAck) {
+
+        try (InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            boolean inFrame = false;
+            byte[] chunk = new byte[64 * 1024];
+            int length;
+            while ((length = in.read(chunk)) != -1) {
+                rawReadCount.incrementAndGet();
+                for (int i = 0; i < length; i++) {
+                    byte value = chunk[i];
+                    if (value == 0x0b) {
+                        frame.reset();
+                        inFrame = true;
+                    } else if (value == 0x1c && inFrame) {
+                        inFrame = false;
+                        onRawFrame(new String(frame.toByteArray(), StandardCharsets.UTF_8), out, sendAck);
+                    } else if (inFrame) {
+                        frame.write(value);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Raw test server connection closed. " + e.getMessage());
+        }
+    }
+
+    private void onRawFrame(String received, OutputStream out, boolean sendAck) throws IOException {
+
+        rawFrames.add(received);
+        if (sendAck) {
+            String controlId = received.startsWith("FHS") ? Hl7Er7Utils.getField(received, "BHS", 11) :
+                    Hl7Er7Utils.getField(received, "MSH", 10);
+            String ack;
+            if (rawAckCode == null) {
+                ack = "MSH|^~\\&|||||20190101000000||ACK|A" + controlId + "|P|2.3\rMSA|AA|" + controlId + "\r";
+            } else {
+                ack = "MSH|^~\\&|||||20190101000000||ACK|A" + controlId + "|P|2.5\rMSA|" + rawAckCode + "|" +
+                        controlId + "|" + rawAckText + "\r" + rawErrorSegments;
+            }
+            out.write(0x0b);
+            out.write(ack.getBytes(StandardCharsets.UTF_8));
+            out.write(0x1c);
+            out.write(0x0d);
+            out.flush();
+        }
+    }
+
+    /**
+     * Makes the raw server reply with a v2.5 acknowledgement of the given code, text and ERR segments, until it is
+     * started again.
+     */
+    public void setRawAck(String ackCode, String ackText, String errorSegments) {
+
+        rawAckText = ackText;
+        rawErrorSegments = errorSegments;
+        rawAckCode = ackCode;
+    }
+
+    public int getRawReadCount() {
+
+        return rawReadCount.get();
+    }
+
+    public List<String> getRawFrames() {
+
+        return new ArrayList<>(rawFrames);
+    }
+
+    /**
+     * Closes the connections accepted by the raw server, while it keeps accepting new ones.
+     */
+    public void dropRawConnections() throws IOException {
+
+        synchronized (rawSockets) {
+            for (Socket socket : rawSockets) {
+                socket.close();
+            }
+            rawSockets.clear();
+        }
+    }
+
+    public void stopRawServer() throws IOException {
+
+        if (rawServerSocket != null) {
+            rawServerSocket.close();
+        }
+    }
+
     public int getCount() {
 
         return count;
@@ -0,0 +1,179 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.sink;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestCaseOfHl7FileSink {
+
+    private static Logger log = Logger.getLogger(TestCaseOfHl7FileSink.class);
+    private AtomicInteger count = new AtomicInteger();
+    private int timeout = 10000;
+    private int waitTime = 50;
+
+    @BeforeMethod
+    public void initBeforeMethod() {
+
+        count.set(0);
+    }
+
+    private String toPath(Path path) {
+
+        return path.toAbsolutePath().toString().replace("\\", "/");
+    }
+
+    @Test
+    public void hl7FilePublishTestRollover() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7file Sink test with size based rollover and reading the files back with the hl7dir source.");
+        log.info("---------------------------------------------------------------------------------------------");
+        Path dir = Files.createTempDirectory("hl7-archive");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String senderApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7file', " +
+                "dir.path = '" + toPath(dir) + "', " +
+                "file.prefix = 'adt', " +
+                "hl7.file.max.size = '400', " +
+                "hl7.file.buffer.size = '128', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime senderRuntime = siddhiManager.createSiddhiAppRuntime(senderApp);
+        InputHandler stream = senderRuntime.getInputHandler("hl7sinkStream");
+        senderRuntime.start();
+        for (int i = 0; i < 10; i++) {
+            stream.send(new Object[]{"MSH|^~\\&|SENDAPP|SENDFAC|RECAPP|RECFAC|20190122111442||ADT^A01|" + i +
+                    "|P|2.4\rPID|||" + i + "||DOE^JOHN\r"});
+        }
+        senderRuntime.shutdown();
+        File[] files = dir.toFile().listFiles();
+        AssertJUnit.assertNotNull(files);
+        AssertJUnit.assertTrue(files.length > 1);
+        int messageCount = 0;
+        for (File file : files) {
+            AssertJUnit.assertTrue(file.getName().startsWith("adt-") && file.getName().endsWith(".hl7"));
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            AssertJUnit.assertTrue(content.startsWith("FHS|^~\\&|SENDAPP|SENDFAC|RECAPP|RECFAC|"));
+            AssertJUnit.assertTrue(content.contains("\rBHS|^~\\&|SENDAPP|SENDFAC|RECAPP|RECFAC|"));
+            AssertJUnit.assertTrue(content.endsWith("\rFTS|1\r"));
+            messageCount += content.split("\rMSH\\|").length - 1;
+        }
+        AssertJUnit.assertEquals(10, messageCount);
+
+        String receiverApp = "@App:name('TestExecutionPlanReceiver')\n" +
+                "@source( type = 'hl7dir',\n" +
+                "dir.path = '" + toPath(dir) + "',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        SiddhiAppRuntime receiverRuntime = siddhiManager.createSiddhiAppRuntime(receiverApp);
+        receiverRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                count.addAndGet(events.length);
+            }
+        });
+        receiverRuntime.start();
+        SiddhiTestHelper.waitForEvents(waitTime, 10, count, timeout);
+        Thread.sleep(500);
+        receiverRuntime.shutdown();
+        AssertJUnit.assertEquals(10, count.get());
+        dir.toFile().delete();
+    }
+
+    @Test
+    public void hl7FilePublishTestPartFileRecovery() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7file Sink test that only the part files of the writers which are gone are recovered.");
+        log.info("---------------------------------------------------------------------------------------------");
+        Path dir = Files.createTempDirectory("hl7-archive");
+        Path abandonedFile = dir.resolve("adt-20190101000000000-0.hl7.abandoned-writer.part");
+        Files.write(abandonedFile, "FHS|^~\\&\rBHS|^~\\&\rMSH|^~\\&\r".getBytes(StandardCharsets.UTF_8));
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String senderApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7file', " +
+                "dir.path = '" + toPath(dir) + "', " +
+                "file.prefix = 'adt', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime senderRuntime = siddhiManager.createSiddhiAppRuntime(senderApp);
+        InputHandler stream = senderRuntime.getInputHandler("hl7sinkStream");
+        senderRuntime.start();
+        AssertJUnit.assertFalse(Files.exists(abandonedFile));
+        AssertJUnit.assertTrue(Files.exists(dir.resolve("adt-20190101000000000-0.hl7")));
+        stream.send(new Object[]{"MSH|^~\\&|SENDAPP|SENDFAC|RECAPP|RECFAC|20190122111442||ADT^A01|1|P|2.4\r"});
+
+        String otherSenderApp = senderApp.replace("TestExecutionPlan", "TestExecutionPlanOtherSender");
+        SiddhiAppRuntime otherSenderRuntime = siddhiManager.createSiddhiAppRuntime(otherSenderApp);
+        otherSenderRuntime.start();
+        int partFiles = 0;
+        for (File file : dir.toFile().listFiles()) {
+            if (file.getName().endsWith(".part")) {
+                partFiles++;
+            }
+        }
+        // the open file of the first sink is not recovered by the second one
+        AssertJUnit.assertEquals(1, partFiles);
+        otherSenderRuntime.shutdown();
+        senderRuntime.shutdown();
+        File[] files = dir.toFile().listFiles();
+        AssertJUnit.assertNotNull(files);
+        AssertJUnit.assertEquals(2, files.length);
+        for (File file : files) {
+            AssertJUnit.assertTrue(file.getName().endsWith(".hl7"));
+            AssertJUnit.assertTrue(file.delete());
+        }
+        dir.toFile().delete();
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void hl7FilePublishTestInvalidFsync() {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7file Sink test with an invalid fsync policy.");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String senderApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7file', " +
+                "dir.path = '/tmp', " +
+                "hl7.file.fsync = 'sometimes', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        siddhiManager.createSiddhiAppRuntime(senderApp);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.sink;
+
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestCaseOfHl7HttpSink {
+
+    private static Logger log = Logger.getLogger(TestCaseOfHl7HttpSink.class);
+    private AtomicInteger count = new AtomicInteger();
+    private int timeout = 10000;
+    private int waitTime = 50;
+
+    @BeforeMethod
+    public void initBeforeMethod() {
+
+        count.set(0);
+        File keyStoreFilePath = new File("src/test");
+        String keyStorePath = keyStoreFilePath.getAbsolutePath();
+        System.setProperty("carbon.home", keyStorePath);
+    }
+
+    @Test
+    public void hl7HttpPublishTestER7() throws InterruptedException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7http Sink test with ER7 format messages sent with multiple requests in flight.");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String receiverApp = "@App:name('TestExecutionPlanReceiver')\n" +
+                "@source( type = 'hl7http',\n" +
+                "port = '5061',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        String senderApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7http', " +
+                "uri = 'http://localhost:5061/hl7', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.http.max.in.flight = '4', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime receiverRuntime = siddhiManager.createSiddhiAppRuntime(receiverApp);
+        receiverRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                count.addAndGet(events.length);
+            }
+        });
+        receiverRuntime.start();
+        SiddhiAppRuntime senderRuntime = siddhiManager.createSiddhiAppRuntime(senderApp);
+        InputHandler stream = senderRuntime.getInputHandler("hl7sinkStream");
+        senderRuntime.start();
+        for (int i = 0; i < 20; i++) {
+            stream.send(new Object[]{"MSH|^~\\&|||||20190122111442.228+0530||ORM^O01|" + (6100 + i) + "|T|2.3\r"});
+        }
+        SiddhiTestHelper.waitForEvents(waitTime, 20, count, timeout);
+        AssertJUnit.assertEquals(20, count.get());
+        senderRuntime.shutdown();
+        receiverRuntime.shutdown();
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void hl7HttpPublishTestInvalidUri() {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7http Sink test with a uri which is not a HTTP URL.");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String senderApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7http', " +
+                "uri = 'localhost:5061', " +
+                "hl7.encoding = 'er7', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        siddhiManager.createSiddhiAppRuntime(senderApp);
+    }
+}
@@ -28,16 +28,26 @@ import org.testng.AssertJUnit;
 
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Er7Utils;
 import org.wso2.extension.siddhi.io.hl7.util.TestUtil;
 import org.wso2.extension.siddhi.io.hl7.util.UnitTestAppender;
 import org.wso2.siddhi.core.SiddhiAppRuntime;
 import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.exception.CannotRestoreSiddhiAppStateException;
 import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
 import org.wso2.siddhi.core.stream.output.sink.Sink;
+import org.wso2.siddhi.core.util.persistence.InMemoryPersistenceStore;
 import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TestCaseOfHl7Sink {
 
@@ -756,4 +766,567 @@ public class TestCaseOfHl7Sink {
         siddhiAppRuntime.shutdown();
     }
 
+    @Test
+    public void hl7PublishTestRawModeER7() throws HL7Exception, InterruptedException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test with ER7 format message in raw mode - multiple messages.");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5011', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.raw.mode = 'true', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        hl7SinkTestUtil.connect(5011, count, eventArrived, false, 2);
+        InputHandler stream = siddhiAppRuntime.getInputHandler("hl7stream");
+        siddhiAppRuntime.start();
+        String payLoadER71 = "MSH|^~\\&|NES|NINTENDO|TESTSYSTEM|TESTFACILITY|20010101000000||ADT^A04|" +
+                "Q123456789T123456789X123456|P|2.3\r" +
+                "EVN|A04|20010101000000|||^KOOPA^BOWSER^^^^^^^CURRENT\r";
+        String payLoadER72 = "MSH|^~\\&|||||20190122111442.228+0530||ORU^R01|R6546556101|T|2.3\r";
+        try {
+            stream.send(new Object[]{payLoadER71});
+            stream.send(new Object[]{payLoadER72});
+        } catch (InterruptedException e) {
+            AssertJUnit.fail("interrupted");
+        }
+        Thread.sleep(3000);
+        count = hl7SinkTestUtil.getCount();
+        eventArrived = hl7SinkTestUtil.getEventArrived();
+        AssertJUnit.assertEquals(2, count);
+        AssertJUnit.assertTrue(eventArrived);
+        AssertJUnit.assertTrue(hl7SinkTestUtil.assertMessageContent(
+                testUtil.getControlID(pipeParser.parse(payLoadER71))));
+        AssertJUnit.assertTrue(hl7SinkTestUtil.assertMessageContent(
+                testUtil.getControlID(pipeParser.parse(payLoadER72))));
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void hl7PublishTestRawModeInvalidMsh() throws InterruptedException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test in raw mode with a message which does not have the mandatory MSH fields.");
+        log.info("---------------------------------------------------------------------------------------------");
+        log = Logger.getLogger(Hl7Sink.class);
+        UnitTestAppender appender = new UnitTestAppender();
+        log.addAppender(appender);
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5011', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.raw.mode = 'true', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        hl7SinkTestUtil.connect(5011, count, eventArrived, false, 1);
+        InputHandler stream = siddhiAppRuntime.getInputHandler("hl7stream");
+        siddhiAppRuntime.start();
+        String payLoadER7 = "MSH|^~\\&|NES|NINTENDO|TESTSYSTEM|TESTFACILITY|20010101000000||ADT^A04\r";
+        try {
+            stream.send(new Object[]{payLoadER7});
+        } catch (InterruptedException e) {
+            AssertJUnit.fail("interrupted");
+        }
+        AssertJUnit.assertTrue(appender.getMessages().contains("Invalid MSH segment found in the message."));
+        AssertJUnit.assertEquals(0, hl7SinkTestUtil.getCount());
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void hl7PublishTestRawModeWithXmlEncoding() {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test with raw mode enabled for xml encoding.");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5011', " +
+                "hl7.encoding = 'xml', " +
+                "hl7.raw.mode = 'true', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.start();
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void hl7PublishTestPartitionedByPatient() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test with messages of different patients published in parallel lanes, in order for " +
+                "each patient.");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5011', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.raw.mode = 'true', " +
+                "hl7.partition.key = 'PID-3', " +
+                "hl7.partition.count = '2', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);";
+        hl7SinkTestUtil.startRawServer(5011, true);
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        InputHandler stream = siddhiAppRuntime.getInputHandler("hl7stream");
+        siddhiAppRuntime.start();
+        String[] patients = {"123456789", "987654321", "555555555"};
+        int messagesPerPatient = 20;
+        for (int i = 0; i < messagesPerPatient; i++) {
+            for (String patient : patients) {
+                stream.send(new Object[]{"MSH|^~\\&|NES|NINTENDO|TESTSYSTEM|TESTFACILITY|20010101000000||" +
+                        "ADT^A08|" + patient + "-" + i + "|P|2.3\r" +
+                        "EVN|A08|20010101000000\r" +
+                        "PID|1||" + patient + "||BROS^MARIO\r"});
+            }
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (hl7SinkTestUtil.getRawFrames().size() < patients.length * messagesPerPatient &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        List<String> frames = hl7SinkTestUtil.getRawFrames();
+        AssertJUnit.assertEquals(patients.length * messagesPerPatient, frames.size());
+        for (String patient : patients) {
+            List<String> expected = new ArrayList<>(messagesPerPatient);
+            for (int i = 0; i < messagesPerPatient; i++) {
+                expected.add(patient + "-" + i);
+            }
+            List<String> received = new ArrayList<>(messagesPerPatient);
+            for (String frame : frames) {
+                if (patient.equals(Hl7Er7Utils.getField(frame, "PID", 3))) {
+                    received.add(Hl7Er7Utils.getField(frame, "MSH", 10));
+                }
+            }
+            AssertJUnit.assertEquals(expected, received);
+        }
+        siddhiAppRuntime.shutdown();
+        hl7SinkTestUtil.stopRawServer();
+    }
+
+    @Test
+    public void hl7PublishTestDispatchToFullLane() throws InterruptedException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test dispatching to a lane whose queue is kept full.");
+        log.info("---------------------------------------------------------------------------------------------");
+        Hl7PartitionedDispatcher dispatcher = new Hl7PartitionedDispatcher(1, 1, "Hl7SinkTestDispatcher");
+        final AtomicInteger published = new AtomicInteger();
+        int taskCount = 20000;
+        try {
+            // the lane completes each task while the next ones wait for a slot
+            for (int i = 0; i < taskCount; i++) {
+                dispatcher.dispatch(0, new Runnable() {
+                    @Override
+                    public void run() {
+
+                        published.incrementAndGet();
+                    }
+                });
+            }
+        } finally {
+            dispatcher.shutdown(10000);
+        }
+        AssertJUnit.assertEquals(taskCount, published.get());
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void hl7PublishTestPartitionCountWithoutKey() {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test with parallel lanes but without a partition key.");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5011', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.partition.count = '2', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.start();
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void hl7PublishTestBatchMode() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test with messages sent as FHS/BHS batches.");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5013', " +
+                "hl7.encoding = 'er7', " +
+                "batch.size = '2', " +
+                "batch.max.delay.ms = '500', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);";
+        hl7SinkTestUtil.startRawServer(5013, true);
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        InputHandler stream = siddhiAppRuntime.getInputHandler("hl7stream");
+        siddhiAppRuntime.start();
+        String payLoadER7 = "MSH|^~\\&|NES|NINTENDO|TESTSYSTEM|TESTFACILITY|20010101000000||ADT^A04|" +
+                "Q123456789T123456789X123456|P|2.3\r" +
+                "EVN|A04|20010101000000\r";
+        try {
+            stream.send(new Object[]{payLoadER7});
+            stream.send(new Object[]{payLoadER7});
+            stream.send(new Object[]{payLoadER7});
+        } catch (InterruptedException e) {
+            AssertJUnit.fail("interrupted");
+        }
+        Thread.sleep(3000);
+        List<String> frames = hl7SinkTestUtil.getRawFrames();
+        AssertJUnit.assertEquals(2, frames.size());
+        AssertJUnit.assertTrue(frames.get(0).startsWith("FHS|^~\\&|NES|NINTENDO|TESTSYSTEM|TESTFACILITY|"));
+        AssertJUnit.assertTrue(frames.get(0).contains("\rBTS|2\rFTS|1\r"));
+        AssertJUnit.assertTrue(frames.get(1).contains("\rBTS|1\rFTS|1\r"));
+        siddhiAppRuntime.shutdown();
+        hl7SinkTestUtil.stopRawServer();
+    }
+
+    @Test
+    public void hl7PublishTestBatchModeReconnect() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test with the connection lost while a batch is sent.");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5013', " +
+                "hl7.encoding = 'er7', " +
+                "batch.size = '3', " +
+                "batch.max.delay.ms = '60000', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);";
+        hl7SinkTestUtil.startRawServer(5013, true);
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        InputHandler stream = siddhiAppRuntime.getInputHandler("hl7stream");
+        siddhiAppRuntime.start();
+        String payLoadER7 = "MSH|^~\\&|NES|NINTENDO|TESTSYSTEM|TESTFACILITY|20010101000000||ADT^A04|" +
+                "Q123456789T123456789X123456|P|2.3\r" +
+                "EVN|A04|20010101000000\r";
+        stream.send(new Object[]{payLoadER7});
+        stream.send(new Object[]{payLoadER7});
+        // the third message completes the batch, which fails and is sent again after reconnecting
+        hl7SinkTestUtil.dropRawConnections();
+        stream.send(new Object[]{payLoadER7});
+        long deadline = System.currentTimeMillis() + 10000;
+        while (hl7SinkTestUtil.getRawFrames().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(500);
+        List<String> frames = hl7SinkTestUtil.getRawFrames();
+        AssertJUnit.assertEquals(1, frames.size());
+        AssertJUnit.assertTrue(frames.get(0).contains("\rBTS|3\rFTS|1\r"));
+        AssertJUnit.assertEquals(3, frames.get(0).split("\rMSH\\|").length - 1);
+        siddhiAppRuntime.shutdown();
+        hl7SinkTestUtil.stopRawServer();
+    }
+
+    @Test
+    public void hl7PublishTestAckModeNever() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test with a receiver which never sends acknowledgements.");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5013', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.ack.mode = 'never', " +
+                "hl7.timeout = '2000', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);";
+        hl7SinkTestUtil.startRawServer(5013, false);
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        InputHandler stream = siddhiAppRuntime.getInputHandler("hl7stream");
+        siddhiAppRuntime.start();
+        String payLoadER7 = "MSH|^~\\&|NES|NINTENDO|TESTSYSTEM|TESTFACILITY|20010101000000||ADT^A04|" +
+                "Q123456789T123456789X123456|P|2.3\r" +
+                "EVN|A04|20010101000000\r";
+        long startTime = System.currentTimeMillis();
+        try {
+            stream.send(new Object[]{payLoadER7});
+            stream.send(new Object[]{payLoadER7});
+            stream.send(new Object[]{payLoadER7});
+        } catch (InterruptedException e) {
+            AssertJUnit.fail("interrupted");
+        }
+        AssertJUnit.assertTrue(System.currentTimeMillis() - startTime < 2000);
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(3, hl7SinkTestUtil.getRawFrames().size());
+        siddhiAppRuntime.shutdown();
+        hl7SinkTestUtil.stopRawServer();
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void hl7PublishTestInvalidAckMode() {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test with an invalid hl7.ack.mode.");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5013', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.ack.mode = 'sometimes', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);";
+        siddhiManager.createSiddhiAppRuntime(siddhiApp);
+    }
+
+    @Test
+    public void hl7PublishTestAckStream() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test with the acknowledgement outcomes published to an ack stream.");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5013', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.raw.mode = 'true', " +
+                "ack.stream = 'hl7SinkAcks', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);" +
+                "@source(type = 'inMemory', topic = 'hl7SinkAcks', @map(type = 'passThrough'))" +
+                "define stream AckStream(controlId string, ackCode string, ackText string, errorCodes string, " +
+                "latency long);";
+        hl7SinkTestUtil.startRawServer(5013, true);
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        final List<Event> acks = new ArrayList<>();
+        siddhiAppRuntime.addCallback("AckStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                acks.addAll(Arrays.asList(events));
+            }
+        });
+        InputHandler stream = siddhiAppRuntime.getInputHandler("hl7stream");
+        siddhiAppRuntime.start();
+        String payLoadER7 = "MSH|^~\\&|NES|NINTENDO|TESTSYSTEM|TESTFACILITY|20010101000000||ADT^A04|" +
+                "Q123456789T123456789X123456|P|2.3\r" +
+                "EVN|A04|20010101000000\r";
+        try {
+            stream.send(new Object[]{payLoadER7});
+        } catch (InterruptedException e) {
+            AssertJUnit.fail("interrupted");
+        }
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(1, acks.size());
+        Object[] ack = acks.get(0).getData();
+        AssertJUnit.assertEquals("Q123456789T123456789X123456", ack[0]);
+        AssertJUnit.assertEquals("AA", ack[1]);
+        AssertJUnit.assertEquals("", ack[3]);
+        AssertJUnit.assertTrue((Long) ack[4] >= 0);
+        siddhiAppRuntime.shutdown();
+        hl7SinkTestUtil.stopRawServer();
+    }
+
+    @Test
+    public void hl7PublishTestAckStreamWithError() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test with an application error acknowledgement published to an ack stream.");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5013', " +
+                "hl7.encoding = 'er7', " +
+                "ack.stream = 'hl7SinkAcks', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);" +
+                "@source(type = 'inMemory', topic = 'hl7SinkAcks', @map(type = 'passThrough'))" +
+                "define stream AckStream(controlId string, ackCode string, ackText string, errorCodes string, " +
+                "latency long);";
+        hl7SinkTestUtil.startRawServer(5013, true);
+        hl7SinkTestUtil.setRawAck("AE", "Unknown patient", "ERR||PID^1^3|204^Unknown key identifier^HL70357|E\r" +
+                "ERR||PID^1^5|101^Required field missing^HL70357|E\r");
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        final List<Event> acks = new ArrayList<>();
+        siddhiAppRuntime.addCallback("AckStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                acks.addAll(Arrays.asList(events));
+            }
+        });
+        InputHandler stream = siddhiAppRuntime.getInputHandler("hl7stream");
+        siddhiAppRuntime.start();
+        String payLoadER7 = "MSH|^~\\&|NES|NINTENDO|TESTSYSTEM|TESTFACILITY|20010101000000||ADT^A04|" +
+                "Q123456789T123456789X123456|P|2.3\r" +
+                "EVN|A04|20010101000000\r";
+        stream.send(new Object[]{payLoadER7});
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(1, acks.size());
+        Object[] ack = acks.get(0).getData();
+        AssertJUnit.assertEquals("Q123456789T123456789X123456", ack[0]);
+        AssertJUnit.assertEquals("AE", ack[1]);
+        AssertJUnit.assertEquals("Unknown patient", ack[2]);
+        AssertJUnit.assertEquals("204,101", ack[3]);
+        AssertJUnit.assertTrue((Long) ack[4] >= 0);
+        siddhiAppRuntime.shutdown();
+        hl7SinkTestUtil.stopRawServer();
+    }
+
+    @Test
+    public void hl7PublishTestControlIdStateRestore() throws InterruptedException, IOException,
+            CannotRestoreSiddhiAppStateException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test with the stamped MSH-10 counter restored from the persisted state.");
+        log.info("---------------------------------------------------------------------------------------------");
+        File reserveFile = File.createTempFile("hl7-control-id", ".txt");
+        reserveFile.deleteOnExit();
+        SiddhiManager siddhiManager = new SiddhiManager();
+        siddhiManager.setPersistenceStore(new InMemoryPersistenceStore());
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5013', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.raw.mode = 'true', " +
+                "hl7.stamp.control.id = 'true', " +
+                "hl7.control.id.prefix = 'N1-', " +
+                "hl7.control.id.reserve.file = '" + reserveFile.getAbsolutePath() + "', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);";
+        String payLoadER7 = "MSH|^~\\&|NES|NINTENDO|TESTSYSTEM|TESTFACILITY|20010101000000||ADT^A04|" +
+                "Q123456789T123456789X123456|P|2.3\r" +
+                "EVN|A04|20010101000000\r";
+        hl7SinkTestUtil.startRawServer(5013, true);
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.start();
+        siddhiAppRuntime.getInputHandler("hl7stream").send(new Object[]{payLoadER7});
+        siddhiAppRuntime.persist();
+        Thread.sleep(500);
+        siddhiAppRuntime.shutdown();
+
+        // without the reserve file the counter starts again from zero unless the state is restored
+        AssertJUnit.assertTrue(reserveFile.delete());
+        siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.start();
+        siddhiAppRuntime.restoreLastRevision();
+        siddhiAppRuntime.getInputHandler("hl7stream").send(new Object[]{payLoadER7});
+        Thread.sleep(500);
+        List<String> frames = hl7SinkTestUtil.getRawFrames();
+        AssertJUnit.assertEquals(2, frames.size());
+        AssertJUnit.assertEquals("N1-1", Hl7Er7Utils.getField(frames.get(0), "MSH", 10));
+        AssertJUnit.assertEquals("N1-2", Hl7Er7Utils.getField(frames.get(1), "MSH", 10));
+        siddhiAppRuntime.shutdown();
+        hl7SinkTestUtil.stopRawServer();
+    }
+
+    @Test
+    public void hl7PublishTestControlIdStamping() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test with MSH-10 and MSH-7 stamped by the sink.");
+        log.info("---------------------------------------------------------------------------------------------");
+        File reserveFile = File.createTempFile("hl7-control-id", ".txt");
+        reserveFile.deleteOnExit();
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5013', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.raw.mode = 'true', " +
+                "hl7.stamp.control.id = 'true', " +
+                "hl7.stamp.timestamp = 'true', " +
+                "hl7.control.id.prefix = 'N1-', " +
+                "hl7.control.id.reserve.file = '" + reserveFile.getAbsolutePath() + "', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);";
+        hl7SinkTestUtil.startRawServer(5013, true);
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        InputHandler stream = siddhiAppRuntime.getInputHandler("hl7stream");
+        siddhiAppRuntime.start();
+        String payLoadER7 = "MSH|^~\\&|NES|NINTENDO|TESTSYSTEM|TESTFACILITY|20010101000000||ADT^A04|" +
+                "Q123456789T123456789X123456|P|2.3\r" +
+                "EVN|A04|20010101000000\r";
+        try {
+            stream.send(new Object[]{payLoadER7});
+            stream.send(new Object[]{payLoadER7});
+        } catch (InterruptedException e) {
+            AssertJUnit.fail("interrupted");
+        }
+        Thread.sleep(500);
+        List<String> frames = hl7SinkTestUtil.getRawFrames();
+        AssertJUnit.assertEquals(2, frames.size());
+        String firstControlId = Hl7Er7Utils.getField(frames.get(0), "MSH", 10);
+        String secondControlId = Hl7Er7Utils.getField(frames.get(1), "MSH", 10);
+        AssertJUnit.assertEquals("N1-1", firstControlId);
+        AssertJUnit.assertEquals("N1-2", secondControlId);
+        AssertJUnit.assertFalse("20010101000000".equals(Hl7Er7Utils.getField(frames.get(0), "MSH", 7)));
+        AssertJUnit.assertEquals("ADT^A04", Hl7Er7Utils.getField(frames.get(0), "MSH", 9));
+        siddhiAppRuntime.shutdown();
+        hl7SinkTestUtil.stopRawServer();
+    }
+
+    @Test
+    public void hl7PublishTestWriteCoalescing() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Sink test that write coalescing delivers the same frames in fewer socket reads.");
+        log.info("---------------------------------------------------------------------------------------------");
+        int messageCount = 2000;
+        long[] withoutCoalescing = runWriteCoalescing(false, messageCount);
+        long[] withCoalescing = runWriteCoalescing(true, messageCount);
+        log.info("Without write coalescing: " + messageCount + " messages in " + withoutCoalescing[0] + " ms, " +
+                withoutCoalescing[1] + " socket reads at the receiver.");
+        log.info("With write coalescing: " + messageCount + " messages in " + withCoalescing[0] + " ms, " +
+                withCoalescing[1] + " socket reads at the receiver.");
+        AssertJUnit.assertTrue(withCoalescing[1] < withoutCoalescing[1]);
+    }
+
+    private long[] runWriteCoalescing(boolean coalescing, int messageCount)
+            throws InterruptedException, IOException {
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5013', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.ack.mode = 'never', " +
+                "hl7.write.coalescing = '" + coalescing + "', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7stream(payload string);";
+        hl7SinkTestUtil.startRawServer(5013, false);
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        InputHandler stream = siddhiAppRuntime.getInputHandler("hl7stream");
+        siddhiAppRuntime.start();
+        String payLoadER7 = "MSH|^~\\&|NES|NINTENDO|TESTSYSTEM|TESTFACILITY|20010101000000||ADT^A04|" +
+                "Q123456789T123456789X123456|P|2.3\r" +
+                "EVN|A04|20010101000000\r";
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < messageCount; i++) {
+            stream.send(new Object[]{payLoadER7});
+        }
+        long deadline = startTime + 30000;
+        while (hl7SinkTestUtil.getRawFrames().size() < messageCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        AssertJUnit.assertEquals(messageCount, hl7SinkTestUtil.getRawFrames().size());
+        long readCount = hl7SinkTestUtil.getRawReadCount();
+        siddhiAppRuntime.shutdown();
+        hl7SinkTestUtil.stopRawServer();
+        return new long[]{elapsedTime, readCount};
+    }
 }
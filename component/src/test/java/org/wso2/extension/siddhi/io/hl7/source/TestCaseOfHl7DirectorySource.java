@@ -0,0 +1,185 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.PipeParser;
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.extension.siddhi.io.hl7.util.TestUtil;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestCaseOfHl7DirectorySource {
+
+    private static Logger log = Logger.getLogger(TestCaseOfHl7DirectorySource.class);
+    private AtomicInteger count = new AtomicInteger();
+    private List<String> receivedEvent;
+    private int timeout = 10000;
+    private int waitTime = 50;
+    private PipeParser pipeParser = new PipeParser();
+    private TestUtil testUtil = new TestUtil();
+
+    @BeforeMethod
+    private void setUP() {
+
+        count.set(0);
+    }
+
+    private SiddhiAppRuntime createRuntime(String options) {
+
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@source( type = 'hl7dir',\n" +
+                options +
+                "hl7.encoding = 'ER7',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        SiddhiAppRuntime siddhiAppRuntime = new SiddhiManager().createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    try {
+                        Message message = pipeParser.parse(event.getData(0).toString());
+                        receivedEvent.add(testUtil.getControlID(message));
+                    } catch (HL7Exception e) {
+                        log.error(e);
+                    }
+                }
+            }
+        });
+        return siddhiAppRuntime;
+    }
+
+    private void dropFile(Path dir, String fileName, String content) throws IOException {
+
+        Path tempFile = Files.createTempFile("hl7-drop", ".tmp");
+        Files.write(tempFile, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(tempFile, dir.resolve(fileName));
+    }
+
+    private String toPath(Path path) {
+
+        return path.toAbsolutePath().toString().replace("\\", "/");
+    }
+
+    @Test
+    public void hl7DirConsumerTestDeleteAfterProcess() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7dir source to test files present at startup and files dropped later");
+        log.info("---------------------------------------------------------------------------------------------");
+        receivedEvent = Collections.synchronizedList(new ArrayList<String>(4));
+        Path dir = Files.createTempDirectory("hl7-dir");
+        dir.toFile().deleteOnExit();
+        dropFile(dir, "result-1.hl7", "MSH|^~\\&|LAB|LAB|||20190122111442||ORU^R01|6101|T|2.4\r" +
+                "MSH|^~\\&|LAB|LAB|||20190122111443||ORU^R01|6102|T|2.4\r");
+        dropFile(dir, "ignored.txt", "MSH|^~\\&|LAB|LAB|||20190122111444||ORU^R01|6999|T|2.4\r");
+        SiddhiAppRuntime siddhiAppRuntime = createRuntime("dir.path = '" + toPath(dir) + "',\n" +
+                "hl7.dir.worker.pool.size = '2',\n");
+        siddhiAppRuntime.start();
+        SiddhiTestHelper.waitForEvents(waitTime, 2, count, timeout);
+        dropFile(dir, "result-2.hl7", "MSH|^~\\&|LAB|LAB|||20190122111445||ORU^R01|6201|T|2.4\r" +
+                "MSH|^~\\&|LAB|LAB|||20190122111446||ORU^R01|6202|T|2.4\r");
+        SiddhiTestHelper.waitForEvents(waitTime, 4, count, timeout);
+        Thread.sleep(500);
+        siddhiAppRuntime.shutdown();
+        AssertJUnit.assertEquals(4, count.get());
+        List<String> expected = new ArrayList<>(4);
+        expected.add("6101");
+        expected.add("6102");
+        expected.add("6201");
+        expected.add("6202");
+        AssertJUnit.assertEquals(expected, receivedEvent);
+        AssertJUnit.assertFalse(Files.exists(dir.resolve("result-1.hl7")));
+        AssertJUnit.assertFalse(Files.exists(dir.resolve("result-2.hl7")));
+        AssertJUnit.assertTrue(Files.exists(dir.resolve("ignored.txt")));
+        Files.delete(dir.resolve("ignored.txt"));
+    }
+
+    @Test
+    public void hl7DirConsumerTestMoveAfterProcess() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7dir source to test moving the processed files while processing them in parallel");
+        log.info("---------------------------------------------------------------------------------------------");
+        receivedEvent = Collections.synchronizedList(new ArrayList<String>(30));
+        Path dir = Files.createTempDirectory("hl7-dir");
+        Path processedDir = Files.createTempDirectory("hl7-processed");
+        for (int i = 0; i < 10; i++) {
+            dropFile(dir, "result-" + i + ".hl7",
+                    "MSH|^~\\&|LAB|LAB|||20190122111442||ORU^R01|" + i + "-1|T|2.4\r" +
+                    "MSH|^~\\&|LAB|LAB|||20190122111442||ORU^R01|" + i + "-2|T|2.4\r" +
+                    "MSH|^~\\&|LAB|LAB|||20190122111442||ORU^R01|" + i + "-3|T|2.4\r");
+        }
+        SiddhiAppRuntime siddhiAppRuntime = createRuntime("dir.path = '" + toPath(dir) + "',\n" +
+                "action.after.process = 'move',\n" +
+                "move.after.process = '" + toPath(processedDir) + "',\n");
+        siddhiAppRuntime.start();
+        SiddhiTestHelper.waitForEvents(waitTime, 30, count, timeout);
+        Thread.sleep(500);
+        siddhiAppRuntime.shutdown();
+        AssertJUnit.assertEquals(30, count.get());
+        for (int i = 0; i < 10; i++) {
+            int first = receivedEvent.indexOf(i + "-1");
+            int second = receivedEvent.indexOf(i + "-2");
+            int third = receivedEvent.indexOf(i + "-3");
+            AssertJUnit.assertTrue(first >= 0 && first < second && second < third);
+            AssertJUnit.assertFalse(Files.exists(dir.resolve("result-" + i + ".hl7")));
+            AssertJUnit.assertTrue(Files.exists(processedDir.resolve("result-" + i + ".hl7")));
+        }
+        File[] processedFiles = processedDir.toFile().listFiles();
+        if (processedFiles != null) {
+            for (File processedFile : processedFiles) {
+                processedFile.delete();
+            }
+        }
+        processedDir.toFile().delete();
+        dir.toFile().delete();
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void hl7DirConsumerTestMoveWithoutTarget() {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7dir source to test the move action without move.after.process");
+        log.info("---------------------------------------------------------------------------------------------");
+        createRuntime("dir.path = '/tmp',\n" +
+                "action.after.process = 'move',\n");
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.PipeParser;
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.extension.siddhi.io.hl7.util.TestUtil;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.exception.CannotRestoreSiddhiAppStateException;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+import org.wso2.siddhi.core.util.persistence.InMemoryPersistenceStore;
+import org.wso2.siddhi.core.util.persistence.PersistenceStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestCaseOfHl7FileSource {
+
+    private static Logger log = Logger.getLogger(TestCaseOfHl7FileSource.class);
+    private AtomicInteger count = new AtomicInteger();
+    private List<String> receivedEvent;
+    private int timeout = 10000;
+    private int waitTime = 50;
+    private PipeParser pipeParser = new PipeParser();
+    private TestUtil testUtil = new TestUtil();
+    private String batchFile = "FHS|^~\\&|SENDAPP|SENDFAC|||20190122111442||||1001\n" +
+            "BHS|^~\\&|SENDAPP|SENDFAC|||20190122111442||||1001\n" +
+            "MSH|^~\\&|SENDAPP|SENDFAC|||20190122111442.228+0530||ORM^O01|6101|T|2.3\n" +
+            "PID|||555-44-4444||EVERYWOMAN^EVE^E^^^^L\n" +
+            "MSH|^~\\&|SENDAPP|SENDFAC|||20190123062351.436+0530||ORU^R01^ORU_R01|6401|T|2.4\n" +
+            "MSH|^~\\&|SENDAPP|SENDFAC|||20190123062351.436+0530||ADT^A04|6501|T|2.4\n" +
+            "BTS|3\n" +
+            "FTS|1\n";
+
+    @BeforeMethod
+    private void setUP() {
+
+        count.set(0);
+    }
+
+    private SiddhiAppRuntime createRuntime(SiddhiManager siddhiManager, File file) {
+
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@source( type = 'hl7file',\n" +
+                "file.path = '" + file.getAbsolutePath().replace("\\", "/") + "',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    try {
+                        Message message = pipeParser.parse(event.getData(0).toString());
+                        receivedEvent.add(testUtil.getControlID(message));
+                    } catch (HL7Exception e) {
+                        log.error(e);
+                    }
+                }
+            }
+        });
+        return siddhiAppRuntime;
+    }
+
+    @Test
+    public void hl7FileConsumerTestBatchFile() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7file source to test the messages of a FHS/BHS batch file");
+        log.info("---------------------------------------------------------------------------------------------");
+        receivedEvent = Collections.synchronizedList(new ArrayList<String>(3));
+        File file = File.createTempFile("hl7-batch", ".hl7");
+        file.deleteOnExit();
+        Files.write(file.toPath(), batchFile.getBytes(StandardCharsets.UTF_8));
+        SiddhiManager siddhiManager = new SiddhiManager();
+        SiddhiAppRuntime siddhiAppRuntime = createRuntime(siddhiManager, file);
+        siddhiAppRuntime.start();
+        SiddhiTestHelper.waitForEvents(waitTime, 3, count, timeout);
+        AssertJUnit.assertEquals(3, count.get());
+        List<String> expected = new ArrayList<>(3);
+        expected.add("6101");
+        expected.add("6401");
+        expected.add("6501");
+        AssertJUnit.assertEquals(expected, receivedEvent);
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void hl7FileConsumerTestRestoreOffset() throws InterruptedException, IOException,
+            CannotRestoreSiddhiAppStateException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7file source to test that a restored app resumes from the offset of the snapshot");
+        log.info("---------------------------------------------------------------------------------------------");
+        receivedEvent = Collections.synchronizedList(new ArrayList<String>(3));
+        File file = File.createTempFile("hl7-batch", ".hl7");
+        file.deleteOnExit();
+        Files.write(file.toPath(), batchFile.getBytes(StandardCharsets.UTF_8));
+        PersistenceStore persistenceStore = new InMemoryPersistenceStore();
+        SiddhiManager siddhiManager = new SiddhiManager();
+        siddhiManager.setPersistenceStore(persistenceStore);
+        SiddhiAppRuntime siddhiAppRuntime = createRuntime(siddhiManager, file);
+        siddhiAppRuntime.start();
+        SiddhiTestHelper.waitForEvents(waitTime, 3, count, timeout);
+        AssertJUnit.assertEquals(3, count.get());
+        siddhiAppRuntime.persist();
+        Thread.sleep(500);
+        siddhiAppRuntime.shutdown();
+
+        count.set(0);
+        receivedEvent.clear();
+        Files.write(file.toPath(), "MSH|^~\\&|SENDAPP|SENDFAC|||20190124062351||ADT^A08|6601|T|2.4\n"
+                .getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        siddhiAppRuntime = createRuntime(siddhiManager, file);
+        siddhiAppRuntime.restoreLastRevision();
+        siddhiAppRuntime.start();
+        SiddhiTestHelper.waitForEvents(waitTime, 1, count, timeout);
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(1, count.get());
+        AssertJUnit.assertEquals(Collections.singletonList("6601"), receivedEvent);
+        siddhiAppRuntime.shutdown();
+    }
+}
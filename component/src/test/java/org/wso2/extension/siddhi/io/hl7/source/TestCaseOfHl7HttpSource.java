@@ -0,0 +1,190 @@
+/*
+ *  Copyright (c) 2019 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.extension.siddhi.io.hl7.source;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.hoh.api.DecodeException;
+import ca.uhn.hl7v2.hoh.api.EncodeException;
+import ca.uhn.hl7v2.hoh.api.IReceivable;
+import ca.uhn.hl7v2.hoh.hapi.client.HohClientSimple;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.PipeParser;
+import org.apache.log4j.Logger;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.extension.siddhi.io.hl7.util.TestUtil;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestCaseOfHl7HttpSource {
+
+    private static Logger log = Logger.getLogger(TestCaseOfHl7HttpSource.class);
+    private AtomicInteger count = new AtomicInteger();
+    private List<String> receivedEvent;
+    private int timeout = 10000;
+    private int waitTime = 50;
+    private PipeParser pipeParser = new PipeParser();
+    private TestUtil testUtil = new TestUtil();
+
+    @BeforeMethod
+    private void setUP() {
+
+        count.set(0);
+        File keyStoreFilePath = new File("src/test");
+        String keyStorePath = keyStoreFilePath.getAbsolutePath();
+        System.setProperty("carbon.home", keyStorePath);
+    }
+
+    @Test
+    public void hl7HttpConsumerTestER7() throws HL7Exception, InterruptedException, DecodeException,
+            EncodeException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7http source to test ER7 format messages sent over a persistent HTTP connection");
+        log.info("---------------------------------------------------------------------------------------------");
+        receivedEvent = Collections.synchronizedList(new ArrayList<String>(2));
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@source( type = 'hl7http',\n" +
+                "port = '5060',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.http.worker.pool.size = '5',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    try {
+                        Message message = pipeParser.parse(event.getData(0).toString());
+                        receivedEvent.add(testUtil.getControlID(message));
+                    } catch (HL7Exception e) {
+                        log.error(e);
+                    }
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        String payLoadER71 = "MSH|^~\\&|||||20190122111442.228+0530||ORM^O01|6101|T|2.3\r";
+        String payLoadER72 = "MSH|^~\\&|||||20190123062351.436+0530||ORU^R01^ORU_R01|6401|T|2.4\r";
+        HohClientSimple client = new HohClientSimple("localhost", 5060, "/", pipeParser);
+        try {
+            IReceivable<Message> ack1 = client.sendAndReceiveMessage(pipeParser.parse(payLoadER71));
+            IReceivable<Message> ack2 = client.sendAndReceiveMessage(pipeParser.parse(payLoadER72));
+            AssertJUnit.assertTrue(pipeParser.encode(ack1.getMessage()).contains("MSA|AA|6101"));
+            AssertJUnit.assertTrue(pipeParser.encode(ack2.getMessage()).contains("MSA|AA|6401"));
+        } finally {
+            client.close();
+        }
+        SiddhiTestHelper.waitForEvents(waitTime, 2, count, timeout);
+        AssertJUnit.assertEquals(2, count.get());
+        List<String> expected = new ArrayList<>(2);
+        expected.add("6101");
+        expected.add("6401");
+        AssertJUnit.assertEquals(expected, receivedEvent);
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void hl7HttpConsumerTestConnectionsOverPoolSize() throws HL7Exception, InterruptedException,
+            DecodeException, EncodeException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7http source to test that the connections over the worker pool size are closed and the " +
+                "listener keeps serving");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@source( type = 'hl7http',\n" +
+                "port = '5062',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.http.worker.pool.size = '4',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                count.addAndGet(events.length);
+            }
+        });
+        siddhiAppRuntime.start();
+        // two of the four workers are used by the server, so two idle connections take the remaining workers
+        List<Socket> sockets = new ArrayList<>(5);
+        try {
+            for (int i = 0; i < 5; i++) {
+                Socket socket = new Socket("localhost", 5062);
+                socket.setSoTimeout(5000);
+                sockets.add(socket);
+                Thread.sleep(200);
+            }
+            AssertJUnit.assertEquals(-1, sockets.get(4).getInputStream().read());
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+        Thread.sleep(500);
+        String payLoadER7 = "MSH|^~\\&|||||20190122111442.228+0530||ORM^O01|6102|T|2.3\r";
+        HohClientSimple client = new HohClientSimple("localhost", 5062, "/", pipeParser);
+        try {
+            IReceivable<Message> ack = client.sendAndReceiveMessage(pipeParser.parse(payLoadER7));
+            AssertJUnit.assertTrue(pipeParser.encode(ack.getMessage()).contains("MSA|AA|6102"));
+        } finally {
+            client.close();
+        }
+        SiddhiTestHelper.waitForEvents(waitTime, 1, count, timeout);
+        AssertJUnit.assertEquals(1, count.get());
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void hl7HttpConsumerTestInvalidWorkerPoolSize() {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7http source to test an invalid worker pool size");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@source( type = 'hl7http',\n" +
+                "port = '5060',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.http.worker.pool.size = '1',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        siddhiManager.createSiddhiAppRuntime(siddhiApp);
+    }
+}
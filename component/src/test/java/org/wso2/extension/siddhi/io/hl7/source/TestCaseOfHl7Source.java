@@ -26,22 +26,33 @@ import org.testng.Assert;
 import org.testng.AssertJUnit;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
+import org.wso2.extension.siddhi.io.hl7.source.exception.Hl7SourceRuntimeException;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7Er7Utils;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7HapiContextRegistry;
+import org.wso2.extension.siddhi.io.hl7.util.Hl7SequenceCounterFile;
 import org.wso2.extension.siddhi.io.hl7.util.TestUtil;
 import org.wso2.extension.siddhi.io.hl7.util.UnitTestAppender;
 import org.wso2.siddhi.core.SiddhiAppRuntime;
 import org.wso2.siddhi.core.SiddhiManager;
 import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.exception.CannotRestoreSiddhiAppStateException;
+import org.wso2.siddhi.core.exception.ConnectionUnavailableException;
 import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
 import org.wso2.siddhi.core.stream.input.InputHandler;
 import org.wso2.siddhi.core.stream.input.source.Source;
 import org.wso2.siddhi.core.stream.output.StreamCallback;
 import org.wso2.siddhi.core.util.SiddhiTestHelper;
+import org.wso2.siddhi.core.util.persistence.InMemoryPersistenceStore;
 import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -976,4 +987,861 @@ public class TestCaseOfHl7Source {
         siddhiAppRuntime.shutdown();
         executionPlanRuntime.shutdown();
     }
+
+    @Test
+    public void hl7ConsumerTestDuplicateSuppression() throws InterruptedException,
+            CannotRestoreSiddhiAppStateException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 source to test that retransmitted messages are acknowledged but emitted only once, also " +
+                "after restoring the state");
+        log.info("---------------------------------------------------------------------------------------------");
+        receivedEvent = Collections.synchronizedList(new ArrayList<String>(4));
+        SiddhiManager siddhiManager = new SiddhiManager();
+        siddhiManager.setPersistenceStore(new InMemoryPersistenceStore());
+        String siddhiApp = "@App:name('TestExecutionPlanReceiver')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5092',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.dedupe.window.ms = '600000',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        StreamCallback streamCallback = new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    try {
+                        Message message = pipeParser.parse(event.getData(0).toString());
+                        receivedEvent.add(testUtil.getControlID(message));
+                    } catch (HL7Exception e) {
+                        log.error(e);
+                    }
+                }
+            }
+        };
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", streamCallback);
+        siddhiAppRuntime.start();
+        String siddhiApp1 = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5092', " +
+                "hl7.encoding = 'er7', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        InputHandler stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        String payLoadER71 = "MSH|^~\\&|LAB|NORTH|||20190122111442||ORU^R01|7101|P|2.4\r";
+        String payLoadER72 = "MSH|^~\\&|LAB|SOUTH|||20190122111442||ORU^R01|7101|P|2.4\r";
+        String payLoadER73 = "MSH|^~\\&|LAB|NORTH|||20190122111443||ORU^R01|7102|P|2.4\r";
+        stream.send(new Object[]{payLoadER71});
+        stream.send(new Object[]{payLoadER72});
+        stream.send(new Object[]{payLoadER71});
+        stream.send(new Object[]{payLoadER73});
+        SiddhiTestHelper.waitForEvents(waitTime, 3, count, timeout);
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(3, count.get());
+        List<String> expected = new ArrayList<>(3);
+        expected.add("7101");
+        expected.add("7101");
+        expected.add("7102");
+        AssertJUnit.assertEquals(expected, receivedEvent);
+        siddhiAppRuntime.persist();
+        Thread.sleep(500);
+        siddhiAppRuntime.shutdown();
+
+        count.set(0);
+        receivedEvent.clear();
+        siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", streamCallback);
+        siddhiAppRuntime.start();
+        siddhiAppRuntime.restoreLastRevision();
+        executionPlanRuntime.shutdown();
+        executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        String payLoadER74 = "MSH|^~\\&|LAB|NORTH|||20190122111444||ORU^R01|7103|P|2.4\r";
+        stream.send(new Object[]{payLoadER73});
+        stream.send(new Object[]{payLoadER74});
+        SiddhiTestHelper.waitForEvents(waitTime, 1, count, timeout);
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(1, count.get());
+        AssertJUnit.assertEquals(Collections.singletonList("7103"), receivedEvent);
+        siddhiAppRuntime.shutdown();
+        executionPlanRuntime.shutdown();
+    }
+
+    @Test
+    public void hl7ConsumerTestJournalReplay() throws InterruptedException, IOException,
+            CannotRestoreSiddhiAppStateException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 source to test that the journaled messages received after the last snapshot are emitted " +
+                "again when the state is restored");
+        log.info("---------------------------------------------------------------------------------------------");
+        receivedEvent = Collections.synchronizedList(new ArrayList<String>(3));
+        Path journalDir = Files.createTempDirectory("hl7-journal");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        siddhiManager.setPersistenceStore(new InMemoryPersistenceStore());
+        String siddhiApp = "@App:name('TestExecutionPlanReceiver')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5093',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.journal.dir = '" + journalDir.toAbsolutePath().toString().replace("\\", "/") + "',\n" +
+                "hl7.journal.segment.size = '4096',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        StreamCallback streamCallback = new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    try {
+                        Message message = pipeParser.parse(event.getData(0).toString());
+                        receivedEvent.add(testUtil.getControlID(message));
+                    } catch (HL7Exception e) {
+                        log.error(e);
+                    }
+                }
+            }
+        };
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", streamCallback);
+        siddhiAppRuntime.start();
+        String siddhiApp1 = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5093', " +
+                "hl7.encoding = 'er7', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        InputHandler stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        stream.send(new Object[]{"MSH|^~\\&|LAB|NORTH|||20190122111442||ORU^R01|7201|P|2.4\r"});
+        stream.send(new Object[]{"MSH|^~\\&|LAB|NORTH|||20190122111443||ORU^R01|7202|P|2.4\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 2, count, timeout);
+        siddhiAppRuntime.persist();
+        Thread.sleep(500);
+        stream.send(new Object[]{"MSH|^~\\&|LAB|NORTH|||20190122111444||ORU^R01|7203|P|2.4\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 3, count, timeout);
+        AssertJUnit.assertEquals(3, count.get());
+        executionPlanRuntime.shutdown();
+        siddhiAppRuntime.shutdown();
+
+        count.set(0);
+        receivedEvent.clear();
+        siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", streamCallback);
+        siddhiAppRuntime.start();
+        siddhiAppRuntime.restoreLastRevision();
+        SiddhiTestHelper.waitForEvents(waitTime, 1, count, timeout);
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(1, count.get());
+        AssertJUnit.assertEquals(Collections.singletonList("7203"), receivedEvent);
+        siddhiAppRuntime.shutdown();
+        File[] segmentFiles = journalDir.toFile().listFiles();
+        if (segmentFiles != null) {
+            for (File segmentFile : segmentFiles) {
+                segmentFile.delete();
+            }
+        }
+        journalDir.toFile().delete();
+    }
+
+    @Test
+    public void hl7ConsumerTestSequenceNumberProtocol() throws InterruptedException, IOException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 source and sink to test the sequence number protocol, resynchronizing the sink on a gap " +
+                "and keeping the expected sequence number across a restart");
+        log.info("---------------------------------------------------------------------------------------------");
+        receivedEvent = Collections.synchronizedList(new ArrayList<String>(4));
+        Path sequenceDir = Files.createTempDirectory("hl7-sequence");
+        Path sourceFile = sequenceDir.resolve("source.seq");
+        Path sinkFile = sequenceDir.resolve("sink.seq");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlanReceiver')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5094',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.sequence.file = '" + sourceFile.toAbsolutePath().toString().replace("\\", "/") + "',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        StreamCallback streamCallback = new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    receivedEvent.add(Hl7Er7Utils.getField(event.getData(0).toString(), "MSH", 13));
+                }
+            }
+        };
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", streamCallback);
+        siddhiAppRuntime.start();
+        String siddhiApp1 = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5094', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.sequence.file = '" + sinkFile.toAbsolutePath().toString().replace("\\", "/") + "', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        InputHandler stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        stream.send(new Object[]{"MSH|^~\\&|LAB|NORTH|||20190122111442||ORU^R01|7301|P|2.4\r"});
+        stream.send(new Object[]{"MSH|^~\\&|LAB|NORTH|||20190122111443||ORU^R01|7302|P|2.4\r"});
+        stream.send(new Object[]{"MSH|^~\\&|LAB|NORTH|||20190122111444||ORU^R01|7303|P|2.4\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 3, count, timeout);
+        AssertJUnit.assertEquals(3, count.get());
+        List<String> expected = new ArrayList<>(4);
+        expected.add("1");
+        expected.add("2");
+        expected.add("3");
+        AssertJUnit.assertEquals(expected, receivedEvent);
+        executionPlanRuntime.shutdown();
+
+        // the counter of the sink runs ahead, the rejected message is sent again with the expected number
+        Hl7SequenceCounterFile sinkCounter = new Hl7SequenceCounterFile(sinkFile, 1);
+        sinkCounter.open();
+        sinkCounter.set("localhost:5094", 9);
+        sinkCounter.close();
+        executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        stream.send(new Object[]{"MSH|^~\\&|LAB|NORTH|||20190122111445||ORU^R01|7304|P|2.4\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 4, count, timeout);
+        expected.add("4");
+        AssertJUnit.assertEquals(expected, receivedEvent);
+        executionPlanRuntime.shutdown();
+        siddhiAppRuntime.shutdown();
+
+        count.set(0);
+        receivedEvent.clear();
+        siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", streamCallback);
+        siddhiAppRuntime.start();
+        String siddhiApp2 = "@App:name('TestExecutionPlanWithoutSequence')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5094', " +
+                "hl7.encoding = 'er7', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime duplicateRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp2);
+        duplicateRuntime.start();
+        duplicateRuntime.getInputHandler("hl7sinkStream").send(new Object[]{
+                "MSH|^~\\&|LAB|NORTH|||20190122111443||ORU^R01|7302|P|2.4|2\r"});
+        duplicateRuntime.shutdown();
+        executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        stream.send(new Object[]{"MSH|^~\\&|LAB|NORTH|||20190122111446||ORU^R01|7305|P|2.4\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 1, count, timeout);
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(1, count.get());
+        AssertJUnit.assertEquals(Collections.singletonList("5"), receivedEvent);
+        executionPlanRuntime.shutdown();
+
+        // the slot of another uri is reused, and the unknown counter is queried instead of sending a number which
+        // the receiver would acknowledge as a duplicate without emitting the message
+        sinkCounter = new Hl7SequenceCounterFile(sinkFile, 1);
+        sinkCounter.open();
+        sinkCounter.reset();
+        sinkCounter.set("localhost:5000", 2);
+        sinkCounter.close();
+        count.set(0);
+        receivedEvent.clear();
+        executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        stream.send(new Object[]{"MSH|^~\\&|LAB|NORTH|||20190122111447||ORU^R01|7306|P|2.4\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 1, count, timeout);
+        AssertJUnit.assertEquals(Collections.singletonList("6"), receivedEvent);
+        executionPlanRuntime.shutdown();
+        siddhiAppRuntime.shutdown();
+        Files.deleteIfExists(sourceFile);
+        Files.deleteIfExists(sinkFile);
+        Files.deleteIfExists(sequenceDir);
+    }
+
+    @Test
+    public void hl7ConsumerTestRouting() throws InterruptedException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 sources sharing a port to test that the messages are routed by their message type and " +
+                "that messages accepted by no source are not emitted");
+        log.info("---------------------------------------------------------------------------------------------");
+        final List<String> adtEvents = Collections.synchronizedList(new ArrayList<String>(2));
+        final List<String> otherEvents = Collections.synchronizedList(new ArrayList<String>(2));
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlanReceiver')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5095',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.route.message.type = 'ADT',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream adtStream (payload string);\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5095',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.route.message.type = 'ORU, ORM',\n" +
+                "hl7.route.trigger.event = 'R01',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream otherStream (payload string);\n";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("adtStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    adtEvents.add(Hl7Er7Utils.getField(event.getData(0).toString(), "MSH", 10));
+                }
+            }
+        });
+        siddhiAppRuntime.addCallback("otherStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    otherEvents.add(Hl7Er7Utils.getField(event.getData(0).toString(), "MSH", 10));
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        String siddhiApp1 = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5095', " +
+                "hl7.encoding = 'er7', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        InputHandler stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        stream.send(new Object[]{"MSH|^~\\&|LAB|NORTH|||20190122111442||ORU^R01|7401|P|2.4\r"});
+        stream.send(new Object[]{"MSH|^~\\&|ADM|NORTH|||20190122111442||ADT^A01|7402|P|2.4\r"});
+        stream.send(new Object[]{"MSH|^~\\&|ORD|NORTH|||20190122111442||ORM^O01|7403|P|2.4\r"});
+        stream.send(new Object[]{"MSH|^~\\&|ADM|NORTH|||20190122111442||ADT^A04|7404|P|2.4\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 3, count, timeout);
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(3, count.get());
+        List<String> expected = new ArrayList<>(2);
+        expected.add("7402");
+        expected.add("7404");
+        AssertJUnit.assertEquals(expected, adtEvents);
+        AssertJUnit.assertEquals(Collections.singletonList("7401"), otherEvents);
+        executionPlanRuntime.shutdown();
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void hl7ConsumerTestSharedListenerAcrossApps() throws InterruptedException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 sources of two Siddhi apps sharing a port to test that the messages are selected by the " +
+                "receiving application and that the listener is kept until the last source disconnects");
+        log.info("---------------------------------------------------------------------------------------------");
+        final List<String> pharmacyEvents = Collections.synchronizedList(new ArrayList<String>(2));
+        final List<String> labEvents = Collections.synchronizedList(new ArrayList<String>(2));
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String pharmacyApp = "@App:name('TestExecutionPlanPharmacy')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5096',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.route.receiving.application = 'PHARMACY',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        String labApp = "@App:name('TestExecutionPlanLab')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5096',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.route.receiving.application = 'LAB',\n" +
+                "hl7.route.receiving.facility = 'NORTH, SOUTH',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        SiddhiAppRuntime pharmacyRuntime = siddhiManager.createSiddhiAppRuntime(pharmacyApp);
+        pharmacyRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    pharmacyEvents.add(Hl7Er7Utils.getField(event.getData(0).toString(), "MSH", 10));
+                }
+            }
+        });
+        SiddhiAppRuntime labRuntime = siddhiManager.createSiddhiAppRuntime(labApp);
+        labRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    labEvents.add(Hl7Er7Utils.getField(event.getData(0).toString(), "MSH", 10));
+                }
+            }
+        });
+        pharmacyRuntime.start();
+        labRuntime.start();
+        String siddhiApp1 = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5096', " +
+                "hl7.encoding = 'er7', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        InputHandler stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|PHARMACY|NORTH|20190122111442||ORM^O01|7501|P|2.4\r"});
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|LAB|NORTH|20190122111442||ORM^O01|7502|P|2.4\r"});
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|LAB|EAST|20190122111442||ORM^O01|7503|P|2.4\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 2, count, timeout);
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(2, count.get());
+        AssertJUnit.assertEquals(Collections.singletonList("7501"), pharmacyEvents);
+        AssertJUnit.assertEquals(Collections.singletonList("7502"), labEvents);
+
+        pharmacyRuntime.shutdown();
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|PHARMACY|NORTH|20190122111443||ORM^O01|7504|P|2.4\r"});
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|LAB|SOUTH|20190122111443||ORM^O01|7505|P|2.4\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 3, count, timeout);
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(3, count.get());
+        AssertJUnit.assertEquals(Collections.singletonList("7501"), pharmacyEvents);
+        List<String> expected = new ArrayList<>(2);
+        expected.add("7502");
+        expected.add("7505");
+        AssertJUnit.assertEquals(expected, labEvents);
+        executionPlanRuntime.shutdown();
+        labRuntime.shutdown();
+    }
+
+    @Test
+    public void hl7ConsumerTestTypeFilter() throws InterruptedException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Source test to check that the messages of the excluded or not included types are " +
+                "acknowledged and dropped");
+        log.info("---------------------------------------------------------------------------------------------");
+        final List<String> receivedEvents = Collections.synchronizedList(new ArrayList<String>(2));
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlanTypeFilter')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5097',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.include.types = 'ADT',\n" +
+                "hl7.exclude.types = 'adt^A31',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    receivedEvents.add(Hl7Er7Utils.getField(event.getData(0).toString(), "MSH", 10));
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        String siddhiApp1 = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5097', " +
+                "hl7.encoding = 'er7', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        InputHandler stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|ADM|MAIN|20190122111442||ADT^A01|7601|P|2.4\r"});
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|ADM|MAIN|20190122111442||ADT^A31|7602|P|2.4\r"});
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|ADM|MAIN|20190122111442||QRY^A19|7603|P|2.4\r"});
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|ADM|MAIN|20190122111442||ADT^A04|7604|P|2.4\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 2, count, timeout);
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(2, count.get());
+        List<String> expected = new ArrayList<>(2);
+        expected.add("7601");
+        expected.add("7604");
+        AssertJUnit.assertEquals(expected, receivedEvents);
+        executionPlanRuntime.shutdown();
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void hl7ConsumerTestTypeFilterBeforeParsing() throws InterruptedException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Source test to check that an excluded message is acknowledged with AA by the connection " +
+                "before it is parsed, even if its version cannot be parsed");
+        log.info("---------------------------------------------------------------------------------------------");
+        final List<String> receivedEvents = Collections.synchronizedList(new ArrayList<String>(1));
+        final List<String> ackCodes = Collections.synchronizedList(new ArrayList<String>(3));
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlanTypeFilterBeforeParsing')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5105',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.exclude.types = 'ADT^A31',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    receivedEvents.add(Hl7Er7Utils.getField(event.getData(0).toString(), "MSH", 10));
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        String siddhiApp1 = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5105', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.raw.mode = 'true', " +
+                "ack.stream = 'hl7FilterAcks', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);" +
+                "@source(type = 'inMemory', topic = 'hl7FilterAcks', @map(type = 'passThrough'))" +
+                "define stream AckStream(controlId string, ackCode string, ackText string, errorCodes string, " +
+                "latency long);";
+        SiddhiAppRuntime executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        executionPlanRuntime.addCallback("AckStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    ackCodes.add(event.getData(0) + ":" + event.getData(1));
+                }
+            }
+        });
+        InputHandler stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        // HAPI cannot parse the version 9.9, so the message would be rejected if it was filtered after parsing
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|ADM|MAIN|20190122111442||ADT^A31|7611|P|9.9\r" +
+                "EVN|A31|20190122111442\r"});
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|ADM|MAIN|20190122111442||ADT^A31|7612|P|2.4\r" +
+                "EVN|A31|20190122111442\r"});
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|ADM|MAIN|20190122111442||ADT^A01|7613|P|2.4\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 1, count, timeout);
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(1, count.get());
+        AssertJUnit.assertEquals(Collections.singletonList("7613"), receivedEvents);
+        List<String> expected = new ArrayList<>(3);
+        expected.add("7611:AA");
+        expected.add("7612:AA");
+        expected.add("7613:AA");
+        AssertJUnit.assertEquals(expected, ackCodes);
+        executionPlanRuntime.shutdown();
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void hl7ConsumerTestTransportProperties() throws InterruptedException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Source test to check that the MSH fields and the sender are mapped from transport properties");
+        log.info("---------------------------------------------------------------------------------------------");
+        final List<Object[]> receivedData = Collections.synchronizedList(new ArrayList<Object[]>(2));
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlanTransportProperties')\n" +
+                "@source ( type = 'hl7',\n" +
+                "port = '5098',\n" +
+                "hl7.encoding = 'xml',\n" +
+                "@map (type = 'xml', namespaces='ns=urn:hl7-org:v2xml', @attributes(" +
+                "EVNTS1 = 'ns:EVN/ns:EVN.2/ns:TS.1', controlId = 'trp:MSH-10', messageType = 'trp:MSH-9.1', " +
+                "triggerEvent = 'trp:MSH-9.2', sender = 'trp:remote.address', receivedTime = 'trp:received.time')))\n" +
+                "define stream hl7stream (EVNTS1 string, controlId string, messageType string, " +
+                "triggerEvent string, sender string, receivedTime string);\n";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    receivedData.add(event.getData());
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        String siddhiApp1 = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5098', " +
+                "hl7.encoding = 'er7', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        InputHandler stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        long startTime = System.currentTimeMillis();
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|ADM|MAIN|20190122111442||ADT^A01|7701|P|2.3\r" +
+                "EVN|A01|20190122111442\r"});
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|ADM|MAIN|20190122111443||ADT^A04|7702|P|2.3\r" +
+                "EVN|A04|20190122111443\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 2, count, timeout);
+        AssertJUnit.assertEquals(2, count.get());
+        AssertJUnit.assertEquals("20190122111442", receivedData.get(0)[0]);
+        AssertJUnit.assertEquals("7701", receivedData.get(0)[1]);
+        AssertJUnit.assertEquals("ADT", receivedData.get(0)[2]);
+        AssertJUnit.assertEquals("A01", receivedData.get(0)[3]);
+        AssertJUnit.assertEquals("127.0.0.1", receivedData.get(0)[4]);
+        AssertJUnit.assertTrue(Long.parseLong(receivedData.get(0)[5].toString()) >= startTime);
+        AssertJUnit.assertEquals("7702", receivedData.get(1)[1]);
+        AssertJUnit.assertEquals("A04", receivedData.get(1)[3]);
+        executionPlanRuntime.shutdown();
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void hl7ConsumerTestLazyParsing() throws InterruptedException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Source test to check that a large message is received as it is when only its header is parsed");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlanLazyParsing')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5099',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.lazy.parsing = 'true',\n" +
+                "hl7.route.message.type = 'ORU',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        receivedEvent = Collections.synchronizedList(new ArrayList<String>(1));
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    receivedEvent.add(event.getData(0).toString());
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        String siddhiApp1 = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5099', " +
+                "hl7.encoding = 'er7', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        InputHandler stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        StringBuilder payload = new StringBuilder("MSH|^~\\&|LAB|MAIN|EHR|MAIN|20190122111442||ORU^R01|7801|P|2.3\r" +
+                "PID|1||12345||DOE^JOHN\r" +
+                "OBR|1|||CBC\r");
+        for (int i = 1; i <= 300; i++) {
+            payload.append("OBX|").append(i).append("|NM|WBC||").append(i).append("|10*3/uL\r");
+        }
+        stream.send(new Object[]{payload.toString()});
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|ADM|MAIN|20190122111442||ADT^A01|7802|P|2.3\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 1, count, timeout);
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(1, count.get());
+        String received = receivedEvent.get(0);
+        AssertJUnit.assertEquals("7801", Hl7Er7Utils.getField(received, "MSH", 10));
+        AssertJUnit.assertEquals(300, received.split("\rOBX\\|", -1).length - 1);
+        AssertJUnit.assertTrue(received.contains("\rOBX|300|NM|WBC||300|10*3/uL"));
+        executionPlanRuntime.shutdown();
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test
+    public void hl7ConsumerTestGenericModelWithAllowedVersions() throws InterruptedException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Source test to check that the generic model is used and the other versions are rejected");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlanGenericModel')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5100',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.model = 'generic',\n" +
+                "hl7.allowed.versions = '2.4, 2.5.1',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        receivedEvent = Collections.synchronizedList(new ArrayList<String>(2));
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    receivedEvent.add(Hl7Er7Utils.getField(event.getData(0).toString(), "MSH", 10));
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        String siddhiApp1 = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5100', " +
+                "hl7.encoding = 'er7', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        InputHandler stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|ADM|MAIN|20190122111442||ADT^A01|7901|P|2.3\r"});
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|ADM|MAIN|20190122111442||ADT^A01|7902|P|2.4\r" +
+                "PID|1||12345||DOE^JOHN\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 1, count, timeout);
+        Thread.sleep(500);
+        AssertJUnit.assertEquals(1, count.get());
+        AssertJUnit.assertEquals(Collections.singletonList("7902"), receivedEvent);
+        executionPlanRuntime.shutdown();
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void hl7ConsumerTestInvalidAllowedVersion() {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 source test with an invalid hl7.allowed.versions");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5100',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.allowed.versions = '2.4, 9.9',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiManager.shutdown();
+    }
+
+    @Test
+    public void hl7ConsumerTestWarmUp() throws InterruptedException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Source test to check that messages are received after the source and the sink warm up");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlanWarmUp')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5101',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.warmup.templates = 'ADT, ORU, ORM',\n" +
+                "hl7.warmup.iterations = '5',\n" +
+                "hl7.allowed.versions = '2.3, 2.5.1',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        receivedEvent = Collections.synchronizedList(new ArrayList<String>(1));
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("hl7stream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+
+                for (Event event : events) {
+                    count.incrementAndGet();
+                    receivedEvent.add(Hl7Er7Utils.getField(event.getData(0).toString(), "MSH", 10));
+                }
+            }
+        });
+        siddhiAppRuntime.start();
+        String siddhiApp1 = "@App:name('TestExecutionPlan')\n" +
+                "@sink(type='hl7', " +
+                "uri = 'localhost:5101', " +
+                "hl7.encoding = 'er7', " +
+                "hl7.warmup.templates = 'ADT', " +
+                "hl7.warmup.iterations = '5', " +
+                "@map(type = 'text', @payload(\"{{payload}}\")))" +
+                "define stream hl7sinkStream(payload string);";
+        SiddhiAppRuntime executionPlanRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp1);
+        InputHandler stream = executionPlanRuntime.getInputHandler("hl7sinkStream");
+        executionPlanRuntime.start();
+        stream.send(new Object[]{"MSH|^~\\&|HIS|MAIN|ADM|MAIN|20190122111442||ADT^A01|8101|P|2.3\r" +
+                "PID|1||12345||DOE^JOHN\r"});
+        SiddhiTestHelper.waitForEvents(waitTime, 1, count, timeout);
+        AssertJUnit.assertEquals(1, count.get());
+        AssertJUnit.assertEquals(Collections.singletonList("8101"), receivedEvent);
+        executionPlanRuntime.shutdown();
+        siddhiAppRuntime.shutdown();
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void hl7ConsumerTestInvalidWarmUpTemplate() {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 source test with an invalid hl7.warmup.templates");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlan')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5101',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "hl7.warmup.templates = 'ADT, SIU',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiManager.shutdown();
+    }
+
+    @Test
+    public void hl7ConsumerTestSharedHapiContext() {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Source test to check that the sources configured alike share a HAPI context");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String configuration = "Hl7Source[tls=false, lazy=true, model=default, versions=[2.4]]";
+        SiddhiAppRuntime[] siddhiAppRuntimes = new SiddhiAppRuntime[2];
+        for (int i = 0; i < siddhiAppRuntimes.length; i++) {
+            String siddhiApp = "@App:name('TestExecutionPlanSharedContext" + i + "')\n" +
+                    "@source( type = 'hl7',\n" +
+                    "port = '" + (5102 + i) + "',\n" +
+                    "hl7.encoding = 'ER7',\n" +
+                    "hl7.lazy.parsing = 'true',\n" +
+                    "hl7.allowed.versions = '2.4',\n" +
+                    "@map(type = 'text'))\n" +
+                    "define stream hl7stream (payload string);\n";
+            siddhiAppRuntimes[i] = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+            siddhiAppRuntimes[i].start();
+        }
+        AssertJUnit.assertEquals(2, Hl7HapiContextRegistry.getReferences(configuration));
+        siddhiAppRuntimes[0].shutdown();
+        AssertJUnit.assertEquals(1, Hl7HapiContextRegistry.getReferences(configuration));
+        siddhiAppRuntimes[1].shutdown();
+        AssertJUnit.assertEquals(0, Hl7HapiContextRegistry.getReferences(configuration));
+    }
+
+    @Test(expectedExceptions = Hl7SourceRuntimeException.class,
+            expectedExceptionsMessageRegExp = "A source with the same route .*")
+    public void hl7ConsumerTestSameRouteOnSharedPort() throws ConnectionUnavailableException {
+
+        log.info("---------------------------------------------------------------------------------------------");
+        log.info("hl7 Source test to check that a source with the same route as an attached source cannot share " +
+                "its port");
+        log.info("---------------------------------------------------------------------------------------------");
+        SiddhiManager siddhiManager = new SiddhiManager();
+        String siddhiApp = "@App:name('TestExecutionPlanSameRoute')\n" +
+                "@source( type = 'hl7',\n" +
+                "port = '5104',\n" +
+                "hl7.encoding = 'ER7',\n" +
+                "@map(type = 'text'))\n" +
+                "define stream hl7stream (payload string);\n";
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.start();
+        try {
+            // the listener of the port is running, so the transport of the second source is not used
+            Hl7ListenerRegistry.attach(5104, "Hl7Source[charset=UTF-8, tls=false, lazy=false, model=default, " +
+                    "versions=*]", new Hl7Route(null, null, null, null, null, null), null, null, null);
+        } finally {
+            siddhiAppRuntime.shutdown();
+        }
+    }
 }